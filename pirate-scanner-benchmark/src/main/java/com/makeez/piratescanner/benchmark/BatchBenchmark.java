@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner.benchmark;
+
+import com.makeez.piratescanner.BatchScanner;
+import com.makeez.piratescanner.CompiledPirateList;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the batch scanner in devices per second, over inventory files written up front
+ * (and left in the page cache, so the disk is not what is measured).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BatchBenchmark {
+    private static final int DEVICES = 2000;
+
+    @Param({ "1000", "100000" })
+    public int entries;
+
+    @Param({ "200" })
+    public int installed;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    private File mDir;
+    private List<File> mInventories;
+    private BatchScanner mScanner;
+    private ForkJoinPool mPool;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("inventories", "");
+        mDir.delete();
+        mDir.mkdir();
+        for (int i = 0; i < DEVICES; i++) {
+            StringBuilder inventory = new StringBuilder();
+            for (String packageName : Fixtures.installed(installed, entries)) {
+                inventory.append(packageName).append('\n');
+            }
+            OutputStream os = new FileOutputStream(new File(mDir, "device-" + i + ".txt"));
+            try {
+                os.write(inventory.toString().getBytes("UTF-8"));
+            } finally {
+                os.close();
+            }
+        }
+        mInventories = BatchScanner.inventories(mDir);
+        mScanner = new BatchScanner(CompiledPirateList.compile(Fixtures.pirates(entries), 0L).index());
+        mPool = new ForkJoinPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPool.shutdown();
+        for (File file : mInventories) {
+            file.delete();
+        }
+        mDir.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DEVICES)
+    public BatchScanner.Result scan() {
+        return mScanner.scan(mInventories, mPool);
+    }
+}
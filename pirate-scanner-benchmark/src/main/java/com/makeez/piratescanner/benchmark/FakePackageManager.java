@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner.benchmark;
+
+import com.makeez.piratescanner.PackageSource;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Stands in for PackageManager. A lookup for a package that is not installed costs
+ * missCost JMH tokens on top of the hash lookup, to model the binder call and the
+ * NameNotFoundException thrown back for it.
+ */
+final class FakePackageManager implements PackageSource {
+    private final Set<String> mInstalled;
+    private final long mMissCost;
+
+    FakePackageManager(Set<String> installed, long missCost) {
+        mInstalled = Collections.unmodifiableSet(installed);
+        mMissCost = missCost;
+    }
+
+    /**
+     * Equivalent of getApplicationInfo(packageName, 0) succeeding.
+     */
+    boolean hasPackage(String packageName) {
+        if (mInstalled.contains(packageName)) {
+            return true;
+        }
+        if (mMissCost > 0) {
+            Blackhole.consumeCPU(mMissCost);
+        }
+        return false;
+    }
+
+    @Override
+    public Set<String> getInstalledPackages() {
+        return mInstalled;
+    }
+}
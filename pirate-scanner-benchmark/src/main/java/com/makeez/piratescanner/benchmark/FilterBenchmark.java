@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner.benchmark;
+
+import com.makeez.piratescanner.Filter;
+import com.makeez.piratescanner.Pirate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selecting the pirates that match the scanner's filters, comparing filter arrays pairwise
+ * (as the scanner used to) against a single mask test.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FilterBenchmark {
+    @Param({ "100", "1000", "10000", "100000" })
+    public int entries;
+
+    @Param({ "1", "2", "4" })
+    public int filters;
+
+    private List<Pirate> mPirates;
+    private int[] mFilters;
+    private int mFilterMask;
+
+    @Setup
+    public void setUp() {
+        mPirates = Fixtures.pirates(entries);
+        mFilters = new int[filters];
+        for (int i = 0; i < filters; i++) {
+            mFilters[i] = Filter.LIST[Filter.LIST.length - 1 - i];
+        }
+        mFilterMask = Filter.mask(mFilters);
+    }
+
+    @Benchmark
+    public int containsAny() {
+        int count = 0;
+        for (Pirate pirate : mPirates) {
+            if (containsAny(pirate.FILTERS, mFilters)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int mask() {
+        int count = 0;
+        for (Pirate pirate : mPirates) {
+            if ((pirate.FILTER_MASK & mFilterMask) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean containsAny(int[] sources, int[] targets) {
+        if ((sources == null) || (targets == null)) {
+            return false;
+        }
+        for (int source : sources) {
+            for (int target : targets) {
+                if (source == target) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner.benchmark;
+
+import com.makeez.piratescanner.Pirate;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Synthetic pirate lists and installed package sets, shaped like the published list:
+ * two packages per pirate and one filter each.
+ */
+final class Fixtures {
+    /**
+     * Number of pirates installed on the synthetic device.
+     */
+    static final int INSTALLED_PIRATES = 2;
+
+    private Fixtures() {
+    }
+
+    static String packageName(int pirate, int variant) {
+        return "com.pirate.app" + pirate + ((variant == 0) ? "" : ".pro");
+    }
+
+    static List<Pirate> pirates(int entries) {
+        List<Pirate> pirates = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            pirates.add(new Pirate(i, "Pirate " + i,
+                    new String[] { packageName(i, 0), packageName(i, 1) },
+                    new int[] { i % 4 + 1 }));
+        }
+        return pirates;
+    }
+
+    static byte[] json(int entries) {
+        StringBuilder json = new StringBuilder(entries * 96).append('[');
+        for (int i = 0; i < entries; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"name\":\"Pirate ").append(i)
+                    .append("\",\"packages\":[\"").append(packageName(i, 0))
+                    .append("\",\"").append(packageName(i, 1))
+                    .append("\"],\"filters\":[").append(i % 4 + 1).append("]}");
+        }
+        try {
+            return json.append(']').toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    /**
+     * @param size    Number of installed packages.
+     * @param entries Size of the pirate list, the installed pirates are spread across it.
+     */
+    static Set<String> installed(int size, int entries) {
+        Set<String> installed = new HashSet<>(size * 2);
+        for (int i = 0; i < INSTALLED_PIRATES; i++) {
+            installed.add(packageName((int) ((long) entries * (i + 1) / (INSTALLED_PIRATES + 1)), 0));
+        }
+        for (int i = 0; installed.size() < size; i++) {
+            installed.add("com.example.app" + i);
+        }
+        return installed;
+    }
+}
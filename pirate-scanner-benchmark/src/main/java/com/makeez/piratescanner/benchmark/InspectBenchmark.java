@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner.benchmark;
+
+import com.makeez.piratescanner.Filter;
+import com.makeez.piratescanner.HashPirateIndex;
+import com.makeez.piratescanner.PackageDetector;
+import com.makeez.piratescanner.PackageFacts;
+import com.makeez.piratescanner.PackageInspector;
+import com.makeez.piratescanner.PackageStamp;
+import com.makeez.piratescanner.Pirate;
+import com.makeez.piratescanner.PirateIndex;
+import com.makeez.piratescanner.PirateMatcher;
+import com.makeez.piratescanner.SignatureDetector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Running a signature detector over every installed package, with no cached verdict (first scan)
+ * and with every verdict cached (later scans), against today's name check.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InspectBenchmark {
+    private static final int ENTRIES = 1000;
+
+    @Param({ "50", "500", "5000" })
+    public int installed;
+
+    /**
+     * Cost of reading and hashing the certificates of a package in JMH tokens.
+     */
+    @Param({ "10000" })
+    public long signatureCost;
+
+    private Set<String> mInstalled;
+    private List<PackageStamp> mStamps;
+    private PirateIndex mIndex;
+    private List<PackageDetector> mDetectors;
+    private PackageFacts mFacts;
+    private File mColdCache;
+    private File mWarmCache;
+
+    @Setup
+    public void setUp() throws IOException {
+        mInstalled = Fixtures.installed(installed, ENTRIES);
+        mStamps = new ArrayList<>(mInstalled.size());
+        for (String packageName : mInstalled) {
+            mStamps.add(new PackageStamp(packageName, 1, 1L));
+        }
+        mIndex = new HashPirateIndex(Fixtures.pirates(ENTRIES), Filter.ALL);
+        SignatureDetector detector = new SignatureDetector();
+        detector.add(digest("com.example.app0"), new Pirate("Repackaged", new String[0],
+                new int[] { Filter.BYPASS_IAB }));
+        mDetectors = Collections.<PackageDetector>singletonList(detector);
+        mFacts = new PackageFacts() {
+            @Override
+            public String getInstaller(String packageName) {
+                return null;
+            }
+
+            @Override
+            public Set<String> getSignatureDigests(String packageName) {
+                Blackhole.consumeCPU(signatureCost);
+                return Collections.singleton(digest(packageName));
+            }
+        };
+        mColdCache = File.createTempFile("pirate-verdicts", ".bin");
+        mColdCache.delete();
+        mWarmCache = File.createTempFile("pirate-verdicts", ".bin");
+        mWarmCache.delete();
+        PackageInspector inspector = new PackageInspector(mDetectors, mWarmCache);
+        inspector.inspect(mStamps, mFacts, Filter.ALL, new Collector());
+        inspector.save();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mWarmCache.delete();
+    }
+
+    @Benchmark
+    public PirateMatcher.Result nameCheck() {
+        return PirateMatcher.match(mIndex, mInstalled);
+    }
+
+    @Benchmark
+    public int inspectCold() {
+        // Never saved, so every package is hashed
+        return new PackageInspector(mDetectors, mColdCache).inspect(mStamps, mFacts, Filter.ALL, new Collector());
+    }
+
+    /**
+     * Verdicts loaded from the cache file, as every later scan does.
+     */
+    @Benchmark
+    public int inspectWarm() {
+        return new PackageInspector(mDetectors, mWarmCache).inspect(mStamps, mFacts, Filter.ALL, new Collector());
+    }
+
+    private static String digest(String packageName) {
+        return Integer.toHexString(packageName.hashCode());
+    }
+
+    private static final class Collector implements PirateMatcher.Listener {
+        private final List<Pirate> mFound = new ArrayList<>();
+
+        @Override
+        public boolean onMatch(Pirate pirate, String packageName) {
+            mFound.add(pirate);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner.benchmark;
+
+import com.makeez.piratescanner.CompiledPirateList;
+import com.makeez.piratescanner.Filter;
+import com.makeez.piratescanner.HashPirateIndex;
+import com.makeez.piratescanner.Pirate;
+import com.makeez.piratescanner.PirateIndex;
+import com.makeez.piratescanner.PirateMatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the installed pirates, one lookup per listed package (as the scanner used to)
+ * against a single enumeration swept through an index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MatchBenchmark {
+    @Param({ "100", "1000", "10000", "100000" })
+    public int entries;
+
+    @Param({ "50", "500", "5000" })
+    public int installed;
+
+    /**
+     * Cost of a lookup miss in JMH tokens, 0 for a plain hash lookup.
+     */
+    @Param({ "0", "1000" })
+    public long missCost;
+
+    private List<Pirate> mPirates;
+    private FakePackageManager mManager;
+    private PirateIndex mHashIndex;
+    private PirateIndex mCompiledIndex;
+
+    @Setup
+    public void setUp() {
+        mPirates = Fixtures.pirates(entries);
+        mManager = new FakePackageManager(Fixtures.installed(installed, entries), missCost);
+        mHashIndex = new HashPirateIndex(mPirates, Filter.ALL);
+        mCompiledIndex = CompiledPirateList.compile(mPirates, 0L).index();
+    }
+
+    @Benchmark
+    public List<Pirate> lookUpEach() {
+        List<Pirate> found = new ArrayList<>();
+        for (Pirate pirate : mPirates) {
+            for (String packageName : pirate.PACKAGES) {
+                if (mManager.hasPackage(packageName)) {
+                    found.add(pirate);
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public PirateMatcher.Result sweepHashIndex() {
+        return PirateMatcher.match(mHashIndex, mManager.getInstalledPackages());
+    }
+
+    @Benchmark
+    public PirateMatcher.Result sweepCompiledIndex() {
+        return PirateMatcher.match(mCompiledIndex, mManager.getInstalledPackages());
+    }
+
+    /**
+     * Index construction, paid once per list load.
+     */
+    @Benchmark
+    public PirateIndex buildHashIndex() {
+        return new HashPirateIndex(mPirates, Filter.ALL);
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner.benchmark;
+
+import com.makeez.piratescanner.CompiledPirateList;
+import com.makeez.piratescanner.Pirate;
+import com.makeez.piratescanner.PirateListParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning the downloaded JSON into something that can be scanned.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({ "100", "1000", "10000", "100000" })
+    public int entries;
+
+    private byte[] mJson;
+    private List<Pirate> mPirates;
+
+    @Setup
+    public void setUp() {
+        mJson = Fixtures.json(entries);
+        mPirates = Fixtures.pirates(entries);
+    }
+
+    /**
+     * Streaming parse only, nothing retained.
+     */
+    @Benchmark
+    public int parseStreaming(final Blackhole blackhole) throws IOException {
+        PirateListParser parser = new PirateListParser(new ByteArrayInputStream(mJson));
+        parser.parse(new PirateListParser.Listener() {
+            @Override
+            public void onPirate(Pirate pirate) {
+                blackhole.consume(pirate);
+            }
+        });
+        return parser.getAccepted();
+    }
+
+    /**
+     * Parse into the list PirateList hands out.
+     */
+    @Benchmark
+    public List<Pirate> parseToList() {
+        return PirateListParser.parse(new ByteArrayInputStream(mJson));
+    }
+
+    /**
+     * Build the binary index from an already parsed list.
+     */
+    @Benchmark
+    public CompiledPirateList compile() {
+        return CompiledPirateList.compile(mPirates, 0L);
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner.benchmark;
+
+import com.makeez.piratescanner.PatternIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching installed packages against prefix patterns (eg. com.pirate.app42.*), every pattern
+ * tried on every package against a single pass through the compiled PatternIndex.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PatternBenchmark {
+    @Param({ "100", "1000", "10000" })
+    public int patterns;
+
+    @Param({ "50", "500", "5000" })
+    public int installed;
+
+    private String[] mPatterns;
+    private String[] mPrefixes;
+    private int[][] mPositions;
+    private Set<String> mInstalled;
+    private PatternIndex mIndex;
+
+    @Setup
+    public void setUp() {
+        mPatterns = new String[patterns];
+        mPrefixes = new String[patterns];
+        mPositions = new int[patterns][];
+        for (int i = 0; i < patterns; i++) {
+            mPrefixes[i] = Fixtures.packageName(i, 0) + ".";
+            mPatterns[i] = mPrefixes[i] + "*";
+            mPositions[i] = new int[] { i };
+        }
+        // Installed pirates are the .pro variants, matched by the patterns only
+        mInstalled = Fixtures.installed(installed, patterns);
+        for (int i = 1; i <= Fixtures.INSTALLED_PIRATES; i++) {
+            mInstalled.remove(Fixtures.packageName(patterns * i / (Fixtures.INSTALLED_PIRATES + 1), 0));
+            mInstalled.add(Fixtures.packageName(patterns * i / (Fixtures.INSTALLED_PIRATES + 1), 1));
+        }
+        mIndex = new PatternIndex(mPatterns, mPositions);
+    }
+
+    @Benchmark
+    public int tryEachPattern() {
+        int found = 0;
+        for (String packageName : mInstalled) {
+            for (String prefix : mPrefixes) {
+                if (packageName.startsWith(prefix)) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int sweepPatternIndex() {
+        int found = 0;
+        for (String packageName : mInstalled) {
+            int[] positions = mIndex.positionsOf(packageName);
+            if (positions != null) {
+                found += positions.length;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Compilation, paid once per list version.
+     */
+    @Benchmark
+    public PatternIndex compile() {
+        return new PatternIndex(mPatterns, mPositions);
+    }
+}
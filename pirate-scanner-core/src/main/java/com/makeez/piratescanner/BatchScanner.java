@@ -0,0 +1,359 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Matches package inventories collected off devices (eg. a device farm or telemetry) against a
+ * pirate list, outside of Android. Every inventory file holds the installed packages of one
+ * device, one package name per line, optionally gzip compressed (.gz). Blank lines and lines
+ * starting with '#' are skipped.
+ *
+ * Inventories are streamed, never held in memory as a whole, and split across a fork/join pool
+ * that shares one read-only index. What comes out is the number of devices each pirate was found
+ * on. Meant for servers, fork/join is not available on Android before API 21.
+ *
+ * Usage: java -cp pirate-scanner-core.jar com.makeez.piratescanner.BatchScanner
+ * [-filters 1,2] pirate-list.json inventory-dir-or-file... > hits.tsv
+ */
+public final class BatchScanner {
+    private static final int BUFFER_SIZE = 8192;
+    // Leaves per worker thread, so that uneven inventories still spread evenly
+    private static final int LEAVES_PER_THREAD = 8;
+
+    public static final class Result {
+        /**
+         * Number of inventories scanned.
+         */
+        public final long DEVICES;
+        /**
+         * Number of inventories that could not be read, they are not counted in DEVICES.
+         */
+        public final long FAILED;
+        /**
+         * Number of devices with at least one pirate.
+         */
+        public final long INFECTED;
+        /**
+         * Number of package names read, across every device.
+         */
+        public final long PACKAGES;
+        /**
+         * Number of devices each pirate was found on, most found first. Pirates never found are left out.
+         */
+        public final Map<Pirate, Integer> HITS;
+        /**
+         * Time the scan took, in nanoseconds.
+         */
+        public final long TIME;
+
+        Result(long devices, long failed, long infected, long packages, Map<Pirate, Integer> hits, long time) {
+            DEVICES = devices;
+            FAILED = failed;
+            INFECTED = infected;
+            PACKAGES = packages;
+            HITS = hits;
+            TIME = time;
+        }
+
+        /**
+         * @return Throughput of the scan, in devices per second.
+         */
+        public double getDevicesPerSecond() {
+            return (TIME > 0) ? DEVICES * 1e9 / TIME : 0;
+        }
+    }
+
+    private final PirateIndex mIndex;
+    private final PatternIndex mPatterns;
+
+    /**
+     * @param index Pirates to be matched, shared by every worker thread so it must not change.
+     *              Indexes of a CompiledPirateList and HashPirateIndex are safe to share.
+     */
+    public BatchScanner(PirateIndex index) {
+        if (index == null) {
+            throw new NullPointerException("Index must not be null.");
+        }
+        mIndex = index;
+        mPatterns = index.patterns();
+    }
+
+    /**
+     * Scan the inventories in parallel.
+     *
+     * @param inventories Inventory files, one per device.
+     * @param pool        Pool the scan is split across.
+     * @return Result of the scan.
+     */
+    public Result scan(List<File> inventories, ForkJoinPool pool) {
+        if ((inventories == null) || (pool == null)) {
+            throw new NullPointerException("Inventories and pool must not be null.");
+        }
+        long start = System.nanoTime();
+        Tally tally = new Tally(mIndex.size());
+        File[] files = inventories.toArray(new File[inventories.size()]);
+        int leaf = Math.max(1, files.length / (pool.getParallelism() * LEAVES_PER_THREAD));
+        pool.invoke(new Split(files, 0, files.length, leaf, tally));
+        return tally.result(mIndex, System.nanoTime() - start);
+    }
+
+    /**
+     * Write the hits of a scan as tab separated lines of hits and pirate name, most found first.
+     */
+    public static void write(Result result, OutputStream stream) throws IOException {
+        Writer writer = new OutputStreamWriter(stream, "UTF-8");
+        for (Map.Entry<Pirate, Integer> entry : result.HITS.entrySet()) {
+            writer.write(entry.getValue() + "\t" + entry.getKey().NAME + "\n");
+        }
+        writer.flush();
+    }
+
+    /**
+     * @param dirOrFile Inventory file, or directory whose files (not subdirectories) are inventories.
+     * @return Inventory files, sorted by path.
+     */
+    public static List<File> inventories(File dirOrFile) {
+        List<File> inventories = new ArrayList<>();
+        File[] files = dirOrFile.isDirectory() ? dirOrFile.listFiles() : new File[] { dirOrFile };
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.isFile()) {
+                    inventories.add(file);
+                }
+            }
+        }
+        return inventories;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int filterMask = Filter.ALL;
+        int arg = 0;
+        if ((args.length > 1) && "-filters".equals(args[0])) {
+            filterMask = 0;
+            for (String filter : args[1].split(",")) {
+                filterMask |= Filter.mask(Integer.parseInt(filter.trim()));
+            }
+            arg = 2;
+        }
+        if (args.length - arg < 2) {
+            System.err.println("Usage: BatchScanner [-filters 1,2] pirate-list.json inventory-dir-or-file...");
+            System.exit(2);
+        }
+        List<Pirate> pirateList;
+        InputStream stream = open(new File(args[arg]));
+        try {
+            pirateList = PirateListParser.parse(stream, new MetricsRecorder());
+        } finally {
+            stream.close();
+        }
+        if (pirateList == null) {
+            System.err.println("Empty pirate list: " + args[arg]);
+            System.exit(1);
+        }
+        List<File> inventories = new ArrayList<>();
+        for (int i = arg + 1; i < args.length; i++) {
+            inventories.addAll(inventories(new File(args[i])));
+        }
+        CompiledPirateList compiled = CompiledPirateList.compile(pirateList, PirateListWriter.checksum(pirateList));
+        Result result = new BatchScanner(compiled.index(filterMask)).scan(inventories, new ForkJoinPool());
+        write(result, System.out);
+        System.err.println(result.DEVICES + " devices (" + result.FAILED + " unreadable), "
+                + result.INFECTED + " with pirates, " + result.PACKAGES + " packages in "
+                + (result.TIME / 1000000) + " ms, " + Math.round(result.getDevicesPerSecond()) + " devices/s");
+    }
+
+    private static InputStream open(File file) throws IOException {
+        InputStream stream = new FileInputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            try {
+                return new GZIPInputStream(stream, BUFFER_SIZE);
+            } catch (IOException e) {
+                stream.close();
+                throw e;
+            }
+        }
+        return stream;
+    }
+
+    /**
+     * Counters shared by every worker, hits are rare enough for atomic counters not to contend.
+     */
+    private static final class Tally {
+        private final AtomicIntegerArray mHits;
+        private final AtomicLong mDevices = new AtomicLong();
+        private final AtomicLong mFailed = new AtomicLong();
+        private final AtomicLong mInfected = new AtomicLong();
+        private final AtomicLong mPackages = new AtomicLong();
+
+        Tally(int pirates) {
+            mHits = new AtomicIntegerArray(pirates);
+        }
+
+        Result result(PirateIndex index, long time) {
+            List<int[]> found = new ArrayList<>();
+            for (int i = 0, j = mHits.length(); i < j; i++) {
+                int hits = mHits.get(i);
+                if (hits > 0) {
+                    found.add(new int[] { i, hits });
+                }
+            }
+            Collections.sort(found, new Comparator<int[]>() {
+                @Override
+                public int compare(int[] a, int[] b) {
+                    // Most hits first, then in list order
+                    if (a[1] != b[1]) {
+                        return (a[1] > b[1]) ? -1 : 1;
+                    }
+                    return (a[0] < b[0]) ? -1 : ((a[0] == b[0]) ? 0 : 1);
+                }
+            });
+            Map<Pirate, Integer> hits = new LinkedHashMap<>();
+            for (int[] pirate : found) {
+                hits.put(index.get(pirate[0]), pirate[1]);
+            }
+            return new Result(mDevices.get(), mFailed.get(), mInfected.get(), mPackages.get(),
+                    Collections.unmodifiableMap(hits), time);
+        }
+    }
+
+    /**
+     * Splits a range of inventories in halves until it is small enough to be scanned by one worker.
+     */
+    private final class Split extends RecursiveAction {
+        // Never serialized, RecursiveAction just happens to be Serializable
+        private static final long serialVersionUID = 1L;
+
+        private final File[] mFiles;
+        private final int mFrom;
+        private final int mTo;
+        private final int mLeaf;
+        private final Tally mTally;
+
+        Split(File[] files, int from, int to, int leaf, Tally tally) {
+            mFiles = files;
+            mFrom = from;
+            mTo = to;
+            mLeaf = leaf;
+            mTally = tally;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= mLeaf) {
+                scanRange();
+                return;
+            }
+            int mid = (mFrom + mTo) >>> 1;
+            invokeAll(new Split(mFiles, mFrom, mid, mLeaf, mTally), new Split(mFiles, mid, mTo, mLeaf, mTally));
+        }
+
+        private void scanRange() {
+            Device device = new Device();
+            for (int i = mFrom; i < mTo; i++) {
+                try {
+                    device.scan(mFiles[i], mTally);
+                } catch (IOException e) {
+                    mTally.mFailed.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Matches one inventory after the other, reusing its flags: only the ones set are cleared.
+     */
+    private final class Device {
+        private final boolean[] mFound = new boolean[mIndex.size()];
+        private int[] mFlagged = new int[16];
+        private int mCount;
+
+        void scan(File inventory, Tally tally) throws IOException {
+            long packages = 0;
+            mCount = 0;
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(open(inventory), "UTF-8"),
+                        BUFFER_SIZE);
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String packageName = line.trim();
+                        if (packageName.isEmpty() || (packageName.charAt(0) == '#')) {
+                            continue;
+                        }
+                        packages++;
+                        flag(mIndex.positionsOf(packageName));
+                        if (mPatterns != null) {
+                            flag(mPatterns.positionsOf(packageName));
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+                tally.mDevices.incrementAndGet();
+                tally.mPackages.addAndGet(packages);
+                if (mCount > 0) {
+                    tally.mInfected.incrementAndGet();
+                }
+                for (int i = 0; i < mCount; i++) {
+                    tally.mHits.incrementAndGet(mFlagged[i]);
+                }
+            } finally {
+                for (int i = 0; i < mCount; i++) {
+                    mFound[mFlagged[i]] = false;
+                }
+            }
+        }
+
+        private void flag(int[] positions) {
+            if (positions == null) {
+                return;
+            }
+            for (int position : positions) {
+                if (!mFound[position]) {
+                    mFound[position] = true;
+                    if (mCount == mFlagged.length) {
+                        mFlagged = Arrays.copyOf(mFlagged, mCount * 2);
+                    }
+                    mFlagged[mCount++] = position;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,693 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.zip.CRC32;
+
+/**
+ * Pirate list compiled into a flat binary image, so that it can be memory-mapped and matched
+ * without re-parsing the JSON list. Nothing is allocated per entry until a package matches.
+ *
+ * Layout (big-endian):
+ * header, string offsets, pirates, pirate package refs, partitions, package index, positions,
+ * string chars. Strings are interned and stored as UTF-16 chars, package index is sorted by
+ * package name. The package index is followed by one partition per filter, holding only the
+ * packages of pirates tagged with that filter, so a filtered scan never looks at the others.
+ * The header ends with the CRC32 of everything after it, checked when the file is loaded, so that
+ * a corrupted file is compiled again rather than failing the scan halfway.
+ *
+ * Pirates and strings are only materialised when they are asked for, eg. when a package matches,
+ * and then kept in pages of a lazily filled pool, so a pirate or a string is decoded once at most.
+ */
+public final class CompiledPirateList {
+    private static final int MAGIC = 0x50534c31; // PSL1
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 72;
+    private static final int BUFFER_SIZE = 8192;
+    private static final int PIRATE_SIZE = 16;
+    private static final int PACKAGE_SIZE = 12;
+    private static final int PARTITION_SIZE = 12;
+    private static final int POOL_PAGE = 256;
+
+    private final ByteBuffer mBuffer;
+    private final long mChecksum;
+    private final long mSourceLength;
+    private final long mSourceModified;
+    private final int mPirateCount;
+    private final int mPackageCount;
+    private final int mStringOffsets;
+    private final int mPirates;
+    private final int mRefs;
+    private final int mPartitionCount;
+    private final int mPartitions;
+    private final int mPackages;
+    private final int mPositions;
+    private final int mChars;
+    // Materialised strings and pirates, one page allocated whenever one of its entries is asked for
+    private final String[][] mStringPool;
+    private final Pirate[][] mPiratePool;
+    // Patterns compiled per filter mask, null key for the unfiltered index
+    private final Map<Integer, PatternIndex> mPatterns = new HashMap<>();
+
+    private CompiledPirateList(ByteBuffer buffer) throws IOException {
+        if ((buffer.limit() < HEADER_SIZE)
+                || (buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != VERSION)) {
+            throw new IOException("Not a compiled pirate list.");
+        }
+        mBuffer = buffer;
+        mChecksum = buffer.getLong(8);
+        mSourceLength = buffer.getLong(16);
+        mSourceModified = buffer.getLong(24);
+        mPirateCount = buffer.getInt(32);
+        mPackageCount = buffer.getInt(36);
+        int stringCount = buffer.getInt(40);
+        int refCount = buffer.getInt(44);
+        int positionCount = buffer.getInt(48);
+        int charCount = buffer.getInt(52);
+        mPartitionCount = buffer.getInt(56);
+        int entryCount = buffer.getInt(60);
+        mStringOffsets = HEADER_SIZE;
+        mPirates = mStringOffsets + (stringCount + 1) * 4;
+        mRefs = mPirates + mPirateCount * PIRATE_SIZE;
+        mPartitions = mRefs + refCount * 4;
+        mPackages = mPartitions + mPartitionCount * PARTITION_SIZE;
+        mPositions = mPackages + entryCount * PACKAGE_SIZE;
+        mChars = mPositions + positionCount * 4;
+        if (mChars + charCount * 2L != buffer.limit()) {
+            throw new IOException("Truncated compiled pirate list.");
+        }
+        mStringPool = new String[(stringCount + POOL_PAGE - 1) / POOL_PAGE][];
+        mPiratePool = new Pirate[(mPirateCount + POOL_PAGE - 1) / POOL_PAGE][];
+    }
+
+    /**
+     * Memory-map a compiled pirate list.
+     *
+     * @param file File written by write().
+     * @return Compiled pirate list backed by the mapped file.
+     * @throws IOException If the file cannot be mapped or is not a valid compiled list, or is corrupted.
+     */
+    public static CompiledPirateList load(File file) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            FileChannel channel = fis.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CompiledPirateList list = new CompiledPirateList(buffer);
+            if (buffer.getLong(64) != crc(buffer)) {
+                throw new IOException("Corrupted compiled pirate list.");
+            }
+            return list;
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Compile the pirate list and write it to file.
+     *
+     * @param file           Destination file.
+     * @param pirateList     Pirates to be compiled.
+     * @param checksum       Checksum of the source list, used as the list version.
+     * @param sourceLength   Length of the source file this list is compiled from.
+     * @param sourceModified Last modified time of the source file this list is compiled from.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(File file, List<Pirate> pirateList, long checksum,
+                             long sourceLength, long sourceModified) throws IOException {
+        ByteBuffer buffer = compile(pirateList, checksum, sourceLength, sourceModified);
+        // Never write over the file in place, it may still be mapped by an earlier load()
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(temp);
+        try {
+            fos.write(buffer.array(), 0, buffer.limit());
+        } finally {
+            fos.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Failed to replace " + file + ".");
+        }
+    }
+
+    /**
+     * Compile the pirate list, write it to file and map it. When the file cannot be written (or
+     * mapped) the list is compiled in memory instead, so that whatever another version of the list
+     * left in the file is never taken for this one.
+     *
+     * @param recorder Recorder of the errors, if any.
+     * @return Compiled pirate list, of the given checksum.
+     * @see #write(File, List, long, long, long)
+     */
+    public static CompiledPirateList writeAndLoad(File file, List<Pirate> pirateList, long checksum,
+                                                  long sourceLength, long sourceModified,
+                                                  MetricsRecorder recorder) {
+        try {
+            write(file, pirateList, checksum, sourceLength, sourceModified);
+            CompiledPirateList compiled = load(file);
+            // Replaced in between by another version of the list otherwise
+            if (compiled.getChecksum() == checksum) {
+                return compiled;
+            }
+        } catch (IOException e) {
+            // Scanned from memory this time, compiled again from the source next time
+            recorder.recordError(e);
+        }
+        return compile(pirateList, checksum);
+    }
+
+    /**
+     * Compile the pirate list into an in-memory image, mostly useful for testing.
+     */
+    public static CompiledPirateList compile(List<Pirate> pirateList, long checksum) {
+        try {
+            return new CompiledPirateList(compile(pirateList, checksum, -1, -1));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ByteBuffer compile(List<Pirate> pirateList, long checksum,
+                                      long sourceLength, long sourceModified) {
+        Map<String, Integer> strings = new HashMap<>();
+        List<String> stringList = new ArrayList<>();
+        Map<String, List<Integer>> packages = new HashMap<>();
+        int refCount = 0;
+        int filterMask = 0;
+        for (int i = 0, j = pirateList.size(); i < j; i++) {
+            Pirate pirate = pirateList.get(i);
+            intern(strings, stringList, pirate.NAME == null ? "" : pirate.NAME);
+            filterMask |= pirate.FILTER_MASK;
+            if (pirate.PACKAGES == null) {
+                continue;
+            }
+            for (String packageName : pirate.PACKAGES) {
+                if (packageName == null) {
+                    continue;
+                }
+                intern(strings, stringList, packageName);
+                refCount++;
+                List<Integer> positions = packages.get(packageName);
+                if (positions == null) {
+                    positions = new ArrayList<>(1);
+                    packages.put(packageName, positions);
+                }
+                if (positions.isEmpty() || (positions.get(positions.size() - 1) != i)) {
+                    positions.add(i);
+                }
+            }
+        }
+        String[] sorted = packages.keySet().toArray(new String[packages.size()]);
+        Arrays.sort(sorted);
+
+        // Main index first, then one partition per filter
+        int[] filters = Filter.unmask(filterMask);
+        List<String> entryNames = new ArrayList<>();
+        List<List<Integer>> entryPositions = new ArrayList<>();
+        int[] partitionStarts = new int[filters.length + 1];
+        for (String packageName : sorted) {
+            entryNames.add(packageName);
+            entryPositions.add(packages.get(packageName));
+        }
+        for (int f = 0; f < filters.length; f++) {
+            partitionStarts[f] = entryNames.size();
+            int mask = Filter.mask(filters[f]);
+            for (String packageName : sorted) {
+                List<Integer> positions = new ArrayList<>(1);
+                for (int i : packages.get(packageName)) {
+                    if ((pirateList.get(i).FILTER_MASK & mask) != 0) {
+                        positions.add(i);
+                    }
+                }
+                if (!positions.isEmpty()) {
+                    entryNames.add(packageName);
+                    entryPositions.add(positions);
+                }
+            }
+        }
+        partitionStarts[filters.length] = entryNames.size();
+        int positionCount = 0;
+        for (List<Integer> positions : entryPositions) {
+            positionCount += positions.size();
+        }
+        int charCount = 0;
+        for (String string : stringList) {
+            charCount += string.length();
+        }
+
+        int size = HEADER_SIZE + (stringList.size() + 1) * 4 + pirateList.size() * PIRATE_SIZE
+                + refCount * 4 + filters.length * PARTITION_SIZE + entryNames.size() * PACKAGE_SIZE
+                + positionCount * 4 + charCount * 2;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(checksum)
+                .putLong(sourceLength).putLong(sourceModified)
+                .putInt(pirateList.size()).putInt(sorted.length).putInt(stringList.size())
+                .putInt(refCount).putInt(positionCount).putInt(charCount)
+                .putInt(filters.length).putInt(entryNames.size()).putLong(0);
+        int offset = 0;
+        for (String string : stringList) {
+            buffer.putInt(offset);
+            offset += string.length();
+        }
+        buffer.putInt(offset);
+        int ref = 0;
+        for (Pirate pirate : pirateList) {
+            int count = 0;
+            if (pirate.PACKAGES != null) {
+                for (String packageName : pirate.PACKAGES) {
+                    if (packageName != null) {
+                        count++;
+                    }
+                }
+            }
+            buffer.putInt(strings.get(pirate.NAME == null ? "" : pirate.NAME))
+                    .putInt(pirate.FILTER_MASK).putInt(ref).putInt(count);
+            ref += count;
+        }
+        for (Pirate pirate : pirateList) {
+            if (pirate.PACKAGES == null) {
+                continue;
+            }
+            for (String packageName : pirate.PACKAGES) {
+                if (packageName != null) {
+                    buffer.putInt(strings.get(packageName));
+                }
+            }
+        }
+        for (int f = 0; f < filters.length; f++) {
+            buffer.putInt(filters[f]).putInt(partitionStarts[f])
+                    .putInt(partitionStarts[f + 1] - partitionStarts[f]);
+        }
+        int position = 0;
+        for (int i = 0, j = entryNames.size(); i < j; i++) {
+            int count = entryPositions.get(i).size();
+            buffer.putInt(strings.get(entryNames.get(i))).putInt(position).putInt(count);
+            position += count;
+        }
+        for (List<Integer> positions : entryPositions) {
+            for (int i : positions) {
+                buffer.putInt(i);
+            }
+        }
+        for (String string : stringList) {
+            for (int i = 0, j = string.length(); i < j; i++) {
+                buffer.putChar(string.charAt(i));
+            }
+        }
+        buffer.flip();
+        buffer.putLong(64, crc(buffer));
+        return buffer;
+    }
+
+    /**
+     * @return CRC32 of everything after the header.
+     */
+    private static long crc(ByteBuffer buffer) {
+        ByteBuffer body = buffer.duplicate();
+        body.position(HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[BUFFER_SIZE];
+        while (body.hasRemaining()) {
+            int count = Math.min(chunk.length, body.remaining());
+            body.get(chunk, 0, count);
+            crc.update(chunk, 0, count);
+        }
+        return crc.getValue();
+    }
+
+    private static void intern(Map<String, Integer> strings, List<String> stringList, String string) {
+        if (!strings.containsKey(string)) {
+            strings.put(string, stringList.size());
+            stringList.add(string);
+        }
+    }
+
+    /**
+     * @return Checksum of the source list, which doubles as the list version.
+     */
+    public long getChecksum() {
+        return mChecksum;
+    }
+
+    /**
+     * @return True if this list was compiled from a source file with the given length and
+     * last modified time, i.e. the source has not changed since.
+     */
+    public boolean isCompiledFrom(long sourceLength, long sourceModified) {
+        return (mSourceLength == sourceLength) && (mSourceModified == sourceModified);
+    }
+
+    /**
+     * @return Number of pirates in this list.
+     */
+    public int size() {
+        return mPirateCount;
+    }
+
+    /**
+     * Materialise the pirate at the given position, only once: the same pirate is returned
+     * every time it is asked for.
+     */
+    public Pirate get(int position) {
+        if ((position < 0) || (position >= mPirateCount)) {
+            throw new IndexOutOfBoundsException("Position " + position + " of " + mPirateCount);
+        }
+        synchronized (mPiratePool) {
+            Pirate[] page = mPiratePool[position / POOL_PAGE];
+            if (page == null) {
+                page = new Pirate[POOL_PAGE];
+                mPiratePool[position / POOL_PAGE] = page;
+            }
+            Pirate pirate = page[position % POOL_PAGE];
+            if (pirate == null) {
+                pirate = materialise(position);
+                page[position % POOL_PAGE] = pirate;
+            }
+            return pirate;
+        }
+    }
+
+    private Pirate materialise(int position) {
+        int base = mPirates + position * PIRATE_SIZE;
+        String name = string(mBuffer.getInt(base));
+        int filterMask = mBuffer.getInt(base + 4);
+        int refs = mBuffer.getInt(base + 8);
+        String[] packages = new String[mBuffer.getInt(base + 12)];
+        for (int i = 0; i < packages.length; i++) {
+            packages[i] = string(mBuffer.getInt(mRefs + (refs + i) * 4));
+        }
+        return new Pirate(name, packages, Filter.unmask(filterMask));
+    }
+
+    /**
+     * @return Read-only view of the whole list, keeps PirateList.get() working. Pirates are
+     * materialised as they are read from it, a pass over every one of them defeats the purpose
+     * of compiling the list.
+     */
+    public List<Pirate> toList() {
+        return new PirateView();
+    }
+
+    /**
+     * @return Index over this list that allocates only when a package matches.
+     */
+    public PirateIndex index() {
+        return new Index(null, false, new int[] { 0 }, new int[] { mPackageCount });
+    }
+
+    /**
+     * @param filterMask Only pirates matching any of the filters in this bitmask are visible to
+     *                   the returned index, only the partitions of those filters are looked at.
+     * @return Index over this list that allocates only when a package matches.
+     */
+    public PirateIndex index(int filterMask) {
+        int count = 0;
+        int covered = 0;
+        for (int p = 0; p < mPartitionCount; p++) {
+            int mask = Filter.mask(mBuffer.getInt(mPartitions + p * PARTITION_SIZE));
+            covered |= mask;
+            if ((mask & filterMask) != 0) {
+                count++;
+            }
+        }
+        if ((count > 1) && (count == mPartitionCount)) {
+            // Every partition is looked at, one lookup in the main index and a check of the
+            // filters of the matching pirates beats a lookup (and merge) per partition
+            return new Index(filterMask & covered, true, new int[] { 0 }, new int[] { mPackageCount });
+        }
+        int[] starts = new int[count];
+        int[] counts = new int[count];
+        for (int p = 0, i = 0; p < mPartitionCount; p++) {
+            int base = mPartitions + p * PARTITION_SIZE;
+            if ((Filter.mask(mBuffer.getInt(base)) & filterMask) != 0) {
+                starts[i] = mBuffer.getInt(base + 4);
+                counts[i] = mBuffer.getInt(base + 8);
+                i++;
+            }
+        }
+        return new Index(filterMask, false, starts, counts);
+    }
+
+    /**
+     * Compile the package name patterns found in the given ranges of the package index, only
+     * once per filter mask for as long as this list is around.
+     */
+    private PatternIndex patterns(Integer filterMask, boolean checked, int[] starts, int[] counts) {
+        synchronized (mPatterns) {
+            if (mPatterns.containsKey(filterMask)) {
+                return mPatterns.get(filterMask);
+            }
+        }
+        List<String> patterns = new ArrayList<>();
+        List<int[]> positions = new ArrayList<>();
+        for (int range = 0; range < starts.length; range++) {
+            for (int entry = starts[range], end = entry + counts[range]; entry < end; entry++) {
+                int id = mBuffer.getInt(mPackages + entry * PACKAGE_SIZE);
+                int[] visible = isPattern(id) ? positionsAt(entry, checked ? filterMask : 0) : null;
+                if (visible != null) {
+                    patterns.add(string(id));
+                    positions.add(visible);
+                }
+            }
+        }
+        PatternIndex compiled = patterns.isEmpty() ? null : new PatternIndex(
+                patterns.toArray(new String[patterns.size()]), positions.toArray(new int[positions.size()][]));
+        synchronized (mPatterns) {
+            mPatterns.put(filterMask, compiled);
+        }
+        return compiled;
+    }
+
+    private boolean isPattern(int id) {
+        int start = mBuffer.getInt(mStringOffsets + id * 4);
+        int end = mBuffer.getInt(mStringOffsets + (id + 1) * 4);
+        for (int i = start; i < end; i++) {
+            if (mBuffer.getChar(mChars + i * 2) == '*') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int[] positionsAt(int entry) {
+        int start = mBuffer.getInt(mPackages + entry * PACKAGE_SIZE + 4);
+        int[] positions = new int[mBuffer.getInt(mPackages + entry * PACKAGE_SIZE + 8)];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = mBuffer.getInt(mPositions + (start + i) * 4);
+        }
+        return positions;
+    }
+
+    /**
+     * @param filterMask Only keep pirates matching any of the filters in this bitmask, 0 to keep all.
+     * @return Positions of the pirates listing the package at the given entry, null if none is kept.
+     */
+    private int[] positionsAt(int entry, int filterMask) {
+        int[] positions = positionsAt(entry);
+        if (filterMask == 0) {
+            return positions;
+        }
+        int size = 0;
+        for (int position : positions) {
+            if ((mBuffer.getInt(mPirates + position * PIRATE_SIZE + 4) & filterMask) != 0) {
+                positions[size++] = position;
+            }
+        }
+        return (size == 0) ? null : (size == positions.length) ? positions : Arrays.copyOf(positions, size);
+    }
+
+    private String string(int id) {
+        synchronized (mStringPool) {
+            String[] page = mStringPool[id / POOL_PAGE];
+            if (page == null) {
+                page = new String[POOL_PAGE];
+                mStringPool[id / POOL_PAGE] = page;
+            }
+            String string = page[id % POOL_PAGE];
+            if (string == null) {
+                string = decode(id);
+                page[id % POOL_PAGE] = string;
+            }
+            return string;
+        }
+    }
+
+    private String decode(int id) {
+        int start = mBuffer.getInt(mStringOffsets + id * 4);
+        int end = mBuffer.getInt(mStringOffsets + (id + 1) * 4);
+        char[] chars = new char[end - start];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = mBuffer.getChar(mChars + (start + i) * 2);
+        }
+        return new String(chars);
+    }
+
+    private int compare(int id, String string) {
+        int start = mBuffer.getInt(mStringOffsets + id * 4);
+        int length = mBuffer.getInt(mStringOffsets + (id + 1) * 4) - start;
+        for (int i = 0, j = Math.min(length, string.length()); i < j; i++) {
+            int diff = mBuffer.getChar(mChars + (start + i) * 2) - string.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - string.length();
+    }
+
+    private int findPackage(String packageName, int start, int count) {
+        int low = start;
+        int high = start + count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int diff = compare(mBuffer.getInt(mPackages + mid * PACKAGE_SIZE), packageName);
+            if (diff < 0) {
+                low = mid + 1;
+            } else if (diff > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The whole list, materialised one pirate at a time.
+     */
+    private final class PirateView extends AbstractList<Pirate> implements RandomAccess {
+        @Override
+        public Pirate get(int position) {
+            return CompiledPirateList.this.get(position);
+        }
+
+        @Override
+        public int size() {
+            return mPirateCount;
+        }
+    }
+
+    /**
+     * Index over one or more ranges of the package index, either the main index or partitions.
+     * The main index is checked against the filter mask, if there is one.
+     */
+    private final class Index implements PirateIndex {
+        private final Integer mFilterMask;
+        private final boolean mChecked;
+        private final int[] mStarts;
+        private final int[] mCounts;
+        private final int mPackageTotal;
+        private PatternIndex mPatternIndex;
+        private volatile boolean mPatternsCompiled;
+
+        Index(Integer filterMask, boolean checked, int[] starts, int[] counts) {
+            mFilterMask = filterMask;
+            mChecked = checked;
+            mStarts = starts;
+            mCounts = counts;
+            int total = 0;
+            for (int count : counts) {
+                total += count;
+            }
+            mPackageTotal = total;
+        }
+
+        @Override
+        public int size() {
+            return mPirateCount;
+        }
+
+        @Override
+        public Pirate get(int position) {
+            return CompiledPirateList.this.get(position);
+        }
+
+        /**
+         * Packages tagged with several of the filters are counted once per partition, unless
+         * every partition is looked at.
+         */
+        @Override
+        public int packageCount() {
+            return mPackageTotal;
+        }
+
+        @Override
+        public String packageAt(int index) {
+            int range = 0;
+            while (index >= mCounts[range]) {
+                index -= mCounts[range++];
+            }
+            return string(mBuffer.getInt(mPackages + (mStarts[range] + index) * PACKAGE_SIZE));
+        }
+
+        @Override
+        public int[] positionsOf(String packageName) {
+            if (packageName == null) {
+                return null;
+            }
+            if (mChecked) {
+                int entry = findPackage(packageName, mStarts[0], mCounts[0]);
+                return (entry >= 0) ? positionsAt(entry, mFilterMask) : null;
+            }
+            int[] positions = null;
+            for (int range = 0; range < mStarts.length; range++) {
+                int entry = findPackage(packageName, mStarts[range], mCounts[range]);
+                if (entry >= 0) {
+                    positions = merge(positions, entry);
+                }
+            }
+            return positions;
+        }
+
+        @Override
+        public PatternIndex patterns() {
+            if (!mPatternsCompiled) {
+                mPatternIndex = CompiledPirateList.this.patterns(mFilterMask, mChecked, mStarts, mCounts);
+                mPatternsCompiled = true;
+            }
+            return mPatternIndex;
+        }
+
+        private int[] merge(int[] positions, int entry) {
+            if (positions == null) {
+                return positionsAt(entry);
+            }
+            int start = mBuffer.getInt(mPackages + entry * PACKAGE_SIZE + 4);
+            int count = mBuffer.getInt(mPackages + entry * PACKAGE_SIZE + 8);
+            int[] merged = Arrays.copyOf(positions, positions.length + count);
+            int size = positions.length;
+            for (int i = 0; i < count; i++) {
+                int position = mBuffer.getInt(mPositions + (start + i) * 4);
+                if (Arrays.binarySearch(merged, 0, size, position) < 0) {
+                    merged[size++] = position;
+                    Arrays.sort(merged, 0, size);
+                }
+            }
+            return (size == merged.length) ? merged : Arrays.copyOf(merged, size);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Pirate list kept in a local file, plain or gzip compressed. Nothing to refresh, the file is
+ * read again whenever it changes.
+ */
+public final class FileListSource implements ListSource {
+    private final File mFile;
+
+    public FileListSource(File file) {
+        if (file == null) {
+            throw new NullPointerException("File must not be null.");
+        }
+        mFile = file;
+    }
+
+    @Override
+    public void refresh(MetricsRecorder recorder) {
+    }
+
+    @Override
+    public long fingerprint() {
+        return fingerprint(mFile);
+    }
+
+    @Override
+    public List<Pirate> load(MetricsRecorder recorder) throws IOException {
+        InputStream stream = new ListFile(mFile).open();
+        try {
+            return PirateListParser.parse(stream, recorder);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * @return Fingerprint of a file by its length and last modified time, 0 if it does not exist.
+     */
+    static long fingerprint(File file) {
+        if (!file.exists()) {
+            return 0;
+        }
+        return (file.lastModified() * 31) + file.length();
+    }
+}
@@ -43,5 +43,46 @@ public final class Filter {
             REMOVE_PERMISSION
     };
 
+    /**
+     * Mask of the full list of the filters.
+     */
+    public static final int ALL = mask(LIST);
+
+    /**
+     * @param filter Filter, between 0 and 31.
+     * @return Bitmask of the filter, 0 if it is out of range.
+     */
+    public static int mask(int filter) {
+        return ((filter >= 0) && (filter < 32)) ? (1 << filter) : 0;
+    }
+
+    /**
+     * @param filters Filters, each between 0 and 31.
+     * @return Bitmask of the filters, filters out of range are left out.
+     */
+    public static int mask(int[] filters) {
+        int mask = 0;
+        if (filters != null) {
+            for (int filter : filters) {
+                mask |= mask(filter);
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * @param mask Bitmask of filters.
+     * @return Filters in the bitmask, in ascending order.
+     */
+    public static int[] unmask(int mask) {
+        int[] filters = new int[Integer.bitCount(mask)];
+        for (int i = 0, f = 0; f < filters.length; i++) {
+            if ((mask & (1 << i)) != 0) {
+                filters[f++] = i;
+            }
+        }
+        return filters;
+    }
+
     private Filter(){}
 }
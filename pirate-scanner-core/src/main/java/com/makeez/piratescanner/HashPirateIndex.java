@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PirateIndex backed by a hash map of package name to pirate positions.
+ */
+public final class HashPirateIndex implements PirateIndex {
+    private final List<Pirate> mPirateList;
+    private final Map<String, int[]> mPositions = new HashMap<>();
+    private final String[] mPackages;
+    private final PatternIndex mPatterns;
+
+    /**
+     * @param pirateList Pirates to be indexed.
+     * @param filterMask Only pirates matching any of the filters in this bitmask are indexed.
+     */
+    public HashPirateIndex(List<Pirate> pirateList, int filterMask) {
+        if (pirateList == null) {
+            throw new NullPointerException("Pirate list must not be null.");
+        }
+        mPirateList = pirateList;
+        List<String> packages = new ArrayList<>();
+        for (int i = 0, j = pirateList.size(); i < j; i++) {
+            Pirate pirate = pirateList.get(i);
+            if ((pirate.PACKAGES == null) || ((pirate.FILTER_MASK & filterMask) == 0)) {
+                continue;
+            }
+            for (String packageName : pirate.PACKAGES) {
+                if (packageName == null) {
+                    continue;
+                }
+                int[] positions = mPositions.get(packageName);
+                if (positions == null) {
+                    mPositions.put(packageName, new int[] { i });
+                    packages.add(packageName);
+                } else if (positions[positions.length - 1] != i) {
+                    int[] grown = new int[positions.length + 1];
+                    System.arraycopy(positions, 0, grown, 0, positions.length);
+                    grown[positions.length] = i;
+                    mPositions.put(packageName, grown);
+                }
+            }
+        }
+        mPackages = packages.toArray(new String[packages.size()]);
+        List<String> patterns = new ArrayList<>();
+        List<int[]> positions = new ArrayList<>();
+        for (String packageName : mPackages) {
+            if (PatternIndex.isPattern(packageName)) {
+                patterns.add(packageName);
+                positions.add(mPositions.get(packageName));
+            }
+        }
+        mPatterns = patterns.isEmpty() ? null : new PatternIndex(patterns.toArray(new String[patterns.size()]),
+                positions.toArray(new int[positions.size()][]));
+    }
+
+    @Override
+    public int size() {
+        return mPirateList.size();
+    }
+
+    @Override
+    public Pirate get(int position) {
+        return mPirateList.get(position);
+    }
+
+    @Override
+    public int packageCount() {
+        return mPackages.length;
+    }
+
+    @Override
+    public String packageAt(int index) {
+        return mPackages[index];
+    }
+
+    @Override
+    public int[] positionsOf(String packageName) {
+        return mPositions.get(packageName);
+    }
+
+    @Override
+    public PatternIndex patterns() {
+        return mPatterns;
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts how often each package name was found installed, so that the most likely offenders
+ * can be checked first. Counts are kept in a small file and only the most hit packages are kept.
+ */
+public final class HitCounter {
+    private static final int MAGIC = 0x50534831; // PSH1
+
+    /**
+     * Number of package names remembered.
+     */
+    public static final int CAPACITY = 256;
+
+    private final File mFile;
+    private Map<String, Integer> mHits;
+    private boolean mChanged;
+
+    /**
+     * @param file File where the counts are kept.
+     */
+    public HitCounter(File file) {
+        if (file == null) {
+            throw new NullPointerException("File must not be null.");
+        }
+        mFile = file;
+    }
+
+    /**
+     * @param count Max number of package names to return.
+     * @return Package names found the most often, most hit first.
+     */
+    public synchronized List<String> top(int count) {
+        List<Map.Entry<String, Integer>> entries = sorted();
+        List<String> top = new ArrayList<>(Math.min(count, entries.size()));
+        for (int i = 0, j = Math.min(count, entries.size()); i < j; i++) {
+            top.add(entries.get(i).getKey());
+        }
+        return top;
+    }
+
+    /**
+     * @return Number of times the package was found.
+     */
+    public synchronized int get(String packageName) {
+        Integer hits = hits().get(packageName);
+        return (hits != null) ? hits : 0;
+    }
+
+    /**
+     * @param packageName Package name that was just found installed.
+     */
+    public synchronized void record(String packageName) {
+        Map<String, Integer> hits = hits();
+        Integer count = hits.get(packageName);
+        hits.put(packageName, (count != null) ? count + 1 : 1);
+        mChanged = true;
+    }
+
+    /**
+     * Write the counts back to the file, if anything was recorded since they were loaded.
+     */
+    public synchronized void save() {
+        if (!mChanged) {
+            return;
+        }
+        List<Map.Entry<String, Integer>> entries = sorted();
+        int size = Math.min(CAPACITY, entries.size());
+        File temp = new File(mFile.getPath() + ".tmp");
+        try {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                dos.writeInt(MAGIC);
+                dos.writeInt(size);
+                for (int i = 0; i < size; i++) {
+                    dos.writeUTF(entries.get(i).getKey());
+                    dos.writeInt(entries.get(i).getValue());
+                }
+            } finally {
+                dos.close();
+            }
+            if (temp.renameTo(mFile)) {
+                mChanged = false;
+            } else {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            temp.delete();
+        }
+    }
+
+    private Map<String, Integer> hits() {
+        if (mHits == null) {
+            mHits = load();
+        }
+        return mHits;
+    }
+
+    private List<Map.Entry<String, Integer>> sorted() {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(hits().entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+                int order = b.getValue().compareTo(a.getValue());
+                return (order != 0) ? order : a.getKey().compareTo(b.getKey());
+            }
+        });
+        return entries;
+    }
+
+    private Map<String, Integer> load() {
+        Map<String, Integer> hits = new HashMap<>();
+        if (!mFile.exists()) {
+            return hits;
+        }
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            try {
+                if (dis.readInt() != MAGIC) {
+                    return hits;
+                }
+                for (int i = 0, j = dis.readInt(); i < j; i++) {
+                    String packageName = dis.readUTF();
+                    hits.put(packageName, dis.readInt());
+                }
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            // Unreadable counts, start over
+            hits.clear();
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Remembers which installed packages matched the pirate list on the last scan, together with
+ * a fingerprint of the installed packages, so that later scans only check what changed.
+ * A full scan only happens when the pirate list itself changes.
+ *
+ * Installed packages are remembered as sorted 64-bit hashes rather than names, read only when
+ * the fingerprint differs, and the state is only written when the installed packages changed.
+ */
+public final class IncrementalScanner {
+    private static final int MAGIC = 0x50535332; // PSS2
+
+    public static final class Result {
+        /**
+         * Installed packages that are on the pirate list.
+         */
+        public final Set<String> MATCHED;
+        /**
+         * Whether every installed package had to be checked.
+         */
+        public final boolean FULL_SCAN;
+        /**
+         * Number of packages checked against the pirate list.
+         */
+        public final int CHECKED;
+
+        Result(Set<String> matched, boolean fullScan, int checked) {
+            MATCHED = matched;
+            FULL_SCAN = fullScan;
+            CHECKED = checked;
+        }
+    }
+
+    private final File mState;
+
+    /**
+     * @param state File where the last scan is remembered.
+     */
+    public IncrementalScanner(File state) {
+        if (state == null) {
+            throw new NullPointerException("State file must not be null.");
+        }
+        mState = state;
+    }
+
+    /**
+     * Find the installed packages that are on the pirate list.
+     *
+     * @param index       Unfiltered index of the pirate list.
+     * @param listVersion Version of the pirate list, eg. its checksum.
+     * @param source      Source of the installed packages.
+     * @return Result of the scan, or null if installed packages cannot be enumerated.
+     */
+    public Result scan(PirateIndex index, long listVersion, PackageSource source) {
+        if ((index == null) || (source == null)) {
+            throw new NullPointerException("Index and package source must not be null.");
+        }
+        Set<String> installed = source.getInstalledPackages();
+        if (installed == null) {
+            return null;
+        }
+        String[] names = installed.toArray(new String[installed.size()]);
+        long[] hashes = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            hashes[i] = hash(names[i]);
+        }
+        long fingerprint = fingerprint(hashes);
+        State last = load(listVersion, fingerprint);
+        Set<String> matched;
+        int checked = 0;
+        if (last != null) {
+            if (last.mHashes == null) {
+                // Same packages as on the last scan
+                return new Result(last.mMatched, false, 0);
+            }
+            matched = new HashSet<>(last.mMatched);
+            matched.retainAll(installed);
+            for (int i = 0; i < names.length; i++) {
+                if (Arrays.binarySearch(last.mHashes, hashes[i]) < 0) {
+                    checked++;
+                    if (PirateMatcher.isListed(index, names[i])) {
+                        matched.add(names[i]);
+                    }
+                }
+            }
+        } else {
+            matched = new HashSet<>();
+            for (String packageName : names) {
+                if (PirateMatcher.isListed(index, packageName)) {
+                    matched.add(packageName);
+                }
+            }
+            checked = names.length;
+        }
+        Arrays.sort(hashes);
+        save(listVersion, fingerprint, matched, hashes);
+        return new Result(matched, last == null, checked);
+    }
+
+    /**
+     * Forget the last scan, the next scan will be a full one.
+     */
+    public void reset() {
+        mState.delete();
+    }
+
+    /**
+     * Order independent 64-bit fingerprint of a set of package names.
+     */
+    static long fingerprint(Set<String> packages) {
+        long[] hashes = new long[packages.size()];
+        int i = 0;
+        for (String packageName : packages) {
+            hashes[i++] = hash(packageName);
+        }
+        return fingerprint(hashes);
+    }
+
+    private static long fingerprint(long[] hashes) {
+        long sum = 0;
+        long xor = 0;
+        for (long hash : hashes) {
+            sum += hash;
+            xor ^= hash;
+        }
+        return (sum * 31) ^ xor ^ hashes.length;
+    }
+
+    private static long hash(String packageName) {
+        long hash = 1125899906842597L;
+        for (int i = 0, j = packageName.length(); i < j; i++) {
+            hash = 31 * hash + packageName.charAt(i);
+        }
+        hash ^= (hash >>> 33);
+        hash *= 0xff51afd7ed558ccdL;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * @return Last scan against the same list version, without the hashes of the installed
+     * packages if they have not changed, or null if there is none.
+     */
+    private State load(long listVersion, long fingerprint) {
+        if (!mState.exists()) {
+            return null;
+        }
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(mState)));
+            try {
+                if ((dis.readInt() != MAGIC) || (dis.readLong() != listVersion)) {
+                    return null;
+                }
+                boolean unchanged = (dis.readLong() == fingerprint);
+                int size = dis.readInt();
+                Set<String> matched = new HashSet<>(size * 2);
+                for (int i = 0; i < size; i++) {
+                    matched.add(dis.readUTF());
+                }
+                if (unchanged) {
+                    return new State(matched, null);
+                }
+                long[] hashes = new long[dis.readInt()];
+                for (int i = 0; i < hashes.length; i++) {
+                    hashes[i] = dis.readLong();
+                }
+                return new State(matched, hashes);
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            // Unreadable state, fall back to a full scan
+            return null;
+        }
+    }
+
+    /**
+     * Write the state to a temporary file of its own, so that scans saving at the same time never
+     * write over each other, the last one renamed wins.
+     */
+    private void save(long listVersion, long fingerprint, Set<String> matched, long[] hashes) {
+        File temp;
+        try {
+            temp = File.createTempFile(mState.getName(), ".tmp", mState.getAbsoluteFile().getParentFile());
+        } catch (IOException e) {
+            return;
+        }
+        try {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                dos.writeInt(MAGIC);
+                dos.writeLong(listVersion);
+                dos.writeLong(fingerprint);
+                dos.writeInt(matched.size());
+                for (String packageName : matched) {
+                    dos.writeUTF(packageName);
+                }
+                dos.writeInt(hashes.length);
+                for (long hash : hashes) {
+                    dos.writeLong(hash);
+                }
+            } finally {
+                dos.close();
+            }
+            if (!temp.renameTo(mState)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            temp.delete();
+        }
+    }
+
+    private static final class State {
+        private final Set<String> mMatched;
+        // Sorted, null if the installed packages have not changed
+        private final long[] mHashes;
+
+        State(Set<String> matched, long[] hashes) {
+            mMatched = matched;
+            mHashes = hashes;
+        }
+    }
+}
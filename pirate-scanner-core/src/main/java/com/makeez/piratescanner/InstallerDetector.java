@@ -0,0 +1,39 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Detects packages installed by a known pirate store.
+ */
+public final class InstallerDetector extends KeyedDetector {
+    /**
+     * @param installer Package name of the store.
+     * @param pirate    Pirate reported for packages installed by this store.
+     */
+    @Override
+    public synchronized void add(String installer, Pirate pirate) {
+        super.add(installer, pirate);
+    }
+
+    @Override
+    Collection<String> keysOf(String packageName, PackageFacts facts) {
+        String installer = facts.getInstaller(packageName);
+        return (installer != null) ? Collections.singleton(installer) : null;
+    }
+}
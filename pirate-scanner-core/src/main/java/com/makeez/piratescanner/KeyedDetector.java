@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * PackageDetector reporting a pirate when any of the keys of a package (eg. its certificate
+ * digests) is known.
+ */
+abstract class KeyedDetector implements PackageDetector {
+    private final Map<String, Pirate> mPirates = new TreeMap<>();
+
+    /**
+     * @param key    Key, normalised by normalise().
+     * @param pirate Pirate reported for packages having this key.
+     */
+    public synchronized void add(String key, Pirate pirate) {
+        if ((key == null) || (pirate == null)) {
+            throw new NullPointerException("Key and pirate must not be null.");
+        }
+        mPirates.put(normalise(key), pirate);
+    }
+
+    @Override
+    public synchronized long fingerprint() {
+        CRC32 crc = new CRC32();
+        try {
+            crc.update(getClass().getName().getBytes("UTF-8"));
+            for (Map.Entry<String, Pirate> entry : mPirates.entrySet()) {
+                crc.update(entry.getKey().getBytes("UTF-8"));
+                long pirate = PirateListWriter.checksum(Collections.singletonList(entry.getValue()));
+                for (int i = 0; i < 64; i += 8) {
+                    crc.update((int) (pirate >>> i));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return crc.getValue();
+    }
+
+    @Override
+    public Pirate detect(String packageName, PackageFacts facts) {
+        synchronized (this) {
+            if (mPirates.isEmpty()) {
+                return null;
+            }
+        }
+        Collection<String> keys = keysOf(packageName, facts);
+        if (keys == null) {
+            return null;
+        }
+        synchronized (this) {
+            for (String key : keys) {
+                Pirate pirate = (key != null) ? mPirates.get(normalise(key)) : null;
+                if (pirate != null) {
+                    return pirate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Keys of the package, null if unknown.
+     */
+    abstract Collection<String> keysOf(String packageName, PackageFacts facts);
+
+    String normalise(String key) {
+        return key;
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Changes turning version FROM of the pirate list into version TO. Pirates are identified by name.
+ */
+public final class ListDelta {
+    /**
+     * Version of the list this delta applies to.
+     */
+    public final long FROM;
+    /**
+     * Version of the list this delta leads to.
+     */
+    public final long TO;
+    /**
+     * PirateListWriter.checksum() of the list this delta leads to.
+     */
+    public final long CHECKSUM;
+    /**
+     * Pirates appended to the list.
+     */
+    public final List<Pirate> ADDED;
+    /**
+     * Pirates replacing the pirates of the same name, in place.
+     */
+    public final List<Pirate> MODIFIED;
+    /**
+     * Names of the pirates removed from the list.
+     */
+    public final List<String> REMOVED;
+
+    ListDelta(long from, long to, long checksum, List<Pirate> added, List<Pirate> modified, List<String> removed) {
+        FROM = from;
+        TO = to;
+        CHECKSUM = checksum;
+        ADDED = Collections.unmodifiableList(added);
+        MODIFIED = Collections.unmodifiableList(modified);
+        REMOVED = Collections.unmodifiableList(removed);
+    }
+
+    /**
+     * @param pirateList Version FROM of the list.
+     * @return Version TO of the list.
+     * @throws IOException If the delta does not fit the list, eg. it modifies a pirate that is not there.
+     */
+    public List<Pirate> apply(List<Pirate> pirateList) throws IOException {
+        List<Pirate> pirates = new ArrayList<>(pirateList);
+        Map<String, Integer> positions = new HashMap<>(pirates.size() * 2);
+        for (int i = 0; i < pirates.size(); i++) {
+            if (positions.put(pirates.get(i).NAME, i) != null) {
+                throw new IOException("Duplicate pirate " + pirates.get(i).NAME + ".");
+            }
+        }
+        for (Pirate pirate : MODIFIED) {
+            pirates.set(positionOf(positions, pirate.NAME), pirate);
+        }
+        boolean[] removed = new boolean[pirates.size()];
+        for (String name : REMOVED) {
+            removed[positionOf(positions, name)] = true;
+        }
+        List<Pirate> result = new ArrayList<>(pirates.size() + ADDED.size());
+        for (int i = 0; i < pirates.size(); i++) {
+            if (!removed[i]) {
+                result.add(pirates.get(i));
+            }
+        }
+        for (Pirate pirate : ADDED) {
+            Integer position = positions.get(pirate.NAME);
+            if ((position != null) && (!removed[position])) {
+                throw new IOException("Pirate " + pirate.NAME + " already exists.");
+            }
+            result.add(pirate);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private static int positionOf(Map<String, Integer> positions, String name) throws IOException {
+        Integer position = positions.get(name);
+        if (position == null) {
+            throw new IOException("Unknown pirate " + name + ".");
+        }
+        return position;
+    }
+}
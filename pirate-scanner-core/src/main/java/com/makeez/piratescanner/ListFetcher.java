@@ -0,0 +1,296 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Conditional HTTP fetch of the pirate list. Validators (ETag / Last-Modified) of the last
+ * successful download are kept in a small properties file next to the local copy, so an
+ * unchanged list costs a 304 instead of a full download. Responses are requested gzip compressed,
+ * receivers always get the body decompressed.
+ *
+ * Servers that version the list announce the version in the VERSION_HEADER of every response,
+ * a later fetchDelta() then only asks for what changed since that version.
+ */
+public final class ListFetcher {
+    /**
+     * Network or server failure, the local copy should be used.
+     */
+    public static final int FAILED = 0;
+    /**
+     * Local copy is still within its max age, network was not touched.
+     */
+    public static final int FRESH = 1;
+    /**
+     * Server answered 304, local copy is up to date.
+     */
+    public static final int NOT_MODIFIED = 2;
+    /**
+     * Server sent a new copy of the list, and the receiver accepted it.
+     */
+    public static final int MODIFIED = 3;
+
+    /**
+     * Default connect timeout, in milliseconds.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    /**
+     * Default read timeout, in milliseconds.
+     */
+    public static final int DEFAULT_READ_TIMEOUT = 15000;
+
+    /**
+     * Response header holding the version of the list a response leads to.
+     */
+    public static final String VERSION_HEADER = "X-Pirate-List-Version";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "last-modified";
+    private static final String KEY_FETCHED_AT = "fetched-at";
+    private static final String KEY_VERSION = "version";
+
+    public interface Receiver {
+        /**
+         * Consume the body of a new copy of the list, eg. parse and save it.
+         *
+         * @param body Body of the response, only valid during this call.
+         * @return True if the body was accepted, validators are only remembered in this case
+         * so that a later 304 never refers to a copy that does not exist.
+         */
+        boolean onBody(InputStream body) throws IOException;
+    }
+
+    private final String mUrl;
+    private final File mValidators;
+    private int mConnectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private int mReadTimeout = DEFAULT_READ_TIMEOUT;
+    private IOException mError;
+    private long mBytesReceived;
+
+    /**
+     * @param url        Where the pirate list is downloaded from.
+     * @param validators File where validators of the last download are kept.
+     */
+    public ListFetcher(String url, File validators) {
+        if ((url == null) || (validators == null)) {
+            throw new NullPointerException("Url and validators file must not be null.");
+        }
+        mUrl = url;
+        mValidators = validators;
+    }
+
+    /**
+     * @param connectTimeout Connect timeout, in milliseconds, 0 waits forever.
+     * @param readTimeout    Read timeout, in milliseconds, 0 waits forever.
+     */
+    public void setTimeouts(int connectTimeout, int readTimeout) {
+        mConnectTimeout = Math.max(0, connectTimeout);
+        mReadTimeout = Math.max(0, readTimeout);
+    }
+
+    /**
+     * Fetch the pirate list unless the local copy is still fresh.
+     *
+     * @param maxAge   Milliseconds a local copy stays fresh after it was (re)validated, 0 to always revalidate.
+     * @param cached   Whether a local copy exists, validators are not sent otherwise.
+     * @param receiver Receiver of the body, when the server sends a new copy.
+     * @return FAILED, FRESH, NOT_MODIFIED or MODIFIED.
+     */
+    public int fetch(long maxAge, boolean cached, Receiver receiver) {
+        mError = null;
+        mBytesReceived = 0;
+        Properties validators = cached ? load() : new Properties();
+        if (cached && isFresh(validators, maxAge)) {
+            return FRESH;
+        }
+        return request(mUrl, validators, true, receiver);
+    }
+
+    /**
+     * Fetch what changed in the pirate list since the version of the local copy, unless the
+     * local copy is still fresh. The delta endpoint is asked for deltaUrl?since=version, and
+     * is expected to answer 304 (or 204) when the local copy is up to date.
+     *
+     * @param deltaUrl Where deltas of the pirate list are requested from.
+     * @param maxAge   Milliseconds a local copy stays fresh after it was (re)validated, 0 to always revalidate.
+     * @param receiver Receiver of the deltas, eg. a ListPatcher.
+     * @return FAILED (also when the version of the local copy is unknown), FRESH, NOT_MODIFIED or MODIFIED.
+     */
+    public int fetchDelta(String deltaUrl, long maxAge, Receiver receiver) {
+        if (deltaUrl == null) {
+            throw new NullPointerException("Delta url must not be null.");
+        }
+        mError = null;
+        mBytesReceived = 0;
+        Properties validators = load();
+        long version = parseLong(validators.getProperty(KEY_VERSION), -1);
+        if (version < 0) {
+            return FAILED;
+        }
+        if (isFresh(validators, maxAge)) {
+            return FRESH;
+        }
+        String url = deltaUrl + ((deltaUrl.indexOf('?') < 0) ? '?' : '&') + "since=" + version;
+        return request(url, validators, false, receiver);
+    }
+
+    /**
+     * @return Version of the local copy as announced by the server, -1 if unknown.
+     */
+    public long getVersion() {
+        return parseLong(load().getProperty(KEY_VERSION), -1);
+    }
+
+    private int request(String url, Properties validators, boolean conditional, Receiver receiver) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(mConnectTimeout);
+            connection.setReadTimeout(mReadTimeout);
+            connection.setUseCaches(false);
+            connection.setDefaultUseCaches(false);
+            // Asking explicitly also turns off transparent decompression, so that bytes can be counted
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            String eTag = validators.getProperty(KEY_ETAG);
+            String lastModified = validators.getProperty(KEY_LAST_MODIFIED);
+            if (conditional && (eTag != null)) {
+                connection.setRequestProperty("If-None-Match", eTag);
+            }
+            if (conditional && (lastModified != null)) {
+                connection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+            int code = connection.getResponseCode();
+            if ((code == HttpURLConnection.HTTP_NOT_MODIFIED)
+                    || ((!conditional) && (code == HttpURLConnection.HTTP_NO_CONTENT))) {
+                validators.setProperty(KEY_FETCHED_AT, String.valueOf(System.currentTimeMillis()));
+                store(validators);
+                return NOT_MODIFIED;
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                return FAILED;
+            }
+            CountingInputStream counter = new CountingInputStream(connection.getInputStream());
+            InputStream body = counter;
+            try {
+                if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                    body = new GZIPInputStream(counter, BUFFER_SIZE);
+                }
+                if (!receiver.onBody(body)) {
+                    return FAILED;
+                }
+            } finally {
+                mBytesReceived = counter.getCount();
+                body.close();
+            }
+            Properties received = new Properties();
+            String header = connection.getHeaderField("ETag");
+            if (header != null) {
+                received.setProperty(KEY_ETAG, header);
+            }
+            header = connection.getHeaderField("Last-Modified");
+            if (header != null) {
+                received.setProperty(KEY_LAST_MODIFIED, header);
+            }
+            header = connection.getHeaderField(VERSION_HEADER);
+            if ((header != null) && (parseLong(header, -1) >= 0)) {
+                received.setProperty(KEY_VERSION, header.trim());
+            }
+            received.setProperty(KEY_FETCHED_AT, String.valueOf(System.currentTimeMillis()));
+            store(received);
+            return MODIFIED;
+        } catch (IOException e) {
+            mError = e;
+            return FAILED;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static boolean isFresh(Properties validators, long maxAge) {
+        long age = System.currentTimeMillis() - parseLong(validators.getProperty(KEY_FETCHED_AT), 0);
+        return (maxAge > 0) && (age >= 0) && (age < maxAge);
+    }
+
+    /**
+     * @return Bytes of body received over the network by the last fetch, as sent (ie. compressed).
+     */
+    public long getBytesReceived() {
+        return mBytesReceived;
+    }
+
+    /**
+     * @return Why the last fetch failed, or why its validators could not be saved, null otherwise.
+     */
+    public IOException getError() {
+        return mError;
+    }
+
+    private Properties load() {
+        Properties validators = new Properties();
+        if (mValidators.exists()) {
+            try {
+                FileInputStream fis = new FileInputStream(mValidators);
+                try {
+                    validators.load(fis);
+                } finally {
+                    fis.close();
+                }
+            } catch (IOException e) {
+                // Unreadable validators, revalidate with a full download
+                validators.clear();
+            }
+        }
+        return validators;
+    }
+
+    private void store(Properties validators) {
+        try {
+            FileOutputStream fos = new FileOutputStream(mValidators);
+            try {
+                validators.store(fos, null);
+            } finally {
+                fos.close();
+            }
+        } catch (IOException e) {
+            // The next fetch will be a full download
+            mError = e;
+        }
+    }
+
+    private static long parseLong(String value, long fallback) {
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local copy of the pirate list, stored gzip compressed behind a header holding the length and
+ * CRC32 of the compressed payload, so that a torn or corrupted copy is noticed without being
+ * decompressed or parsed.
+ *
+ * A new copy is written (and synced) to a temporary file that only replaces the current copy
+ * once it is complete and intact. The copy it replaces is kept as a backup, which is restored
+ * when the current copy turns out to be corrupted. Copies written without a header (by earlier
+ * versions) are still read as they are.
+ *
+ * There is one temporary file per copy, so only one new copy may be written at a time: writers
+ * synchronize on the instance from create() to commit() or discard(). Readers do not, so that they
+ * are never held up by a download.
+ */
+public final class ListFile {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAGIC = 0x50534a31; // PSJ1
+    private static final int HEADER_SIZE = 4 + 8 + 8;
+
+    private final File mFile;
+    private final File mTemp;
+    private final File mBackup;
+    private final Object mLock = new Object();
+    private long mIntactLength = -1;
+    private long mIntactModified = -1;
+
+    /**
+     * @param file Where the local copy is kept.
+     */
+    public ListFile(File file) {
+        if (file == null) {
+            throw new NullPointerException("File must not be null.");
+        }
+        mFile = file;
+        mTemp = new File(file.getPath() + ".tmp");
+        mBackup = new File(file.getPath() + ".bak");
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * @return Whether there is a local copy, or a backup of one.
+     */
+    public boolean exists() {
+        return mFile.exists() || mBackup.exists();
+    }
+
+    /**
+     * Make sure the current copy is intact, by its checksum. A corrupted copy is replaced by the
+     * backup if the backup is intact. The checksum is only computed again once the copy changed
+     * (in length or modification time), keep one instance per file to benefit from it.
+     *
+     * @return Whether getFile() now holds an intact copy.
+     */
+    public boolean verify() {
+        synchronized (mLock) {
+            if ((mFile.length() == mIntactLength) && (mFile.lastModified() == mIntactModified)) {
+                return true;
+            }
+            if ((!isIntact(mFile)) && ((!isIntact(mBackup)) || (!mBackup.renameTo(mFile)))) {
+                return false;
+            }
+            mIntactLength = mFile.length();
+            mIntactModified = mFile.lastModified();
+            return true;
+        }
+    }
+
+    /**
+     * @return The local copy (or its backup if the copy is corrupted), decompressed while it is read.
+     * @throws FileNotFoundException If there is no local copy.
+     * @throws IOException           If neither the copy nor its backup is intact.
+     */
+    public InputStream open() throws IOException {
+        if (!exists()) {
+            throw new FileNotFoundException(mFile.getPath());
+        }
+        if (!verify()) {
+            throw new IOException("Local copy of the pirate list is corrupted: " + mFile);
+        }
+        InputStream stream = new BufferedInputStream(new FileInputStream(mFile), BUFFER_SIZE);
+        try {
+            stream.mark(HEADER_SIZE);
+            if (new DataInputStream(stream).readInt() == MAGIC) {
+                skipFully(stream, HEADER_SIZE - 4);
+                return new GZIPInputStream(stream, BUFFER_SIZE);
+            }
+            stream.reset();
+            stream.mark(2);
+            int magic = stream.read() | (stream.read() << 8);
+            stream.reset();
+            return (magic == GZIPInputStream.GZIP_MAGIC) ? new GZIPInputStream(stream, BUFFER_SIZE) : stream;
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Start writing a new copy, compressed while it is written. Closing the stream completes
+     * the copy, it then replaces the current copy through commit(), or is dropped through discard().
+     */
+    public OutputStream create() throws IOException {
+        return new GZIPOutputStream(new BufferedOutputStream(new PayloadOutputStream(mTemp), BUFFER_SIZE),
+                BUFFER_SIZE);
+    }
+
+    /**
+     * Replace the current copy with the new one, keeping the current copy as the backup if it is
+     * intact. A new copy that is incomplete (eg. its stream was never closed) is dropped.
+     *
+     * @return Whether the new copy replaced the current one, the new copy is dropped otherwise.
+     */
+    public boolean commit() {
+        synchronized (mLock) {
+            if (!isIntact(mTemp)) {
+                mTemp.delete();
+                return false;
+            }
+            if (verify()) {
+                mBackup.delete();
+                mFile.renameTo(mBackup);
+            }
+            if (mTemp.renameTo(mFile)) {
+                // Checked just above
+                mIntactLength = mFile.length();
+                mIntactModified = mFile.lastModified();
+                return true;
+            }
+            mIntactLength = -1;
+            mTemp.delete();
+            return false;
+        }
+    }
+
+    public void discard() {
+        mTemp.delete();
+    }
+
+    /**
+     * @return Whether the payload of the file matches the length and checksum in its header.
+     * Files without a header cannot be checked and are taken as they are.
+     */
+    private static boolean isIntact(File file) {
+        if (file.length() == 0) {
+            return false;
+        }
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                    BUFFER_SIZE));
+            try {
+                int magic = dis.readInt();
+                if (magic != MAGIC) {
+                    // Blank header of a copy that was never completed, otherwise a copy without header
+                    return magic != 0;
+                }
+                long length = dis.readLong();
+                long checksum = dis.readLong();
+                CRC32 crc = new CRC32();
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long count = 0;
+                int read;
+                while ((read = dis.read(buffer)) >= 0) {
+                    crc.update(buffer, 0, read);
+                    count += read;
+                }
+                return (count == length) && (crc.getValue() == checksum);
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void skipFully(InputStream stream, long count) throws IOException {
+        while (count > 0) {
+            long skipped = stream.skip(count);
+            if (skipped <= 0) {
+                throw new IOException("Unexpected end of header.");
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * Writes the payload behind a header, which is filled in (and synced) once the stream is closed.
+     */
+    private static final class PayloadOutputStream extends FilterOutputStream {
+        private final FileOutputStream mOut;
+        private final CRC32 mCrc = new CRC32();
+        private long mLength;
+        private boolean mClosed;
+
+        PayloadOutputStream(File file) throws IOException {
+            this(new FileOutputStream(file));
+        }
+
+        private PayloadOutputStream(FileOutputStream out) throws IOException {
+            super(out);
+            mOut = out;
+            try {
+                // Left blank until closed, so that an interrupted copy never looks intact
+                mOut.write(new byte[HEADER_SIZE]);
+            } catch (IOException e) {
+                mOut.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mOut.write(b);
+            mCrc.update(b);
+            mLength++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            mOut.write(buffer, offset, count);
+            mCrc.update(buffer, offset, count);
+            mLength += count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putLong(mLength).putLong(mCrc.getValue()).flip();
+                while (header.hasRemaining()) {
+                    mOut.getChannel().write(header, header.position());
+                }
+                mOut.getFD().sync();
+            } finally {
+                mOut.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Merges several pirate lists into one. Pirates with the same name are merged into one, owning
+ * the union of their packages and filters, the others are kept as they are. Packages shared by
+ * pirates of different names are indexed once anyway, see CompiledPirateList.
+ */
+public final class ListMerger {
+    /**
+     * @param lists Lists to be merged, in order of precedence. Null lists are skipped.
+     * @return Unmodifiable merged list, in order of first appearance. The ID of a merged
+     * pirate is the one of its first appearance.
+     */
+    public static List<Pirate> merge(List<List<Pirate>> lists) {
+        if (lists == null) {
+            throw new NullPointerException("Lists must not be null.");
+        }
+        List<Pirate> merged = new ArrayList<>();
+        Map<String, Integer> positions = new HashMap<>();
+        Map<Integer, Union> unions = new HashMap<>();
+        for (List<Pirate> list : lists) {
+            if (list == null) {
+                continue;
+            }
+            for (Pirate pirate : list) {
+                Integer position = (pirate.NAME != null) ? positions.get(pirate.NAME) : null;
+                if (position == null) {
+                    if (pirate.NAME != null) {
+                        positions.put(pirate.NAME, merged.size());
+                    }
+                    merged.add(pirate);
+                    continue;
+                }
+                Union union = unions.get(position);
+                if (union == null) {
+                    union = new Union(merged.get(position));
+                    unions.put(position, union);
+                }
+                union.add(pirate);
+            }
+        }
+        for (Map.Entry<Integer, Union> entry : unions.entrySet()) {
+            merged.set(entry.getKey(), entry.getValue().toPirate());
+        }
+        return Collections.unmodifiableList(merged);
+    }
+
+    /**
+     * Packages and filters of every pirate sharing a name.
+     */
+    private static final class Union {
+        private final Pirate mFirst;
+        private final Set<String> mPackages = new LinkedHashSet<>();
+        private final Set<Integer> mFilters = new LinkedHashSet<>();
+
+        Union(Pirate first) {
+            mFirst = first;
+            add(first);
+        }
+
+        void add(Pirate pirate) {
+            if (pirate.PACKAGES != null) {
+                Collections.addAll(mPackages, pirate.PACKAGES);
+            }
+            if (pirate.FILTERS != null) {
+                for (int filter : pirate.FILTERS) {
+                    mFilters.add(filter);
+                }
+            }
+        }
+
+        Pirate toPirate() {
+            int[] filters = new int[mFilters.size()];
+            int i = 0;
+            for (int filter : mFilters) {
+                filters[i++] = filter;
+            }
+            return new Pirate(mFirst.ID, mFirst.NAME, mPackages.toArray(new String[mPackages.size()]), filters);
+        }
+    }
+
+    private ListMerger(){}
+}
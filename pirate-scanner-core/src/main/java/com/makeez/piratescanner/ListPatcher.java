@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Receives deltas of the pirate list and applies them to the local copy. The patched list is
+ * checked against the checksum of every delta and only then replaces the local copy, written
+ * in its canonical form. The body is refused when the deltas do not chain from the version of
+ * the local copy or a checksum does not match, so that the caller can fall back to a full download.
+ */
+public final class ListPatcher implements ListFetcher.Receiver {
+    private final ListFile mSource;
+    private final long mVersion;
+    private final MetricsRecorder mRecorder;
+    private List<Pirate> mList;
+    private long mChecksum;
+    private long mBytes;
+
+    /**
+     * @param source   Local copy of the pirate list.
+     * @param version  Version of the local copy.
+     * @param recorder Recorder of the time spent parsing.
+     */
+    public ListPatcher(ListFile source, long version, MetricsRecorder recorder) {
+        if ((source == null) || (recorder == null)) {
+            throw new NullPointerException("Source and recorder must not be null.");
+        }
+        mSource = source;
+        mVersion = version;
+        mRecorder = recorder;
+    }
+
+    @Override
+    public boolean onBody(InputStream body) throws IOException {
+        CountingInputStream counter = new CountingInputStream(body);
+        List<ListDelta> deltas;
+        try {
+            deltas = new PirateListParser(counter).parseDeltas();
+        } finally {
+            mBytes = counter.getCount();
+        }
+        List<Pirate> list = load();
+        long version = mVersion;
+        long checksum = -1;
+        for (ListDelta delta : deltas) {
+            if (delta.FROM != version) {
+                return false;
+            }
+            try {
+                list = delta.apply(list);
+            } catch (IOException e) {
+                mRecorder.recordError(e);
+                return false;
+            }
+            checksum = PirateListWriter.checksum(list);
+            if (checksum != delta.CHECKSUM) {
+                mRecorder.recordError(new IOException("Checksum mismatch at version " + delta.TO + "."));
+                return false;
+            }
+            version = delta.TO;
+        }
+        if (checksum < 0) {
+            // Nothing changed
+            mList = list;
+            mChecksum = PirateListWriter.checksum(list);
+            return true;
+        }
+        OutputStream stream = mSource.create();
+        try {
+            PirateListWriter.write(list, stream);
+        } catch (IOException e) {
+            stream.close();
+            mSource.discard();
+            throw e;
+        }
+        stream.close();
+        if (!mSource.commit()) {
+            return false;
+        }
+        mList = list;
+        mChecksum = checksum;
+        return true;
+    }
+
+    /**
+     * @return Patched list, or null if the deltas were not applied.
+     */
+    public List<Pirate> getList() {
+        return mList;
+    }
+
+    /**
+     * @return Checksum of the patched list (which is also the CRC32 of the local copy, decompressed).
+     */
+    public long getChecksum() {
+        return mChecksum;
+    }
+
+    /**
+     * @return Bytes of deltas received, decompressed.
+     */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    private List<Pirate> load() throws IOException {
+        InputStream stream = mSource.open();
+        try {
+            final List<Pirate> list = new ArrayList<>();
+            PirateListParser parser = new PirateListParser(stream);
+            long start = System.nanoTime();
+            parser.parse(new PirateListParser.Listener() {
+                @Override
+                public void onPirate(Pirate pirate) {
+                    list.add(pirate);
+                }
+            });
+            mRecorder.recordParse(System.nanoTime() - start, parser.getAccepted(), parser.getRejected());
+            return list;
+        } finally {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Compact sketch of every package name of a pirate list, published next to the list so that a
+ * device can rule out all of its installed packages without loading the list. Most devices have
+ * no pirate installed, so only the few with a possible hit go on to load the list and confirm.
+ *
+ * Exact package names are kept in a Bloom filter, which never misses a listed package and takes
+ * an unlisted one for a listed one at the false positive rate it was built for. Package name
+ * patterns cannot be hashed, they are few and kept as they are.
+ *
+ * Sketches are generated by main(), see the README.
+ */
+public final class ListSketch {
+    private static final int MAGIC = 0x50534b31; // PSK1
+    private static final int MAX_HASHES = 30;
+    private static final int MAX_BITS = 1 << 26;
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Default rate of unlisted package names taken for listed ones.
+     */
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.001;
+
+    private final long mVersion;
+    private final int mEntries;
+    private final int mHashes;
+    private final long[] mBits;
+    private final long mBitCount;
+    private final String[] mPatterns;
+    private final PatternIndex mPatternIndex;
+
+    private ListSketch(long version, int entries, int hashes, long[] bits, String[] patterns) {
+        mVersion = version;
+        mEntries = entries;
+        mHashes = hashes;
+        mBits = bits;
+        mBitCount = bits.length * 64L;
+        mPatterns = patterns;
+        int[][] positions = new int[patterns.length][];
+        for (int i = 0; i < patterns.length; i++) {
+            positions[i] = new int[] { i };
+        }
+        mPatternIndex = (patterns.length > 0) ? new PatternIndex(patterns, positions) : null;
+    }
+
+    /**
+     * @param pirateList        Pirates whose package names are sketched.
+     * @param version           Version of the list, eg. the checksum of its JSON.
+     * @param falsePositiveRate Rate of unlisted package names taken for listed ones, between 0 and 1.
+     * @param maxBytes          Max size of the filter in bytes, which raises the false positive
+     *                          rate when it is too small for the rate asked for, 0 for no limit.
+     */
+    public static ListSketch build(List<Pirate> pirateList, long version, double falsePositiveRate, int maxBytes) {
+        if (pirateList == null) {
+            throw new NullPointerException("Pirate list must not be null.");
+        }
+        if ((!(falsePositiveRate > 0)) || (!(falsePositiveRate < 1))) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1: " + falsePositiveRate);
+        }
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Max bytes must not be negative: " + maxBytes);
+        }
+        Set<String> names = new HashSet<>();
+        Set<String> patterns = new TreeSet<>();
+        for (Pirate pirate : pirateList) {
+            for (String packageName : pirate.PACKAGES) {
+                if (PatternIndex.isPattern(packageName)) {
+                    patterns.add(packageName);
+                } else {
+                    names.add(packageName);
+                }
+            }
+        }
+        int n = Math.max(1, names.size());
+        double ln2 = Math.log(2);
+        double bits = Math.ceil(-n * Math.log(falsePositiveRate) / (ln2 * ln2));
+        if (maxBytes > 0) {
+            bits = Math.min(bits, maxBytes * 8.0);
+        }
+        int words = (int) Math.max(1, Math.min(MAX_BITS / 64, Math.ceil(bits / 64)));
+        int hashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round(words * 64.0 / n * ln2)));
+        ListSketch sketch = new ListSketch(version, names.size(), hashes, new long[words],
+                patterns.toArray(new String[patterns.size()]));
+        for (String name : names) {
+            sketch.add(name);
+        }
+        return sketch;
+    }
+
+    private void add(String packageName) {
+        long h1 = hash(packageName);
+        long h2 = mix(h1 ^ 0x9e3779b97f4a7c15L) | 1;
+        for (int i = 0; i < mHashes; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % mBitCount;
+            mBits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return Whether a pirate of the list may own the package name, false if none does for sure.
+     */
+    public boolean mightBeListed(String packageName) {
+        if ((mPatternIndex != null) && (mPatternIndex.positionsOf(packageName) != null)) {
+            return true;
+        }
+        long h1 = hash(packageName);
+        long h2 = mix(h1 ^ 0x9e3779b97f4a7c15L) | 1;
+        for (int i = 0; i < mHashes; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % mBitCount;
+            if ((mBits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param packages Installed package names.
+     * @return Package names that may be listed, empty if the list can be left unloaded.
+     */
+    public List<String> candidates(Collection<String> packages) {
+        List<String> candidates = new ArrayList<>();
+        for (String packageName : packages) {
+            if (mightBeListed(packageName)) {
+                candidates.add(packageName);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @return Version of the list the sketch was built from.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return Number of exact package names in the filter.
+     */
+    public int getEntryCount() {
+        return mEntries;
+    }
+
+    public int getHashCount() {
+        return mHashes;
+    }
+
+    /**
+     * @return Size of the filter, in bytes.
+     */
+    public int getFilterSize() {
+        return mBits.length * 8;
+    }
+
+    /**
+     * @return Rate of unlisted package names expected to be taken for listed ones.
+     */
+    public double getFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) mHashes * mEntries / mBitCount), mHashes);
+    }
+
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+        dos.writeInt(MAGIC);
+        dos.writeLong(mVersion);
+        dos.writeInt(mEntries);
+        dos.writeInt(mHashes);
+        dos.writeInt(mBits.length);
+        dos.writeInt(mPatterns.length);
+        for (String pattern : mPatterns) {
+            dos.writeUTF(pattern);
+        }
+        for (long word : mBits) {
+            dos.writeLong(word);
+        }
+        dos.flush();
+    }
+
+    /**
+     * @throws IOException If the stream does not hold a valid sketch.
+     */
+    public static ListSketch read(InputStream stream) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(stream, BUFFER_SIZE));
+        if (dis.readInt() != MAGIC) {
+            throw new IOException("Not a pirate list sketch.");
+        }
+        long version = dis.readLong();
+        int entries = dis.readInt();
+        int hashes = dis.readInt();
+        int words = dis.readInt();
+        int patternCount = dis.readInt();
+        if ((entries < 0) || (hashes < 1) || (hashes > MAX_HASHES) || (words < 1) || (words > MAX_BITS / 64)
+                || (patternCount < 0)) {
+            throw new IOException("Corrupted pirate list sketch.");
+        }
+        List<String> patterns = new ArrayList<>();
+        for (int i = 0; i < patternCount; i++) {
+            String pattern = dis.readUTF();
+            if (!PatternIndex.isPattern(pattern)) {
+                throw new IOException("Corrupted pirate list sketch: " + pattern);
+            }
+            patterns.add(pattern);
+        }
+        long[] bits = new long[words];
+        for (int i = 0; i < words; i++) {
+            bits[i] = dis.readLong();
+        }
+        return new ListSketch(version, entries, hashes, bits, patterns.toArray(new String[patterns.size()]));
+    }
+
+    /**
+     * 64-bit FNV-1a of the characters, finished with a mix so that every bit depends on every character.
+     */
+    private static long hash(String s) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0, j = s.length(); i < j; i++) {
+            hash ^= s.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    public static void main(String[] args) throws IOException {
+        double rate = DEFAULT_FALSE_POSITIVE_RATE;
+        int maxBytes = 0;
+        int arg = 0;
+        for (; (arg + 1 < args.length) && args[arg].startsWith("-"); arg += 2) {
+            if ("-rate".equals(args[arg])) {
+                rate = Double.parseDouble(args[arg + 1]);
+            } else if ("-size".equals(args[arg])) {
+                maxBytes = Integer.parseInt(args[arg + 1]);
+            } else {
+                break;
+            }
+        }
+        if (args.length - arg != 2) {
+            System.err.println("Usage: ListSketch [-rate 0.001] [-size bytes] pirate-list.json pirate-list.sketch");
+            System.exit(2);
+        }
+        List<Pirate> pirateList;
+        // Versioned by the checksum of the JSON, same as the checksum of a downloaded list
+        CheckedInputStream cis = new CheckedInputStream(new FileInputStream(new File(args[arg])), new CRC32());
+        try {
+            pirateList = PirateListParser.parse(cis, new MetricsRecorder());
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (cis.read(buffer) >= 0) {
+                // Whatever follows the list is part of the checksum too
+            }
+        } finally {
+            cis.close();
+        }
+        long version = cis.getChecksum().getValue();
+        if (pirateList == null) {
+            System.err.println("Empty pirate list: " + args[arg]);
+            System.exit(1);
+        }
+        ListSketch sketch = build(pirateList, version, rate, maxBytes);
+        File out = new File(args[arg + 1]);
+        File temp = new File(out.getPath() + ".tmp");
+        OutputStream os = new FileOutputStream(temp);
+        try {
+            sketch.write(os);
+        } finally {
+            os.close();
+        }
+        if (!temp.renameTo(out)) {
+            temp.delete();
+            throw new IOException("Cannot write " + out);
+        }
+        System.err.println(sketch.getEntryCount() + " package names and " + sketch.mPatterns.length
+                + " patterns in " + out.length() + " bytes, " + sketch.getHashCount()
+                + " hashes, false positive rate " + sketch.getFalsePositiveRate());
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Pirate list merged with the official one, eg. an in-house blacklist. See PirateList.addSource().
+ */
+public interface ListSource {
+    /**
+     * Bring the local state of the source up to date, as often as its refresh policy asks for.
+     * Called in parallel with the other sources, from a background thread.
+     *
+     * @param recorder Recorder of this source only, failures are recorded rather than thrown.
+     */
+    void refresh(MetricsRecorder recorder);
+
+    /**
+     * @return Value that changes whenever what load() returns changes, without loading it.
+     * 0 if there is nothing to load.
+     */
+    long fingerprint();
+
+    /**
+     * @param recorder Recorder of this source only.
+     * @return Pirates of this source, or null if there are none.
+     * @throws IOException If the source cannot be read or is not a pirate list.
+     */
+    List<Pirate> load(MetricsRecorder recorder) throws IOException;
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+/**
+ * Collects the ScanMetrics of a single scan as it runs. Only a handful of counters,
+ * cheap enough to be kept whether or not anybody listens. Not thread safe, a scan records
+ * from one thread.
+ */
+public final class MetricsRecorder {
+    private final long mStart = System.nanoTime();
+    private int mSource = ScanMetrics.SOURCE_NONE;
+    private long mFetchTime;
+    private long mFetchBytes;
+    private long mParseTime;
+    private int mAccepted;
+    private int mRejected;
+    private int mLookups;
+    private long mMatchTime;
+    private Throwable mError;
+
+    /**
+     * @param source Where the list about to be scanned came from, one of ScanMetrics.SOURCE_*.
+     */
+    public void setSource(int source) {
+        mSource = source;
+    }
+
+    public void recordFetch(long time, long bytes) {
+        mFetchTime += time;
+        mFetchBytes += bytes;
+    }
+
+    public void recordParse(long time, int accepted, int rejected) {
+        mParseTime += time;
+        mAccepted += accepted;
+        mRejected += rejected;
+    }
+
+    public void recordMatch(long time, int lookups) {
+        mMatchTime += time;
+        mLookups += lookups;
+    }
+
+    /**
+     * @param error Failure the scan recovered from, only the first one is kept.
+     */
+    public void recordError(Throwable error) {
+        if (mError == null) {
+            mError = error;
+        }
+    }
+
+    /**
+     * Add up the stages recorded by another recorder, eg. one that ran in parallel with this one.
+     * Its source and total time are left out.
+     */
+    public void add(ScanMetrics metrics) {
+        recordFetch(metrics.FETCH_TIME, metrics.FETCH_BYTES);
+        recordParse(metrics.PARSE_TIME, metrics.ACCEPTED, metrics.REJECTED);
+        recordMatch(metrics.MATCH_TIME, metrics.LOOKUPS);
+        if (metrics.ERROR != null) {
+            recordError(metrics.ERROR);
+        }
+    }
+
+    /**
+     * @return Metrics recorded so far, timed up to now.
+     */
+    public ScanMetrics finish() {
+        return new ScanMetrics(mSource, mFetchTime, mFetchBytes, mParseTime, mAccepted, mRejected,
+                mLookups, mMatchTime, System.nanoTime() - mStart, mError);
+    }
+}
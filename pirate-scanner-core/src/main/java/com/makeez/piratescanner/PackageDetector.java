@@ -0,0 +1,35 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+/**
+ * Detects pirates by something else than their package name, eg. a repackaged pirate tool
+ * that kept its signing certificate. See PackageInspector.
+ */
+public interface PackageDetector {
+    /**
+     * @return Value that changes whenever the detector may decide differently, cached
+     * verdicts are dropped when it does.
+     */
+    long fingerprint();
+
+    /**
+     * @param packageName Installed package.
+     * @param facts       Facts about the package, asked for lazily.
+     * @return Pirate the package is, or null if it is not one as far as this detector can tell.
+     */
+    Pirate detect(String packageName, PackageFacts facts);
+}
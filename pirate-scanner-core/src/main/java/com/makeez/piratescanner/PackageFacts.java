@@ -0,0 +1,35 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.util.Set;
+
+/**
+ * What can be found out about an installed package beyond its name. Each of these costs a
+ * PackageManager call, they are only asked for packages that have no cached verdict.
+ */
+public interface PackageFacts {
+    /**
+     * @return Package name of the app that installed the package, or null if unknown.
+     */
+    String getInstaller(String packageName);
+
+    /**
+     * @return SHA-256 digests of the signing certificates of the package, as lower case hex,
+     * or null if unknown.
+     */
+    Set<String> getSignatureDigests(String packageName);
+}
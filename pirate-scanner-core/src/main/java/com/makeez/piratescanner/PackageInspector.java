@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Runs the package detectors over the installed packages. Verdicts are cached per package,
+ * so that only packages installed or updated since the last inspection are looked into,
+ * everything else costs a hash lookup.
+ */
+public final class PackageInspector {
+    private final List<PackageDetector> mDetectors;
+    private final VerdictCache mCache;
+    private RuntimeException mError;
+    private int mFailures;
+
+    /**
+     * @param detectors Detectors to be run, in order, the first one to detect a package wins.
+     * @param cache     File where the verdicts are kept.
+     */
+    public PackageInspector(List<PackageDetector> detectors, File cache) {
+        if ((detectors == null) || (cache == null)) {
+            throw new NullPointerException("Detectors and cache must not be null.");
+        }
+        mDetectors = new ArrayList<>(detectors);
+        CRC32 crc = new CRC32();
+        for (PackageDetector detector : mDetectors) {
+            long fingerprint = detector.fingerprint();
+            for (int i = 0; i < 64; i += 8) {
+                crc.update((int) (fingerprint >>> i));
+            }
+        }
+        mCache = new VerdictCache(cache, crc.getValue());
+    }
+
+    /**
+     * @param installed  Packages installed on the device.
+     * @param facts      Facts about the packages, only asked for packages without a cached verdict.
+     * @param filterMask Only pirates matching any of the filters in this bitmask are reported.
+     * @param listener   Listener of the pirates found, matching stops as soon as it asks to.
+     * @return Number of packages the detectors were run on. Detectors are not run anymore once the
+     * thread is interrupted. A detector that throws is taken as not detecting the package, see getError().
+     */
+    public int inspect(Collection<PackageStamp> installed, PackageFacts facts, int filterMask,
+                       PirateMatcher.Listener listener) {
+        if ((installed == null) || (facts == null) || (listener == null)) {
+            throw new NullPointerException("Installed packages, facts and listener must not be null.");
+        }
+        int inspected = 0;
+        Set<String> packageNames = new HashSet<>(installed.size() * 2);
+        for (PackageStamp stamp : installed) {
+            packageNames.add(stamp.PACKAGE_NAME);
+            VerdictCache.Verdict verdict = mCache.get(stamp);
+            Pirate pirate;
+            if (verdict != null) {
+                pirate = verdict.mPirate;
+            } else if (Thread.currentThread().isInterrupted()) {
+                // Cancelled, verdicts reached so far are kept
+                return inspected;
+            } else {
+                int failures = mFailures;
+                pirate = detect(stamp.PACKAGE_NAME, facts);
+                if (mFailures == failures) {
+                    // Otherwise looked into again next time
+                    mCache.put(stamp, pirate);
+                }
+                inspected++;
+            }
+            if ((pirate != null) && ((pirate.FILTER_MASK & filterMask) != 0)
+                    && (!listener.onMatch(pirate, stamp.PACKAGE_NAME))) {
+                return inspected;
+            }
+        }
+        mCache.retain(packageNames);
+        return inspected;
+    }
+
+    /**
+     * @return First exception thrown by a detector, or null if none did.
+     */
+    public RuntimeException getError() {
+        return mError;
+    }
+
+    /**
+     * Write the verdicts back to the cache file, if any changed.
+     */
+    public void save() {
+        mCache.save();
+    }
+
+    private Pirate detect(String packageName, PackageFacts facts) {
+        for (PackageDetector detector : mDetectors) {
+            Pirate pirate;
+            try {
+                pirate = detector.detect(packageName, facts);
+            } catch (RuntimeException e) {
+                if (mError == null) {
+                    mError = e;
+                }
+                mFailures++;
+                continue;
+            }
+            if (pirate != null) {
+                return pirate;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+/**
+ * Installed package, along with what changes whenever it is installed again or updated.
+ */
+public final class PackageStamp {
+    public final String PACKAGE_NAME;
+    public final int VERSION_CODE;
+    public final long LAST_UPDATE_TIME;
+
+    public PackageStamp(String packageName, int versionCode, long lastUpdateTime) {
+        if (packageName == null) {
+            throw new NullPointerException("Package name must not be null.");
+        }
+        PACKAGE_NAME = packageName;
+        VERSION_CODE = versionCode;
+        LAST_UPDATE_TIME = lastUpdateTime;
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Package name patterns of a pirate list (eg. com.chelpus.*) compiled into a single automaton,
+ * so that a package name is matched against every pattern in one pass over its characters.
+ * A '*' matches any run of characters, dots included, every other character matches itself.
+ *
+ * Patterns are kept in a trie where each '*' is a node looping on any character. Matching walks
+ * the trie with the set of nodes reachable so far, which stays as small as the number of stars
+ * along the prefix read so far, so the cost is linear in the length of the package name however
+ * many patterns there are. A pattern ending with '*' accepts as soon as its prefix is read.
+ */
+public final class PatternIndex {
+    private static final char WILDCARD = '*';
+    private static final int ROOT = 0;
+
+    private final int mPatternCount;
+    private final int[] mStar;
+    private final boolean[] mLoops;
+    private final boolean[] mFinal;
+    private final int[][] mAccept;
+    // Open addressing table of (node << 16 | char) to the next node
+    private final long[] mKeys;
+    private final int[] mNext;
+    private final int mMask;
+
+    /**
+     * @param patterns  Package name patterns, see isPattern().
+     * @param positions Positions of the pirates owning each pattern.
+     */
+    public PatternIndex(String[] patterns, int[][] positions) {
+        if ((patterns == null) || (positions == null)) {
+            throw new NullPointerException("Patterns and positions must not be null.");
+        }
+        if (patterns.length != positions.length) {
+            throw new IllegalArgumentException("Every pattern must have its positions: "
+                    + patterns.length + " != " + positions.length);
+        }
+        List<int[]> star = new ArrayList<>();
+        List<int[]> accept = new ArrayList<>();
+        List<Boolean> loops = new ArrayList<>();
+        Map<Long, Integer> edges = new HashMap<>();
+        star.add(new int[] { -1 });
+        accept.add(null);
+        loops.add(false);
+        for (int p = 0; p < patterns.length; p++) {
+            String pattern = patterns[p];
+            int node = ROOT;
+            for (int i = 0, j = pattern.length(); i < j; i++) {
+                char c = pattern.charAt(i);
+                if (c == WILDCARD) {
+                    if (loops.get(node)) {
+                        // Consecutive stars are one
+                        continue;
+                    }
+                    if (star.get(node)[0] < 0) {
+                        star.get(node)[0] = star.size();
+                        star.add(new int[] { -1 });
+                        accept.add(null);
+                        loops.add(true);
+                    }
+                    node = star.get(node)[0];
+                } else {
+                    Integer next = edges.get(edge(node, c));
+                    if (next == null) {
+                        next = star.size();
+                        edges.put(edge(node, c), next);
+                        star.add(new int[] { -1 });
+                        accept.add(null);
+                        loops.add(false);
+                    }
+                    node = next;
+                }
+            }
+            accept.set(node, union(accept.get(node), positions[p]));
+        }
+
+        int nodeCount = star.size();
+        mPatternCount = patterns.length;
+        mStar = new int[nodeCount];
+        mLoops = new boolean[nodeCount];
+        mFinal = new boolean[nodeCount];
+        mAccept = accept.toArray(new int[nodeCount][]);
+        boolean[] leaf = new boolean[nodeCount];
+        Arrays.fill(leaf, true);
+        for (long key : edges.keySet()) {
+            leaf[(int) (key >>> 16)] = false;
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            mStar[n] = star.get(n)[0];
+            mLoops[n] = loops.get(n);
+            // Accepts whatever follows, no need to carry on walking it
+            mFinal[n] = mLoops[n] && (mAccept[n] != null) && leaf[n] && (mStar[n] < 0);
+        }
+        int capacity = 2;
+        while (capacity < edges.size() * 2) {
+            capacity <<= 1;
+        }
+        mMask = capacity - 1;
+        mKeys = new long[capacity];
+        mNext = new int[capacity];
+        Arrays.fill(mKeys, -1);
+        for (Map.Entry<Long, Integer> entry : edges.entrySet()) {
+            long key = entry.getKey();
+            int slot = slot(key);
+            while (mKeys[slot] != -1) {
+                slot = (slot + 1) & mMask;
+            }
+            mKeys[slot] = key;
+            mNext[slot] = entry.getValue();
+        }
+    }
+
+    /**
+     * @return Whether the package name of a pirate is a pattern rather than an exact name.
+     */
+    public static boolean isPattern(String packageName) {
+        return (packageName != null) && (packageName.indexOf(WILDCARD) >= 0);
+    }
+
+    /**
+     * @return Number of patterns compiled.
+     */
+    public int size() {
+        return mPatternCount;
+    }
+
+    /**
+     * @param packageName Installed package name.
+     * @return Positions of the pirates owning a pattern that matches the package name, in
+     * ascending order, or null if there is none.
+     */
+    public int[] positionsOf(String packageName) {
+        if (packageName == null) {
+            return null;
+        }
+        Walk walk = new Walk();
+        walk.enter(ROOT);
+        for (int i = 0, j = packageName.length(); (i < j) && (walk.mCount > 0); i++) {
+            walk.step(packageName.charAt(i));
+        }
+        for (int i = 0; i < walk.mCount; i++) {
+            walk.accept(walk.mNodes[i]);
+        }
+        return walk.mPositions;
+    }
+
+    private int next(int node, char c) {
+        long key = edge(node, c);
+        for (int slot = slot(key); mKeys[slot] != -1; slot = (slot + 1) & mMask) {
+            if (mKeys[slot] == key) {
+                return mNext[slot];
+            }
+        }
+        return -1;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9e3779b97f4a7c15L;
+        return (int) (hash >>> 32) & mMask;
+    }
+
+    private static long edge(int node, char c) {
+        return ((long) node << 16) | c;
+    }
+
+    private static int[] union(int[] positions, int[] more) {
+        if (positions == null) {
+            int[] sorted = more.clone();
+            Arrays.sort(sorted);
+            return sorted;
+        }
+        int[] merged = Arrays.copyOf(positions, positions.length + more.length);
+        int size = positions.length;
+        for (int position : more) {
+            if (Arrays.binarySearch(merged, 0, size, position) < 0) {
+                merged[size++] = position;
+                Arrays.sort(merged, 0, size);
+            }
+        }
+        return (size == merged.length) ? merged : Arrays.copyOf(merged, size);
+    }
+
+    /**
+     * Set of trie nodes reached by the characters read so far.
+     */
+    private final class Walk {
+        private int[] mNodes = new int[4];
+        private int[] mSpare = new int[4];
+        private int mCount;
+        private int[] mPositions;
+
+        /**
+         * Add a node to the next set, along with the star hanging off it, which also matches nothing.
+         */
+        void enter(int node) {
+            while (node >= 0) {
+                if (mFinal[node]) {
+                    accept(node);
+                    return;
+                }
+                for (int i = 0; i < mCount; i++) {
+                    if (mNodes[i] == node) {
+                        return;
+                    }
+                }
+                if (mCount == mNodes.length) {
+                    mNodes = Arrays.copyOf(mNodes, mCount * 2);
+                }
+                mNodes[mCount++] = node;
+                node = mStar[node];
+            }
+        }
+
+        void step(char c) {
+            int[] current = mNodes;
+            int count = mCount;
+            mNodes = mSpare;
+            mCount = 0;
+            for (int i = 0; i < count; i++) {
+                int node = current[i];
+                if (mLoops[node]) {
+                    enter(node);
+                }
+                enter(next(node, c));
+            }
+            mSpare = current;
+        }
+
+        void accept(int node) {
+            if (mAccept[node] != null) {
+                mPositions = (mPositions == null) ? mAccept[node].clone() : union(mPositions, mAccept[node]);
+            }
+        }
+    }
+}
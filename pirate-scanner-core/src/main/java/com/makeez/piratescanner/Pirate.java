@@ -18,8 +18,15 @@ package com.makeez.piratescanner;
 public final class Pirate {
     public final int ID;
     public final String NAME;
+    /**
+     * Package names, or patterns where '*' matches any run of characters, eg. com.chelpus.*
+     */
     public final String[] PACKAGES;
     public final int[] FILTERS;
+    /**
+     * FILTERS as a bitmask, see Filter.mask().
+     */
+    public final int FILTER_MASK;
 
     public Pirate(String name, String[] packages, int[] filters) {
         this(-1, name, packages, filters);
@@ -30,5 +37,6 @@ public final class Pirate {
         NAME = name;
         PACKAGES = packages;
         FILTERS = filters;
+        FILTER_MASK = Filter.mask(filters);
     }
 }
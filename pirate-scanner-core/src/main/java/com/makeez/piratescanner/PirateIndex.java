@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+/**
+ * Read-only view over a pirate list that can be matched against installed packages
+ * without asking the PackageManager about every single package name.
+ */
+public interface PirateIndex {
+    /**
+     * @return Number of pirates held by this index.
+     */
+    int size();
+
+    /**
+     * @param position Position of the pirate, 0 <= position < size().
+     * @return Pirate at the given position.
+     */
+    Pirate get(int position);
+
+    /**
+     * @return Number of distinct package names held by this index.
+     */
+    int packageCount();
+
+    /**
+     * @param index Index of the package name, 0 <= index < packageCount().
+     * @return Package name at the given index.
+     */
+    String packageAt(int index);
+
+    /**
+     * @param packageName Package name to look up.
+     * @return Positions of the pirates owning the exact package name, or null if there is none.
+     */
+    int[] positionsOf(String packageName);
+
+    /**
+     * @return Package name patterns (eg. com.chelpus.*) held by this index, compiled once,
+     * or null if there is none. Patterns are also held as package names, which never match.
+     */
+    PatternIndex patterns();
+}
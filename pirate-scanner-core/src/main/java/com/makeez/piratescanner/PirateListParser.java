@@ -0,0 +1,585 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Pull parser for the pirate list. The list is read straight from the stream through a fixed
+ * size buffer and every pirate is handed over as soon as its entry is complete, so memory use
+ * is proportional to a single entry rather than to the whole list.
+ *
+ * Corrupted entries are skipped (and counted), a corrupted list stops the parse with an IOException.
+ */
+public final class PirateListParser {
+    public interface Listener {
+        void onPirate(Pirate pirate);
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader mReader;
+    private final char[] mBuffer;
+    private int mPos;
+    private int mLimit;
+    private long mOffset;
+
+    private final StringBuilder mString = new StringBuilder();
+    private final List<String> mPackages = new ArrayList<>();
+    private int[] mFilters = new int[8];
+    private int mFilterCount;
+
+    private int mAccepted;
+    private int mRejected;
+
+    public PirateListParser(InputStream stream) {
+        this(stream, new char[BUFFER_SIZE]);
+    }
+
+    /**
+     * @param stream UTF-8 encoded pirate list.
+     * @param buffer Buffer to read through, may be reused across parsers.
+     */
+    public PirateListParser(InputStream stream, char[] buffer) {
+        if ((stream == null) || (buffer == null)) {
+            throw new NullPointerException("Stream and buffer must not be null.");
+        }
+        try {
+            mReader = new InputStreamReader(stream, "UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        mBuffer = buffer;
+    }
+
+    /**
+     * Parse the whole list into memory.
+     *
+     * @return List of pirates, or null if the list is corrupted or empty.
+     */
+    public static List<Pirate> parse(InputStream stream) {
+        final List<Pirate> pirateList = new ArrayList<>();
+        try {
+            new PirateListParser(stream).parse(new Listener() {
+                @Override
+                public void onPirate(Pirate pirate) {
+                    pirateList.add(pirate);
+                }
+            });
+        } catch (IOException e) {
+            return null;
+        }
+        return pirateList.isEmpty() ? null : Collections.unmodifiableList(pirateList);
+    }
+
+    /**
+     * Same as parse(), recording how long it took and how many entries were accepted.
+     *
+     * @return List of pirates, or null if the list is empty.
+     * @throws IOException If the stream cannot be read or is not a pirate list.
+     */
+    public static List<Pirate> parse(InputStream stream, MetricsRecorder recorder) throws IOException {
+        final List<Pirate> pirateList = new ArrayList<>();
+        PirateListParser parser = new PirateListParser(stream);
+        long start = System.nanoTime();
+        try {
+            parser.parse(new Listener() {
+                @Override
+                public void onPirate(Pirate pirate) {
+                    pirateList.add(pirate);
+                }
+            });
+        } finally {
+            recorder.recordParse(System.nanoTime() - start, parser.getAccepted(), parser.getRejected());
+        }
+        return pirateList.isEmpty() ? null : Collections.unmodifiableList(pirateList);
+    }
+
+    /**
+     * Parse the list, handing every valid pirate to the listener as soon as it is read.
+     *
+     * @throws IOException If the stream cannot be read or is not a pirate list.
+     */
+    public void parse(Listener listener) throws IOException {
+        expect('[');
+        if (peek() == ']') {
+            mPos++;
+            return;
+        }
+        while (true) {
+            Pirate pirate = readPirate();
+            if (pirate != null) {
+                mAccepted++;
+                listener.onPirate(pirate);
+            } else {
+                mRejected++;
+            }
+            char c = next();
+            if (c == ']') {
+                return;
+            }
+            if (c != ',') {
+                throw syntaxError("Expected ',' or ']'");
+            }
+        }
+    }
+
+    /**
+     * Parse a delta document instead of a list:
+     * {"deltas": [{"from": 1, "to": 2, "checksum": "crc32 in hex", "added": [pirates...],
+     * "modified": [pirates...], "removed": [names...]}, ...]}
+     * Unlike in a list, a corrupted pirate makes the whole document invalid, since a delta
+     * applied in part would leave the local copy at no version at all.
+     *
+     * @return Deltas, in the order they are to be applied.
+     * @throws IOException If the stream cannot be read or is not a valid delta document.
+     */
+    public List<ListDelta> parseDeltas() throws IOException {
+        List<ListDelta> deltas = new ArrayList<>();
+        expect('{');
+        if (peek() == '}') {
+            mPos++;
+            return deltas;
+        }
+        while (true) {
+            String key = readKey();
+            if ("deltas".equals(key)) {
+                expect('[');
+                if (peek() == ']') {
+                    mPos++;
+                } else {
+                    do {
+                        deltas.add(readDelta());
+                    } while (nextInArray());
+                }
+            } else {
+                skipValue();
+            }
+            if (!nextInObject()) {
+                return deltas;
+            }
+        }
+    }
+
+    /**
+     * @return Number of pirates handed to the listener so far.
+     */
+    public int getAccepted() {
+        return mAccepted;
+    }
+
+    /**
+     * @return Number of corrupted entries skipped so far.
+     */
+    public int getRejected() {
+        return mRejected;
+    }
+
+    private Pirate readPirate() throws IOException {
+        if (peek() != '{') {
+            skipValue();
+            return null;
+        }
+        mPos++;
+        String name = null;
+        String[] packages = null;
+        int[] filters = null;
+        boolean corrupted = false;
+        if (peek() == '}') {
+            mPos++;
+            return null;
+        }
+        while (true) {
+            if (peek() != '"') {
+                throw syntaxError("Expected name");
+            }
+            String key = readString();
+            expect(':');
+            if ("name".equals(key)) {
+                if (peek() == '"') {
+                    name = readString();
+                } else {
+                    corrupted = true;
+                    skipValue();
+                }
+            } else if ("packages".equals(key)) {
+                packages = readPackages();
+                corrupted |= (packages == null);
+            } else if ("filters".equals(key)) {
+                filters = readFilters();
+                corrupted |= (filters == null);
+            } else {
+                skipValue();
+            }
+            char c = next();
+            if (c == '}') {
+                break;
+            }
+            if (c != ',') {
+                throw syntaxError("Expected ',' or '}'");
+            }
+        }
+        if (corrupted || (name == null) || (packages == null) || (filters == null)) {
+            return null;
+        }
+        return new Pirate(name, packages, filters);
+    }
+
+    private ListDelta readDelta() throws IOException {
+        expect('{');
+        long from = -1;
+        long to = -1;
+        String checksum = null;
+        List<Pirate> added = new ArrayList<>();
+        List<Pirate> modified = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        if (peek() != '}') {
+            do {
+                String key = readKey();
+                if ("from".equals(key)) {
+                    from = readVersion();
+                } else if ("to".equals(key)) {
+                    to = readVersion();
+                } else if ("checksum".equals(key)) {
+                    checksum = (peek() == '"') ? readString() : null;
+                    if (checksum == null) {
+                        throw syntaxError("Expected checksum");
+                    }
+                } else if ("added".equals(key)) {
+                    readPirates(added);
+                } else if ("modified".equals(key)) {
+                    readPirates(modified);
+                } else if ("removed".equals(key)) {
+                    String[] names = readPackages();
+                    if (names == null) {
+                        throw syntaxError("Expected names");
+                    }
+                    Collections.addAll(removed, names);
+                } else {
+                    skipValue();
+                }
+            } while (nextInObject());
+        } else {
+            mPos++;
+        }
+        if ((from < 0) || (to < 0) || (checksum == null)) {
+            throw syntaxError("Incomplete delta");
+        }
+        try {
+            return new ListDelta(from, to, Long.parseLong(checksum, 16), added, modified, removed);
+        } catch (NumberFormatException e) {
+            throw syntaxError("Invalid checksum");
+        }
+    }
+
+    private void readPirates(List<Pirate> pirates) throws IOException {
+        expect('[');
+        if (peek() == ']') {
+            mPos++;
+            return;
+        }
+        do {
+            Pirate pirate = readPirate();
+            if (pirate == null) {
+                throw syntaxError("Corrupted pirate");
+            }
+            pirates.add(pirate);
+        } while (nextInArray());
+    }
+
+    private long readVersion() throws IOException {
+        peek();
+        try {
+            long version = Long.parseLong(readWord());
+            if (version >= 0) {
+                return version;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw syntaxError("Invalid version");
+    }
+
+    private String readKey() throws IOException {
+        if (peek() != '"') {
+            throw syntaxError("Expected name");
+        }
+        String key = readString();
+        expect(':');
+        return key;
+    }
+
+    /**
+     * @return Whether another element follows, false at the end of the array.
+     */
+    private boolean nextInArray() throws IOException {
+        char c = next();
+        if (c == ']') {
+            return false;
+        }
+        if (c != ',') {
+            throw syntaxError("Expected ',' or ']'");
+        }
+        return true;
+    }
+
+    /**
+     * @return Whether another member follows, false at the end of the object.
+     */
+    private boolean nextInObject() throws IOException {
+        char c = next();
+        if (c == '}') {
+            return false;
+        }
+        if (c != ',') {
+            throw syntaxError("Expected ',' or '}'");
+        }
+        return true;
+    }
+
+    private String[] readPackages() throws IOException {
+        if (peek() != '[') {
+            skipValue();
+            return null;
+        }
+        mPos++;
+        mPackages.clear();
+        boolean corrupted = false;
+        if (peek() == ']') {
+            mPos++;
+            return new String[0];
+        }
+        while (true) {
+            if (peek() == '"') {
+                mPackages.add(readString());
+            } else {
+                corrupted = true;
+                skipValue();
+            }
+            char c = next();
+            if (c == ']') {
+                break;
+            }
+            if (c != ',') {
+                throw syntaxError("Expected ',' or ']'");
+            }
+        }
+        return corrupted ? null : mPackages.toArray(new String[mPackages.size()]);
+    }
+
+    private int[] readFilters() throws IOException {
+        if (peek() != '[') {
+            skipValue();
+            return null;
+        }
+        mPos++;
+        mFilterCount = 0;
+        boolean corrupted = false;
+        if (peek() == ']') {
+            mPos++;
+            return new int[0];
+        }
+        while (true) {
+            char c = peek();
+            if ((c == '-') || ((c >= '0') && (c <= '9'))) {
+                if (mFilterCount == mFilters.length) {
+                    int[] grown = new int[mFilters.length * 2];
+                    System.arraycopy(mFilters, 0, grown, 0, mFilterCount);
+                    mFilters = grown;
+                }
+                try {
+                    mFilters[mFilterCount++] = (int) Double.parseDouble(readWord());
+                } catch (NumberFormatException e) {
+                    corrupted = true;
+                }
+            } else {
+                corrupted = true;
+                skipValue();
+            }
+            c = next();
+            if (c == ']') {
+                break;
+            }
+            if (c != ',') {
+                throw syntaxError("Expected ',' or ']'");
+            }
+        }
+        if (corrupted) {
+            return null;
+        }
+        int[] filters = new int[mFilterCount];
+        System.arraycopy(mFilters, 0, filters, 0, mFilterCount);
+        return filters;
+    }
+
+    private void skipValue() throws IOException {
+        char c = peek();
+        if (c == '"') {
+            readString();
+        } else if ((c == '[') || (c == '{')) {
+            char close = (c == '[') ? ']' : '}';
+            mPos++;
+            if (peek() == close) {
+                mPos++;
+                return;
+            }
+            while (true) {
+                if (close == '}') {
+                    if (peek() != '"') {
+                        throw syntaxError("Expected name");
+                    }
+                    readString();
+                    expect(':');
+                }
+                skipValue();
+                char n = next();
+                if (n == close) {
+                    return;
+                }
+                if (n != ',') {
+                    throw syntaxError("Expected ',' or '" + close + "'");
+                }
+            }
+        } else {
+            if (readWord().length() == 0) {
+                throw syntaxError("Expected value");
+            }
+        }
+    }
+
+    /**
+     * Read a literal (number, true, false, null).
+     */
+    private String readWord() throws IOException {
+        mString.setLength(0);
+        while (fill()) {
+            char c = mBuffer[mPos];
+            if ((c == ',') || (c == ']') || (c == '}') || (c == ':') || isWhitespace(c)) {
+                break;
+            }
+            mString.append(c);
+            mPos++;
+        }
+        return mString.toString();
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        mString.setLength(0);
+        while (true) {
+            if (!fill()) {
+                throw syntaxError("Unterminated string");
+            }
+            char c = mBuffer[mPos++];
+            if (c == '"') {
+                return mString.toString();
+            }
+            if (c != '\\') {
+                mString.append(c);
+                continue;
+            }
+            if (!fill()) {
+                throw syntaxError("Unterminated escape");
+            }
+            c = mBuffer[mPos++];
+            switch (c) {
+                case 'b': mString.append('\b'); break;
+                case 'f': mString.append('\f'); break;
+                case 'n': mString.append('\n'); break;
+                case 'r': mString.append('\r'); break;
+                case 't': mString.append('\t'); break;
+                case 'u':
+                    int value = 0;
+                    for (int i = 0; i < 4; i++) {
+                        if (!fill()) {
+                            throw syntaxError("Unterminated escape");
+                        }
+                        int digit = Character.digit(mBuffer[mPos++], 16);
+                        if (digit < 0) {
+                            throw syntaxError("Invalid escape");
+                        }
+                        value = (value << 4) | digit;
+                    }
+                    mString.append((char) value);
+                    break;
+                default:
+                    mString.append(c);
+                    break;
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        if (next() != expected) {
+            throw syntaxError("Expected '" + expected + "'");
+        }
+    }
+
+    /**
+     * @return Next non-whitespace character, consumed.
+     */
+    private char next() throws IOException {
+        char c = peek();
+        mPos++;
+        return c;
+    }
+
+    /**
+     * @return Next non-whitespace character, not consumed.
+     */
+    private char peek() throws IOException {
+        while (fill()) {
+            char c = mBuffer[mPos];
+            if (!isWhitespace(c)) {
+                return c;
+            }
+            mPos++;
+        }
+        throw syntaxError("Unexpected end of list");
+    }
+
+    private boolean fill() throws IOException {
+        if (mPos < mLimit) {
+            return true;
+        }
+        mOffset += mLimit;
+        mPos = 0;
+        mLimit = 0;
+        int read;
+        while ((read = mReader.read(mBuffer, 0, mBuffer.length)) == 0) {
+            // Keep reading until there is something or the stream ends
+        }
+        if (read < 0) {
+            return false;
+        }
+        mLimit = read;
+        return true;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return (c == ' ') || (c == '\n') || (c == '\r') || (c == '\t');
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " at offset " + (mOffset + mPos) + ".");
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Writes a pirate list in its canonical form: compact JSON, in list order, UTF-8. Checksums of
+ * deltas are taken over this form, so that a patched local copy can be checked against the
+ * server's copy however that one happens to be formatted.
+ */
+public final class PirateListWriter {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * @param pirateList List to be written.
+     * @param stream     Stream the list is written to, flushed but not closed.
+     */
+    public static void write(List<Pirate> pirateList, OutputStream stream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"));
+        writer.write('[');
+        for (int i = 0, j = pirateList.size(); i < j; i++) {
+            Pirate pirate = pirateList.get(i);
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write("{\"name\":");
+            writeString(writer, pirate.NAME);
+            writer.write(",\"packages\":[");
+            for (int k = 0; k < pirate.PACKAGES.length; k++) {
+                if (k > 0) {
+                    writer.write(',');
+                }
+                writeString(writer, pirate.PACKAGES[k]);
+            }
+            writer.write("],\"filters\":[");
+            for (int k = 0; k < pirate.FILTERS.length; k++) {
+                if (k > 0) {
+                    writer.write(',');
+                }
+                writer.write(Integer.toString(pirate.FILTERS[k]));
+            }
+            writer.write("]}");
+        }
+        writer.write(']');
+        writer.flush();
+    }
+
+    /**
+     * @return CRC32 of the canonical form of the list.
+     */
+    public static long checksum(List<Pirate> pirateList) {
+        CheckedOutputStream cos = new CheckedOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int count) {
+            }
+        }, new CRC32());
+        try {
+            write(pirateList, cos);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return cos.getChecksum().getValue();
+    }
+
+    private static void writeString(Writer writer, String string) throws IOException {
+        writer.write('"');
+        for (int i = 0, j = string.length(); i < j; i++) {
+            char c = string.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20) {
+                writer.write("\\u00");
+                writer.write(HEX[c >> 4]);
+                writer.write(HEX[c & 0xf]);
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+
+    private PirateListWriter(){}
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Intersects the set of installed packages with a PirateIndex in a single pass. Package name
+ * patterns of the index, if any, are then run against every installed package.
+ */
+public final class PirateMatcher {
+    public interface Listener {
+        /**
+         * Called for every pirate as soon as it is found.
+         *
+         * @param pirate      Pirate found.
+         * @param packageName Installed package the pirate was found by.
+         * @return True to carry on matching, false to stop.
+         */
+        boolean onMatch(Pirate pirate, String packageName);
+    }
+
+    public static final class Result {
+        /**
+         * Pirates found, in index order, or null if none was found.
+         */
+        public final List<Pirate> PIRATES;
+        /**
+         * Number of PackageManager lookups avoided compared to asking for every package name.
+         */
+        public final int LOOKUPS_SAVED;
+        /**
+         * Number of package names looked up on the probed side.
+         */
+        public final int LOOKUPS;
+
+        Result(List<Pirate> pirates, int lookupsSaved, int lookups) {
+            PIRATES = pirates;
+            LOOKUPS_SAVED = lookupsSaved;
+            LOOKUPS = lookups;
+        }
+    }
+
+    /**
+     * Find every pirate in the index that owns at least one of the installed packages.
+     * Whichever side is smaller is iterated, the other one is probed by hash lookup.
+     *
+     * @param index     Pirates to be matched.
+     * @param installed Package names installed on the device, enumerated once.
+     * @return Result of the match.
+     */
+    public static Result match(PirateIndex index, Set<String> installed) {
+        if ((index == null) || (installed == null)) {
+            throw new NullPointerException("Index and installed packages must not be null.");
+        }
+        boolean[] found = new boolean[index.size()];
+        int count = 0;
+        int lookups;
+        if (installed.size() < index.packageCount()) {
+            lookups = installed.size();
+            for (String packageName : installed) {
+                count += mark(found, index.positionsOf(packageName));
+            }
+        } else {
+            lookups = index.packageCount();
+            for (int i = 0, j = index.packageCount(); i < j; i++) {
+                String packageName = index.packageAt(i);
+                if (installed.contains(packageName)) {
+                    count += mark(found, index.positionsOf(packageName));
+                }
+            }
+        }
+        PatternIndex patterns = index.patterns();
+        if (patterns != null) {
+            for (String packageName : installed) {
+                count += mark(found, patterns.positionsOf(packageName));
+            }
+        }
+        // A single enumeration replaces one lookup per indexed package name
+        int saved = Math.max(0, index.packageCount() - 1);
+        return new Result(collect(index, found, count), saved, lookups);
+    }
+
+    /**
+     * Same as match(), except every pirate is handed to the listener as soon as it is found,
+     * and matching stops as soon as the listener asks to.
+     *
+     * @param index     Pirates to be matched.
+     * @param installed Package names installed on the device, enumerated once.
+     * @param found     One flag per pirate position in the index. Pirates already flagged
+     *                  (eg. by an earlier probe) are not reported again, new ones get flagged.
+     * @param listener  Listener of the pirates found.
+     * @return Number of package names looked up.
+     */
+    public static int match(PirateIndex index, Set<String> installed, boolean[] found, Listener listener) {
+        if ((index == null) || (installed == null) || (found == null) || (listener == null)) {
+            throw new NullPointerException("Index, installed packages, flags and listener must not be null.");
+        }
+        int lookups = 0;
+        if (installed.size() < index.packageCount()) {
+            for (String packageName : installed) {
+                lookups++;
+                if (!report(index, index.positionsOf(packageName), packageName, found, listener)) {
+                    return lookups;
+                }
+            }
+        } else {
+            for (int i = 0, j = index.packageCount(); i < j; i++) {
+                String packageName = index.packageAt(i);
+                lookups++;
+                if (installed.contains(packageName)
+                        && (!report(index, index.positionsOf(packageName), packageName, found, listener))) {
+                    return lookups;
+                }
+            }
+        }
+        PatternIndex patterns = index.patterns();
+        if (patterns != null) {
+            for (String packageName : installed) {
+                if (!report(index, patterns.positionsOf(packageName), packageName, found, listener)) {
+                    break;
+                }
+            }
+        }
+        return lookups;
+    }
+
+    /**
+     * Report the pirates owning a package known to be installed, by its exact name or a pattern.
+     *
+     * @param found One flag per pirate position in the index, see match().
+     * @return False if the listener asked to stop.
+     */
+    public static boolean matchPackage(PirateIndex index, String packageName, boolean[] found,
+                                       Listener listener) {
+        if (!report(index, index.positionsOf(packageName), packageName, found, listener)) {
+            return false;
+        }
+        PatternIndex patterns = index.patterns();
+        return (patterns == null) || report(index, patterns.positionsOf(packageName), packageName, found, listener);
+    }
+
+    /**
+     * @return Whether any pirate of the index owns the package name, exactly or by a pattern.
+     */
+    public static boolean isListed(PirateIndex index, String packageName) {
+        if (index.positionsOf(packageName) != null) {
+            return true;
+        }
+        PatternIndex patterns = index.patterns();
+        return (patterns != null) && (patterns.positionsOf(packageName) != null);
+    }
+
+    private static boolean report(PirateIndex index, int[] positions, String packageName, boolean[] found,
+                                  Listener listener) {
+        if (positions == null) {
+            return true;
+        }
+        for (int position : positions) {
+            if (!found[position]) {
+                found[position] = true;
+                if (!listener.onMatch(index.get(position), packageName)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collect the pirates flagged in found, in index order.
+     *
+     * @param index Index the flags refer to.
+     * @param found One flag per pirate position in the index.
+     * @param count Number of flags set.
+     * @return Unmodifiable list of flagged pirates, null when count is 0.
+     */
+    public static List<Pirate> collect(PirateIndex index, boolean[] found, int count) {
+        if (count == 0) {
+            return null;
+        }
+        List<Pirate> pirates = new ArrayList<>(count);
+        for (int i = 0; i < found.length; i++) {
+            if (found[i]) {
+                pirates.add(index.get(i));
+            }
+        }
+        return Collections.unmodifiableList(pirates);
+    }
+
+    private static int mark(boolean[] found, int[] positions) {
+        if (positions == null) {
+            return 0;
+        }
+        int count = 0;
+        for (int position : positions) {
+            if (!found[position]) {
+                found[position] = true;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private PirateMatcher(){}
+}
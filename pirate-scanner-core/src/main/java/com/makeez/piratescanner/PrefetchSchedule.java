@@ -0,0 +1,273 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Decides when the pirate list is prefetched in the background: once per interval after a
+ * success, backing off exponentially after failures, and only on a suitable network. Every
+ * delay is spread by a random jitter so that devices do not all hit the server at once.
+ * The next run and the failure count are kept in a small file, so the schedule survives restarts.
+ */
+public final class PrefetchSchedule {
+    private static final int MAGIC = 0x50535031; // PSP1
+
+    /**
+     * No network connection.
+     */
+    public static final int NETWORK_NONE = 0;
+    /**
+     * Network connection that may be charged by the byte, eg. mobile data.
+     */
+    public static final int NETWORK_METERED = 1;
+    /**
+     * Network connection that is not charged by the byte, eg. Wi-Fi.
+     */
+    public static final int NETWORK_UNMETERED = 2;
+
+    /**
+     * Default first delay after a failure, in milliseconds.
+     */
+    public static final long DEFAULT_MIN_BACKOFF = 60 * 1000;
+    /**
+     * Default spread of every delay, as a fraction of it.
+     */
+    public static final float DEFAULT_JITTER = 0.1f;
+    /**
+     * Default delay before trying again without a suitable network, in milliseconds.
+     */
+    public static final long DEFAULT_NETWORK_RETRY = 15 * 60 * 1000;
+
+    public interface Clock {
+        /**
+         * @return Current time, in milliseconds since the epoch.
+         */
+        long now();
+    }
+
+    /**
+     * Clock of the system, System.currentTimeMillis().
+     */
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long now() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private final File mState;
+    private final long mInterval;
+    private final Clock mClock;
+    private final Random mRandom;
+    private long mMinBackoff = DEFAULT_MIN_BACKOFF;
+    private long mMaxBackoff;
+    private long mNetworkRetry = DEFAULT_NETWORK_RETRY;
+    private float mJitter = DEFAULT_JITTER;
+    private boolean mUnmeteredOnly;
+    private boolean mLoaded;
+    private long mNextRunAt;
+    private int mFailures;
+
+    /**
+     * @param state    File where the schedule is kept.
+     * @param interval Delay between two successful prefetches, in milliseconds.
+     * @param clock    Clock the schedule runs on.
+     * @param random   Source of the jitter.
+     */
+    public PrefetchSchedule(File state, long interval, Clock clock, Random random) {
+        if ((state == null) || (clock == null) || (random == null)) {
+            throw new NullPointerException("State file, clock and random must not be null.");
+        }
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive: " + interval);
+        }
+        mState = state;
+        mInterval = interval;
+        mClock = clock;
+        mRandom = random;
+        mMaxBackoff = interval;
+    }
+
+    /**
+     * Specify how long to wait after failures, doubling from min to max with every failure in a row.
+     * Default: DEFAULT_MIN_BACKOFF up to the interval
+     *
+     * @param min First delay after a failure, in milliseconds.
+     * @param max Longest delay after failures, in milliseconds.
+     */
+    public synchronized void setBackoff(long min, long max) {
+        if ((min <= 0) || (max < min)) {
+            throw new IllegalArgumentException("Backoff must be positive and max >= min: " + min + ", " + max);
+        }
+        mMinBackoff = min;
+        mMaxBackoff = max;
+    }
+
+    /**
+     * Specify how long to wait before checking the network again when it was not suitable.
+     * Default: DEFAULT_NETWORK_RETRY
+     *
+     * @param retry Delay, in milliseconds.
+     */
+    public synchronized void setNetworkRetry(long retry) {
+        if (retry <= 0) {
+            throw new IllegalArgumentException("Network retry must be positive: " + retry);
+        }
+        mNetworkRetry = retry;
+    }
+
+    /**
+     * Specify how much every delay is spread, a delay d is picked between d * (1 - jitter)
+     * and d * (1 + jitter).
+     * Default: DEFAULT_JITTER
+     *
+     * @param jitter Jitter, between 0 and 1.
+     */
+    public synchronized void setJitter(float jitter) {
+        if ((jitter < 0) || (jitter > 1)) {
+            throw new IllegalArgumentException("Jitter must be between 0 and 1: " + jitter);
+        }
+        mJitter = jitter;
+    }
+
+    /**
+     * Only prefetch on a network that is not charged by the byte.
+     * Default: false
+     *
+     * @param unmeteredOnly Whether to wait for an unmetered network.
+     */
+    public synchronized void setUnmeteredOnly(boolean unmeteredOnly) {
+        mUnmeteredOnly = unmeteredOnly;
+    }
+
+    /**
+     * @return Time left until the next prefetch is due, in milliseconds, 0 if it is due already.
+     */
+    public synchronized long delay() {
+        load();
+        long delay = mNextRunAt - mClock.now();
+        // The clock was set back, do not wait longer than any delay this schedule can pick
+        long longest = (long) (Math.max(Math.max(mInterval, mMaxBackoff), mNetworkRetry) * (1 + mJitter));
+        return (delay > longest) ? 0 : Math.max(0, delay);
+    }
+
+    /**
+     * Check whether a prefetch should start now. When it is due but the network is not suitable,
+     * it is put off by the network retry delay.
+     *
+     * @param network One of NETWORK_*.
+     * @return True if the prefetch should start now, onSuccess() or onFailure() is then expected.
+     */
+    public synchronized boolean shouldRun(int network) {
+        if (delay() > 0) {
+            return false;
+        }
+        if ((network == NETWORK_NONE) || (mUnmeteredOnly && (network != NETWORK_UNMETERED))) {
+            reschedule(mNetworkRetry);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The prefetch succeeded, the next one is due in one interval.
+     */
+    public synchronized void onSuccess() {
+        load();
+        mFailures = 0;
+        reschedule(mInterval);
+    }
+
+    /**
+     * The prefetch failed, the next one is due once backed off.
+     */
+    public synchronized void onFailure() {
+        load();
+        mFailures++;
+        long backoff = mMinBackoff;
+        for (int i = 1; (i < mFailures) && (backoff < mMaxBackoff); i++) {
+            backoff *= 2;
+        }
+        reschedule(Math.min(backoff, mMaxBackoff));
+    }
+
+    /**
+     * @return Number of failures in a row.
+     */
+    public synchronized int getFailures() {
+        load();
+        return mFailures;
+    }
+
+    private void reschedule(long delay) {
+        double spread = (mRandom.nextDouble() * 2 - 1) * mJitter;
+        mNextRunAt = mClock.now() + Math.max(0, (long) (delay * (1 + spread)));
+        save();
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (!mState.exists()) {
+            return;
+        }
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(mState)));
+            try {
+                if (dis.readInt() == MAGIC) {
+                    mNextRunAt = dis.readLong();
+                    mFailures = dis.readInt();
+                }
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            // Unreadable schedule, prefetch right away
+            mNextRunAt = 0;
+            mFailures = 0;
+        }
+    }
+
+    private void save() {
+        File temp = new File(mState.getPath() + ".tmp");
+        try {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                dos.writeInt(MAGIC);
+                dos.writeLong(mNextRunAt);
+                dos.writeInt(mFailures);
+            } finally {
+                dos.close();
+            }
+            if (!temp.renameTo(mState)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            temp.delete();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+/**
+ * Where the time of a single scan went. Times are wall-clock nanoseconds.
+ */
+public final class ScanMetrics {
+    /**
+     * No pirate list was available.
+     */
+    public static final int SOURCE_NONE = 0;
+    /**
+     * List kept in memory by an earlier scan, nothing was loaded.
+     */
+    public static final int SOURCE_MEMORY = 1;
+    /**
+     * Local copy, either still fresh or because the network failed.
+     */
+    public static final int SOURCE_LOCAL = 2;
+    /**
+     * Server confirmed (304) that the local copy is up to date.
+     */
+    public static final int SOURCE_NOT_MODIFIED = 3;
+    /**
+     * New copy downloaded from the server.
+     */
+    public static final int SOURCE_NETWORK = 4;
+    /**
+     * Verdict published by another process (or an earlier scan) was reused, nothing was matched.
+     */
+    public static final int SOURCE_SHARED = 5;
+    /**
+     * Sketch of the list ruled out every installed package, the list was not loaded.
+     */
+    public static final int SOURCE_SKETCH = 6;
+
+    public interface Listener {
+        /**
+         * Called once per scan, after its last result.
+         */
+        void onScanMetrics(ScanMetrics metrics);
+    }
+
+    /**
+     * Where the pirate list scanned last came from, one of SOURCE_*.
+     */
+    public final int SOURCE;
+    /**
+     * Time spent talking to the server, including parsing a downloaded list while it streams in.
+     */
+    public final long FETCH_TIME;
+    /**
+     * Bytes of pirate list downloaded, 0 unless the source is SOURCE_NETWORK.
+     */
+    public final long FETCH_BYTES;
+    /**
+     * Time spent parsing the JSON, 0 when the compiled copy could be used.
+     */
+    public final long PARSE_TIME;
+    /**
+     * Entries of the list that were parsed successfully.
+     */
+    public final int ACCEPTED;
+    /**
+     * Entries of the list that were skipped for being corrupted.
+     */
+    public final int REJECTED;
+    /**
+     * Package names looked up, in the installed packages or through the PackageManager.
+     */
+    public final int LOOKUPS;
+    /**
+     * Time spent matching installed packages against the list.
+     */
+    public final long MATCH_TIME;
+    /**
+     * Time from the start of the scan to its last result.
+     */
+    public final long TOTAL_TIME;
+    /**
+     * First failure the scan recovered from (eg. network down, corrupted local copy), or null.
+     */
+    public final Throwable ERROR;
+
+    ScanMetrics(int source, long fetchTime, long fetchBytes, long parseTime, int accepted, int rejected,
+                int lookups, long matchTime, long totalTime, Throwable error) {
+        SOURCE = source;
+        FETCH_TIME = fetchTime;
+        FETCH_BYTES = fetchBytes;
+        PARSE_TIME = parseTime;
+        ACCEPTED = accepted;
+        REJECTED = rejected;
+        LOOKUPS = lookups;
+        MATCH_TIME = matchTime;
+        TOTAL_TIME = totalTime;
+        ERROR = error;
+    }
+}
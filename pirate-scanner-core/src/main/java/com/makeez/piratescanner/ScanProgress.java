@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Progress of a scan as seen by a subscriber with a deadline: the pirates detected and the stages
+ * finished so far, and whichever of the result or the deadline comes first. Thread safe, the scan
+ * reports from its worker while the deadline passes on a timer.
+ */
+final class ScanProgress {
+    static final class Partial {
+        /**
+         * Unmodifiable list of the pirates detected by the deadline, in the order they were
+         * found, or null if none was found.
+         */
+        final List<Pirate> PIRATES;
+        /**
+         * Bitmask of the stages finished by the deadline.
+         */
+        final int STAGES;
+
+        Partial(List<Pirate> pirates, int stages) {
+            PIRATES = pirates;
+            STAGES = stages;
+        }
+    }
+
+    private final boolean mContinued;
+    private final List<Pirate> mDetected = new ArrayList<>();
+    private int mStages;
+    private boolean mCompleted;
+    private boolean mExpired;
+
+    /**
+     * @param continued Whether the scan goes on once the deadline passed, and its result is still
+     *                  delivered.
+     */
+    ScanProgress(boolean continued) {
+        mContinued = continued;
+    }
+
+    synchronized void detect(Pirate pirate) {
+        if (!mDetected.contains(pirate)) {
+            mDetected.add(pirate);
+        }
+    }
+
+    /**
+     * @param stages Bitmask of the stages finished so far, added to the ones already finished.
+     */
+    synchronized void finish(int stages) {
+        mStages |= stages;
+    }
+
+    /**
+     * The scan came up with a result.
+     *
+     * @return Whether the result is to be delivered, false if the deadline passed before it and
+     * the scan was not to go on.
+     */
+    synchronized boolean complete() {
+        if (mExpired && (!mContinued)) {
+            return false;
+        }
+        mCompleted = true;
+        return true;
+    }
+
+    /**
+     * The deadline passed.
+     *
+     * @return What was found by the deadline, or null if a result was delivered before it.
+     */
+    synchronized Partial expire() {
+        if (mCompleted || mExpired) {
+            return null;
+        }
+        mExpired = true;
+        return new Partial(mDetected.isEmpty() ? null : Collections.unmodifiableList(new ArrayList<>(mDetected)),
+                mStages);
+    }
+
+    boolean isContinued() {
+        return mContinued;
+    }
+}
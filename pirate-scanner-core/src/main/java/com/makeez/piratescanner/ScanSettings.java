@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable snapshot of the settings of a scanner. Changing a setting makes a new snapshot, so
+ * that a scan started with one never sees the settings change under it, whichever thread changes
+ * them. Snapshots are equal when they would produce the same result, custom pirates being
+ * compared by value.
+ */
+final class ScanSettings {
+    static final ScanSettings DEFAULT = new ScanSettings(0, false, 0, Collections.<Pirate>emptyList(), false,
+            Collections.<PackageDetector>emptyList(), 0);
+
+    /**
+     * How the scanner gets hold of the pirate list, one of PirateScanner.MODE_*.
+     */
+    final int MODE;
+    final boolean INCREMENTAL;
+    /**
+     * Bitmask of the filters added, 0 if none was added.
+     */
+    final int FILTER_MASK;
+    /**
+     * Unmodifiable list of the custom pirates, in the order they were added.
+     */
+    final List<Pirate> PIRATES;
+    final boolean FIRST_MATCH;
+    /**
+     * Unmodifiable list of the package detectors, in the order they were added.
+     */
+    final List<PackageDetector> DETECTORS;
+    /**
+     * Max age of a verdict shared across processes, 0 if it is not shared.
+     */
+    final long SHARED_MAX_AGE;
+
+    private final int mHash;
+
+    private ScanSettings(int mode, boolean incremental, int filterMask, List<Pirate> pirates, boolean firstMatch,
+                         List<PackageDetector> detectors, long sharedMaxAge) {
+        MODE = mode;
+        INCREMENTAL = incremental;
+        FILTER_MASK = filterMask;
+        PIRATES = pirates;
+        FIRST_MATCH = firstMatch;
+        DETECTORS = detectors;
+        SHARED_MAX_AGE = sharedMaxAge;
+        int hash = mode * 31 + (incremental ? 1 : 0);
+        hash = hash * 31 + (firstMatch ? 1 : 0);
+        hash = hash * 31 + detectors.hashCode();
+        hash = hash * 31 + filterMask;
+        hash = hash * 31 + (int) (sharedMaxAge ^ (sharedMaxAge >>> 32));
+        for (Pirate pirate : pirates) {
+            hash = hash * 31 + hashCode(pirate);
+        }
+        mHash = hash;
+    }
+
+    /**
+     * @return Bitmask of the filters to scan with, every filter if none was added.
+     */
+    int getFilterMask() {
+        return (FILTER_MASK != 0) ? FILTER_MASK : Filter.ALL;
+    }
+
+    ScanSettings withMode(int mode) {
+        return new ScanSettings(mode, INCREMENTAL, FILTER_MASK, PIRATES, FIRST_MATCH, DETECTORS, SHARED_MAX_AGE);
+    }
+
+    ScanSettings withIncremental(boolean incremental) {
+        return new ScanSettings(MODE, incremental, FILTER_MASK, PIRATES, FIRST_MATCH, DETECTORS, SHARED_MAX_AGE);
+    }
+
+    ScanSettings withFilterMask(int filterMask) {
+        return new ScanSettings(MODE, INCREMENTAL, filterMask, PIRATES, FIRST_MATCH, DETECTORS, SHARED_MAX_AGE);
+    }
+
+    ScanSettings withFirstMatch(boolean firstMatch) {
+        return new ScanSettings(MODE, INCREMENTAL, FILTER_MASK, PIRATES, firstMatch, DETECTORS, SHARED_MAX_AGE);
+    }
+
+    ScanSettings withSharedMaxAge(long sharedMaxAge) {
+        return new ScanSettings(MODE, INCREMENTAL, FILTER_MASK, PIRATES, FIRST_MATCH, DETECTORS, sharedMaxAge);
+    }
+
+    /**
+     * @return Settings with the pirate added, unless a custom pirate of the same ID is already there.
+     */
+    ScanSettings withPirate(Pirate pirate) {
+        if (indexOf(pirate.ID) >= 0) {
+            return this;
+        }
+        List<Pirate> pirates = new ArrayList<>(PIRATES);
+        pirates.add(pirate);
+        return withPirates(Collections.unmodifiableList(pirates));
+    }
+
+    ScanSettings withoutPirate(int id) {
+        int pos = indexOf(id);
+        if (pos < 0) {
+            return this;
+        }
+        List<Pirate> pirates = new ArrayList<>(PIRATES);
+        pirates.remove(pos);
+        return withPirates(Collections.unmodifiableList(pirates));
+    }
+
+    ScanSettings withoutPirates() {
+        return withPirates(Collections.<Pirate>emptyList());
+    }
+
+    ScanSettings withDetector(PackageDetector detector) {
+        if (DETECTORS.contains(detector)) {
+            return this;
+        }
+        List<PackageDetector> detectors = new ArrayList<>(DETECTORS);
+        detectors.add(detector);
+        return withDetectors(Collections.unmodifiableList(detectors));
+    }
+
+    ScanSettings withoutDetector(PackageDetector detector) {
+        if (!DETECTORS.contains(detector)) {
+            return this;
+        }
+        List<PackageDetector> detectors = new ArrayList<>(DETECTORS);
+        detectors.remove(detector);
+        return withDetectors(Collections.unmodifiableList(detectors));
+    }
+
+    ScanSettings withoutDetectors() {
+        return withDetectors(Collections.<PackageDetector>emptyList());
+    }
+
+    private ScanSettings withPirates(List<Pirate> pirates) {
+        return new ScanSettings(MODE, INCREMENTAL, FILTER_MASK, pirates, FIRST_MATCH, DETECTORS, SHARED_MAX_AGE);
+    }
+
+    private ScanSettings withDetectors(List<PackageDetector> detectors) {
+        return new ScanSettings(MODE, INCREMENTAL, FILTER_MASK, PIRATES, FIRST_MATCH, detectors, SHARED_MAX_AGE);
+    }
+
+    private int indexOf(int id) {
+        for (int i = 0, j = PIRATES.size(); i < j; i++) {
+            if (PIRATES.get(i).ID == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ScanSettings)) {
+            return false;
+        }
+        ScanSettings settings = (ScanSettings) o;
+        if ((mHash != settings.mHash) || (MODE != settings.MODE) || (INCREMENTAL != settings.INCREMENTAL)
+                || (FILTER_MASK != settings.FILTER_MASK) || (FIRST_MATCH != settings.FIRST_MATCH)
+                || (SHARED_MAX_AGE != settings.SHARED_MAX_AGE) || (!DETECTORS.equals(settings.DETECTORS))
+                || (PIRATES.size() != settings.PIRATES.size())) {
+            return false;
+        }
+        for (int i = 0, j = PIRATES.size(); i < j; i++) {
+            if (!equals(PIRATES.get(i), settings.PIRATES.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return mHash;
+    }
+
+    private static int hashCode(Pirate pirate) {
+        int hash = pirate.ID;
+        hash = hash * 31 + ((pirate.NAME != null) ? pirate.NAME.hashCode() : 0);
+        hash = hash * 31 + Arrays.hashCode(pirate.PACKAGES);
+        return hash * 31 + Arrays.hashCode(pirate.FILTERS);
+    }
+
+    private static boolean equals(Pirate a, Pirate b) {
+        return (a == b) || ((a.ID == b.ID)
+                && ((a.NAME != null) ? a.NAME.equals(b.NAME) : (b.NAME == null))
+                && Arrays.equals(a.PACKAGES, b.PACKAGES)
+                && Arrays.equals(a.FILTERS, b.FILTERS));
+    }
+}
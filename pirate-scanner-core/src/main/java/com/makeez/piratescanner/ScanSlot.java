@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the scan started by a scanner, started and cancelled from any thread without locking.
+ * A run is claimed before the scan is started and the scan attached to it afterwards, so that
+ * concurrent starts start one scan only, and a cancel landing in between cancels the scan as
+ * soon as it is attached. A run is only over once its scan is cancelled (or done), so that two
+ * scans never run side by side.
+ */
+final class ScanSlot {
+    interface Handle {
+        /**
+         * Stop delivering results, the scan itself may be cancelled.
+         */
+        void cancel();
+
+        /**
+         * @return Whether the scan is over.
+         */
+        boolean isDone();
+    }
+
+    private static final Handle CANCELLED = new Handle() {
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+    };
+
+    // Cancelled before the scan was attached, the scan is cancelled when it is
+    private static final Handle CANCELLING = new Handle() {
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public boolean isDone() {
+            return false;
+        }
+    };
+
+    private final AtomicReference<Run> mRun = new AtomicReference<>();
+
+    /**
+     * @return New run to start the scan in, or null if a scan is already starting or running.
+     */
+    Run claim() {
+        while (true) {
+            Run current = mRun.get();
+            if ((current != null) && (!current.isDone())) {
+                return null;
+            }
+            Run run = new Run();
+            if (mRun.compareAndSet(current, run)) {
+                return run;
+            }
+        }
+    }
+
+    /**
+     * Cancel the current run, if any, whether its scan is attached yet or not.
+     *
+     * @return Whether there was a run to cancel.
+     */
+    boolean cancel() {
+        Run run = mRun.get();
+        if (run == null) {
+            return false;
+        }
+        run.cancel();
+        if (run.isDone()) {
+            mRun.compareAndSet(run, null);
+        }
+        return true;
+    }
+
+    static final class Run {
+        private final AtomicReference<Handle> mHandle = new AtomicReference<>();
+        private volatile boolean mCancelled;
+
+        /**
+         * Attach the scan started in this run, it is cancelled right away if the run already is.
+         */
+        void attach(Handle handle) {
+            if (!mHandle.compareAndSet(null, handle)) {
+                handle.cancel();
+                mHandle.set(CANCELLED);
+            }
+        }
+
+        /**
+         * The scan could not be started, nothing is ever attached to this run.
+         */
+        void abandon() {
+            mCancelled = true;
+            mHandle.set(CANCELLED);
+        }
+
+        /**
+         * Cancel the scan attached, if any, before the run is seen as done.
+         */
+        void cancel() {
+            mCancelled = true;
+            Handle handle = mHandle.get();
+            while ((handle != CANCELLED) && (handle != CANCELLING)) {
+                if (handle != null) {
+                    handle.cancel();
+                }
+                if (mHandle.compareAndSet(handle, (handle != null) ? CANCELLED : CANCELLING)) {
+                    return;
+                }
+                // Attached (or cancelled by another thread) in the meantime
+                handle = mHandle.get();
+            }
+        }
+
+        boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * @return Whether the run is cancelled or its scan is over, a run still being started is not.
+         */
+        boolean isDone() {
+            Handle handle = mHandle.get();
+            return (handle != null) && handle.isDone();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-process aggregate of the ScanMetrics of every scan, for export to whatever monitoring
+ * the app uses. Times are recorded in microseconds.
+ * Disabled by default, nothing is recorded until setEnabled(true).
+ */
+public final class ScanStats {
+    public static final String FETCH_TIME = "fetch.time.us";
+    public static final String FETCH_BYTES = "fetch.bytes";
+    public static final String PARSE_TIME = "parse.time.us";
+    public static final String PARSE_ACCEPTED = "parse.accepted";
+    public static final String PARSE_REJECTED = "parse.rejected";
+    public static final String LOOKUPS = "lookups";
+    public static final String MATCH_TIME = "match.time.us";
+    public static final String TOTAL_TIME = "total.time.us";
+
+    private static final String[] SOURCE_NAMES = { "none", "memory", "local", "not-modified", "network", "shared", "sketch" };
+
+    private static final Map<String, Histogram> sHistograms;
+    private static final AtomicLongArray sSources = new AtomicLongArray(SOURCE_NAMES.length);
+    private static volatile boolean sEnabled;
+
+    static {
+        Map<String, Histogram> histograms = new LinkedHashMap<>();
+        for (String name : new String[] { FETCH_TIME, FETCH_BYTES, PARSE_TIME, PARSE_ACCEPTED,
+                PARSE_REJECTED, LOOKUPS, MATCH_TIME, TOTAL_TIME }) {
+            histograms.put(name, new Histogram());
+        }
+        sHistograms = Collections.unmodifiableMap(histograms);
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Add the metrics of a scan to the aggregate, if enabled.
+     */
+    public static void record(ScanMetrics metrics) {
+        if ((!sEnabled) || (metrics == null)) {
+            return;
+        }
+        if ((metrics.SOURCE >= 0) && (metrics.SOURCE < SOURCE_NAMES.length)) {
+            sSources.incrementAndGet(metrics.SOURCE);
+        }
+        if (metrics.SOURCE != ScanMetrics.SOURCE_MEMORY) {
+            sHistograms.get(FETCH_TIME).record(micros(metrics.FETCH_TIME));
+            sHistograms.get(FETCH_BYTES).record(metrics.FETCH_BYTES);
+        }
+        if ((metrics.ACCEPTED > 0) || (metrics.REJECTED > 0)) {
+            sHistograms.get(PARSE_TIME).record(micros(metrics.PARSE_TIME));
+            sHistograms.get(PARSE_ACCEPTED).record(metrics.ACCEPTED);
+            sHistograms.get(PARSE_REJECTED).record(metrics.REJECTED);
+        }
+        sHistograms.get(LOOKUPS).record(metrics.LOOKUPS);
+        sHistograms.get(MATCH_TIME).record(micros(metrics.MATCH_TIME));
+        sHistograms.get(TOTAL_TIME).record(micros(metrics.TOTAL_TIME));
+    }
+
+    /**
+     * @param name One of the names declared here, eg. TOTAL_TIME.
+     * @return The histogram, or null for an unknown name.
+     */
+    public static Histogram get(String name) {
+        return sHistograms.get(name);
+    }
+
+    /**
+     * @return Every histogram, by name.
+     */
+    public static Map<String, Histogram> getAll() {
+        return sHistograms;
+    }
+
+    /**
+     * @param source One of ScanMetrics.SOURCE_*.
+     * @return Number of scans whose pirate list came from the given source.
+     */
+    public static long getSourceCount(int source) {
+        return ((source >= 0) && (source < SOURCE_NAMES.length)) ? sSources.get(source) : 0;
+    }
+
+    /**
+     * @return One line per histogram (count, sum, p50, p90, p99, max) and per source.
+     */
+    public static String export() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Histogram> entry : sHistograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            builder.append(entry.getKey())
+                    .append(" count=").append(histogram.getCount())
+                    .append(" sum=").append(histogram.getSum())
+                    .append(" p50=").append(histogram.getPercentile(50))
+                    .append(" p90=").append(histogram.getPercentile(90))
+                    .append(" p99=").append(histogram.getPercentile(99))
+                    .append(" max=").append(histogram.getMax())
+                    .append('\n');
+        }
+        for (int i = 0; i < SOURCE_NAMES.length; i++) {
+            builder.append("source.").append(SOURCE_NAMES[i]).append(" count=").append(sSources.get(i)).append('\n');
+        }
+        return builder.toString();
+    }
+
+    public static void reset() {
+        for (Histogram histogram : sHistograms.values()) {
+            histogram.reset();
+        }
+        for (int i = 0; i < SOURCE_NAMES.length; i++) {
+            sSources.set(i, 0);
+        }
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private ScanStats(){}
+}
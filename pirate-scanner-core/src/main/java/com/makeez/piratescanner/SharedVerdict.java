@@ -0,0 +1,309 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Latest scan verdict, published to a small memory-mapped file so that every process of an app
+ * can reuse it instead of scanning again. Along with the pirates found, the verdict holds what
+ * it depends on: the version of the pirate list, the fingerprint of the installed packages and
+ * a key of the scan settings.
+ *
+ * Reads take no lock: the verdict is copied out between two reads of a sequence number, which is
+ * odd while a verdict is being written, and checked against its checksum. Only one process at a
+ * time holds the right to refresh the verdict, through a lock on the file.
+ *
+ * Layout (big-endian): magic, sequence, list version, fingerprint, settings, published at,
+ * payload length, checksum, then the payload (pirate count and pirates).
+ */
+public final class SharedVerdict {
+    private static final int MAGIC = 0x50535231; // PSR1
+    private static final int HEADER_SIZE = 48;
+    private static final int SEQUENCE = 4;
+    private static final int LENGTH = 40;
+    private static final int CHECKSUM = 44;
+    private static final int READ_ATTEMPTS = 100;
+
+    /**
+     * Size of the file, verdicts that do not fit are not published.
+     */
+    public static final int CAPACITY = 64 * 1024;
+
+    public static final class Verdict {
+        /**
+         * Version of the pirate list the verdict was reached with, eg. its checksum.
+         */
+        public final long LIST_VERSION;
+        /**
+         * Fingerprint of the installed packages the verdict was reached with.
+         */
+        public final long FINGERPRINT;
+        /**
+         * Key of the scan settings (filters, custom pirates, detectors) the verdict was reached with.
+         */
+        public final long SETTINGS;
+        /**
+         * When the verdict was published, in milliseconds since the epoch.
+         */
+        public final long PUBLISHED_AT;
+        /**
+         * Pirates found, or null if none was found.
+         */
+        public final List<Pirate> PIRATES;
+
+        Verdict(long listVersion, long fingerprint, long settings, long publishedAt, List<Pirate> pirates) {
+            LIST_VERSION = listVersion;
+            FINGERPRINT = fingerprint;
+            SETTINGS = settings;
+            PUBLISHED_AT = publishedAt;
+            PIRATES = pirates;
+        }
+    }
+
+    private final File mFile;
+    private final ReentrantLock mProcessLock = new ReentrantLock();
+    private RandomAccessFile mRaf;
+    private MappedByteBuffer mBuffer;
+    private FileLock mFileLock;
+
+    /**
+     * @param file File where the verdict is shared, one instance per file in each process.
+     */
+    public SharedVerdict(File file) {
+        if (file == null) {
+            throw new NullPointerException("File must not be null.");
+        }
+        mFile = file;
+    }
+
+    /**
+     * @return Latest verdict published by any process, or null if there is none (or it is being
+     * written over and over again).
+     */
+    public Verdict read() {
+        ByteBuffer buffer;
+        try {
+            buffer = buffer();
+        } catch (IOException e) {
+            return null;
+        }
+        byte[] copy = null;
+        for (int attempt = 0; attempt < READ_ATTEMPTS; attempt++) {
+            int before = buffer.getInt(SEQUENCE);
+            if ((buffer.getInt(0) != MAGIC) || (before == 0)) {
+                return null;
+            }
+            if ((before & 1) == 0) {
+                int length = buffer.getInt(LENGTH);
+                if ((length >= 0) && (length <= CAPACITY - HEADER_SIZE)) {
+                    // Sized to the verdict rather than the whole file, reused unless it grew meanwhile
+                    if ((copy == null) || (copy.length < HEADER_SIZE + length)) {
+                        copy = new byte[HEADER_SIZE + length];
+                    }
+                    ByteBuffer view = buffer.duplicate();
+                    view.position(0);
+                    view.get(copy, 0, HEADER_SIZE + length);
+                    if ((buffer.getInt(SEQUENCE) == before) && (checksum(copy, length) == getInt(copy, CHECKSUM))) {
+                        return decode(copy, length);
+                    }
+                }
+            }
+            // Being written, try again once the writer is done
+            Thread.yield();
+        }
+        return null;
+    }
+
+    /**
+     * Wait for the right to refresh the verdict, held by one process at a time. Other processes
+     * may have published a verdict by the time it is acquired.
+     *
+     * @throws IOException If the file cannot be locked.
+     */
+    public void acquire() throws IOException {
+        mProcessLock.lock();
+        if (mProcessLock.getHoldCount() > 1) {
+            return;
+        }
+        try {
+            mFileLock = channel().lock();
+        } catch (IOException | RuntimeException e) {
+            mProcessLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * @return True if the right to refresh the verdict is acquired, false if another process
+     * (or thread) holds it.
+     */
+    public boolean tryAcquire() throws IOException {
+        if (!mProcessLock.tryLock()) {
+            return false;
+        }
+        if (mProcessLock.getHoldCount() > 1) {
+            return true;
+        }
+        try {
+            mFileLock = channel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held through another instance in this process
+            mFileLock = null;
+        } catch (IOException | RuntimeException e) {
+            mProcessLock.unlock();
+            throw e;
+        }
+        if (mFileLock == null) {
+            mProcessLock.unlock();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Give up the right to refresh the verdict, acquired by this thread.
+     */
+    public void release() {
+        if (!mProcessLock.isHeldByCurrentThread()) {
+            return;
+        }
+        try {
+            if ((mProcessLock.getHoldCount() == 1) && (mFileLock != null)) {
+                mFileLock.release();
+            }
+        } catch (IOException e) {
+            // Released anyway once the channel is closed
+        } finally {
+            if (mProcessLock.getHoldCount() == 1) {
+                mFileLock = null;
+            }
+            mProcessLock.unlock();
+        }
+    }
+
+    /**
+     * Publish a verdict to every process, the right to refresh it must be held.
+     *
+     * @param listVersion Version of the pirate list, eg. its checksum.
+     * @param fingerprint Fingerprint of the installed packages.
+     * @param settings    Key of the scan settings.
+     * @param publishedAt Time of the verdict, in milliseconds since the epoch.
+     * @param pirates     Pirates found, or null if none was found.
+     * @return False if the verdict does not fit in CAPACITY.
+     */
+    public boolean publish(long listVersion, long fingerprint, long settings, long publishedAt,
+                           List<Pirate> pirates) throws IOException {
+        if (!mProcessLock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("Right to refresh the verdict is not held.");
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeInt((pirates != null) ? pirates.size() : 0);
+        if (pirates != null) {
+            for (Pirate pirate : pirates) {
+                VerdictCache.writePirate(dos, pirate);
+            }
+        }
+        dos.close();
+        byte[] payload = bos.toByteArray();
+        if (payload.length > CAPACITY - HEADER_SIZE) {
+            return false;
+        }
+        byte[] record = new byte[HEADER_SIZE + payload.length];
+        ByteBuffer.wrap(record).putInt(MAGIC).putInt(0).putLong(listVersion).putLong(fingerprint)
+                .putLong(settings).putLong(publishedAt).putInt(payload.length);
+        System.arraycopy(payload, 0, record, HEADER_SIZE, payload.length);
+        int checksum = checksum(record, payload.length);
+
+        MappedByteBuffer buffer = buffer();
+        // Odd while written, a writer that died half way leaves it odd until the next one
+        int sequence = buffer.getInt(SEQUENCE) | 1;
+        buffer.putInt(SEQUENCE, sequence);
+        ByteBuffer view = buffer.duplicate();
+        view.position(SEQUENCE + 4);
+        view.put(record, SEQUENCE + 4, record.length - SEQUENCE - 4);
+        buffer.putInt(CHECKSUM, checksum);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(SEQUENCE, sequence + 1);
+        return true;
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        if ((mRaf == null) || (!mRaf.getChannel().isOpen())) {
+            // An interrupted lock() closes the channel, the mapping outlives it
+            mRaf = new RandomAccessFile(mFile, "rw");
+        }
+        return mRaf.getChannel();
+    }
+
+    private synchronized MappedByteBuffer buffer() throws IOException {
+        if (mBuffer == null) {
+            FileChannel channel = channel();
+            if (channel.size() < CAPACITY) {
+                mRaf.setLength(CAPACITY);
+            }
+            mBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, CAPACITY);
+        }
+        return mBuffer;
+    }
+
+    private static int checksum(byte[] record, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(record, SEQUENCE + 4, LENGTH + 4 - SEQUENCE - 4);
+        crc.update(record, HEADER_SIZE, length);
+        return (int) crc.getValue();
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return ByteBuffer.wrap(bytes).getInt(offset);
+    }
+
+    private static Verdict decode(byte[] record, int length) {
+        ByteBuffer header = ByteBuffer.wrap(record);
+        try {
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(record, HEADER_SIZE, length));
+            int count = dis.readInt();
+            List<Pirate> pirates = null;
+            if (count > 0) {
+                pirates = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    pirates.add(VerdictCache.readPirate(dis));
+                }
+                pirates = Collections.unmodifiableList(pirates);
+            }
+            return new Verdict(header.getLong(8), header.getLong(16), header.getLong(24), header.getLong(32), pirates);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
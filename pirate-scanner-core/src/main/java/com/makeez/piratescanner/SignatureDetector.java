@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Detects packages signed with a known certificate, whatever they are named.
+ */
+public final class SignatureDetector extends KeyedDetector {
+    /**
+     * @param digest SHA-256 digest of the signing certificate, as hex, colons allowed
+     *               (eg. as printed by keytool).
+     * @param pirate Pirate reported for packages signed with this certificate.
+     */
+    @Override
+    public synchronized void add(String digest, Pirate pirate) {
+        super.add(digest, pirate);
+    }
+
+    @Override
+    Collection<String> keysOf(String packageName, PackageFacts facts) {
+        return facts.getSignatureDigests(packageName);
+    }
+
+    @Override
+    String normalise(String digest) {
+        return digest.replace(":", "").toLowerCase(Locale.US);
+    }
+}
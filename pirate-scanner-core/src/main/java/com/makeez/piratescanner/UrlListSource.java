@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Pirate list downloaded from a url, revalidated once its local copy is older than its own max age.
+ * The local copy is kept in the given directory, named after the url.
+ */
+public final class UrlListSource implements ListSource {
+    private final String mUrl;
+    private final long mMaxAge;
+    private final ListFile mLocal;
+    private final File mValidators;
+    private int mConnectTimeout = ListFetcher.DEFAULT_CONNECT_TIMEOUT;
+    private int mReadTimeout = ListFetcher.DEFAULT_READ_TIMEOUT;
+
+    /**
+     * @param url       Where the list is downloaded from.
+     * @param maxAge    Milliseconds the local copy stays fresh after it was (re)validated, 0 to always revalidate.
+     * @param directory Where the local copy is kept, eg. Context.getFilesDir().
+     */
+    public UrlListSource(String url, long maxAge, File directory) {
+        if ((url == null) || (directory == null)) {
+            throw new NullPointerException("Url and directory must not be null.");
+        }
+        CRC32 crc = new CRC32();
+        try {
+            crc.update(url.getBytes("UTF-8"));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        String name = "pirate-list-" + Long.toHexString(crc.getValue());
+        mUrl = url;
+        mMaxAge = Math.max(0, maxAge);
+        mLocal = new ListFile(new File(directory, name + ".json.gz"));
+        mValidators = new File(directory, name + ".meta");
+    }
+
+    /**
+     * @param connectTimeout Connect timeout, in milliseconds, 0 waits forever.
+     * @param readTimeout    Read timeout, in milliseconds, 0 waits forever.
+     */
+    public void setTimeouts(int connectTimeout, int readTimeout) {
+        mConnectTimeout = Math.max(0, connectTimeout);
+        mReadTimeout = Math.max(0, readTimeout);
+    }
+
+    @Override
+    public void refresh(final MetricsRecorder recorder) {
+        ListFetcher fetcher = new ListFetcher(mUrl, mValidators);
+        fetcher.setTimeouts(mConnectTimeout, mReadTimeout);
+        long start = System.nanoTime();
+        // One refresh of the local copy (and its validators) at a time
+        synchronized (mLocal) {
+            fetcher.fetch(mMaxAge, mLocal.exists(), new ListFetcher.Receiver() {
+                @Override
+                public boolean onBody(InputStream body) throws IOException {
+                    List<Pirate> list = PirateListParser.parse(body, recorder);
+                    if (list == null) {
+                        return false;
+                    }
+                    // Stored in canonical form, whatever the server sent
+                    OutputStream stream = mLocal.create();
+                    try {
+                        PirateListWriter.write(list, stream);
+                    } catch (IOException e) {
+                        stream.close();
+                        mLocal.discard();
+                        throw e;
+                    }
+                    stream.close();
+                    return mLocal.commit();
+                }
+            });
+        }
+        recorder.recordFetch(System.nanoTime() - start, fetcher.getBytesReceived());
+        if (fetcher.getError() != null) {
+            recorder.recordError(fetcher.getError());
+        }
+    }
+
+    @Override
+    public long fingerprint() {
+        return mLocal.verify() ? FileListSource.fingerprint(mLocal.getFile()) : 0;
+    }
+
+    @Override
+    public List<Pirate> load(MetricsRecorder recorder) throws IOException {
+        InputStream stream = mLocal.open();
+        try {
+            return PirateListParser.parse(stream, recorder);
+        } finally {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Verdicts of the package detectors, kept per package along with the version code and last
+ * update time they were reached for. The whole cache is dropped when the detectors change.
+ */
+final class VerdictCache {
+    private static final int MAGIC = 0x50535631; // PSV1
+
+    static final class Verdict {
+        final int mVersionCode;
+        final long mLastUpdateTime;
+        /**
+         * Pirate the package was detected as, null if it is clean.
+         */
+        final Pirate mPirate;
+
+        Verdict(int versionCode, long lastUpdateTime, Pirate pirate) {
+            mVersionCode = versionCode;
+            mLastUpdateTime = lastUpdateTime;
+            mPirate = pirate;
+        }
+    }
+
+    private final File mFile;
+    private final long mFingerprint;
+    private Map<String, Verdict> mVerdicts;
+    private boolean mChanged;
+
+    /**
+     * @param file        File where the verdicts are kept.
+     * @param fingerprint Fingerprint of the detectors, verdicts kept for other detectors are dropped.
+     */
+    VerdictCache(File file, long fingerprint) {
+        mFile = file;
+        mFingerprint = fingerprint;
+    }
+
+    /**
+     * @return Verdict reached for this very version of the package, or null if there is none.
+     */
+    Verdict get(PackageStamp stamp) {
+        Verdict verdict = verdicts().get(stamp.PACKAGE_NAME);
+        if ((verdict == null) || (verdict.mVersionCode != stamp.VERSION_CODE)
+                || (verdict.mLastUpdateTime != stamp.LAST_UPDATE_TIME)) {
+            return null;
+        }
+        return verdict;
+    }
+
+    void put(PackageStamp stamp, Pirate pirate) {
+        verdicts().put(stamp.PACKAGE_NAME, new Verdict(stamp.VERSION_CODE, stamp.LAST_UPDATE_TIME, pirate));
+        mChanged = true;
+    }
+
+    /**
+     * Forget the verdicts of packages that are no longer installed.
+     */
+    void retain(Set<String> packageNames) {
+        for (Iterator<String> it = verdicts().keySet().iterator(); it.hasNext(); ) {
+            if (!packageNames.contains(it.next())) {
+                it.remove();
+                mChanged = true;
+            }
+        }
+    }
+
+    int size() {
+        return verdicts().size();
+    }
+
+    /**
+     * Write the verdicts back to the file, if any changed since they were loaded.
+     */
+    void save() {
+        if (!mChanged) {
+            return;
+        }
+        File temp = new File(mFile.getPath() + ".tmp");
+        try {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                dos.writeInt(MAGIC);
+                dos.writeLong(mFingerprint);
+                dos.writeInt(mVerdicts.size());
+                for (Map.Entry<String, Verdict> entry : mVerdicts.entrySet()) {
+                    Verdict verdict = entry.getValue();
+                    dos.writeUTF(entry.getKey());
+                    dos.writeInt(verdict.mVersionCode);
+                    dos.writeLong(verdict.mLastUpdateTime);
+                    writePirate(dos, verdict.mPirate);
+                }
+            } finally {
+                dos.close();
+            }
+            if (temp.renameTo(mFile)) {
+                mChanged = false;
+            } else {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            temp.delete();
+        }
+    }
+
+    private Map<String, Verdict> verdicts() {
+        if (mVerdicts == null) {
+            mVerdicts = load();
+        }
+        return mVerdicts;
+    }
+
+    private Map<String, Verdict> load() {
+        Map<String, Verdict> verdicts = new HashMap<>();
+        if (!mFile.exists()) {
+            return verdicts;
+        }
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            try {
+                if ((dis.readInt() != MAGIC) || (dis.readLong() != mFingerprint)) {
+                    // Reached by other detectors, every package is inspected again
+                    mChanged = true;
+                    return verdicts;
+                }
+                for (int i = 0, j = dis.readInt(); i < j; i++) {
+                    String packageName = dis.readUTF();
+                    int versionCode = dis.readInt();
+                    long lastUpdateTime = dis.readLong();
+                    verdicts.put(packageName, new Verdict(versionCode, lastUpdateTime, readPirate(dis)));
+                }
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            // Unreadable verdicts, start over
+            verdicts.clear();
+            mChanged = true;
+        }
+        return verdicts;
+    }
+
+    static void writePirate(DataOutputStream dos, Pirate pirate) throws IOException {
+        dos.writeBoolean(pirate != null);
+        if (pirate == null) {
+            return;
+        }
+        dos.writeInt(pirate.ID);
+        dos.writeUTF((pirate.NAME != null) ? pirate.NAME : "");
+        String[] packages = (pirate.PACKAGES != null) ? pirate.PACKAGES : new String[0];
+        dos.writeInt(packages.length);
+        for (String packageName : packages) {
+            dos.writeUTF(packageName);
+        }
+        int[] filters = (pirate.FILTERS != null) ? pirate.FILTERS : new int[0];
+        dos.writeInt(filters.length);
+        for (int filter : filters) {
+            dos.writeInt(filter);
+        }
+    }
+
+    static Pirate readPirate(DataInputStream dis) throws IOException {
+        if (!dis.readBoolean()) {
+            return null;
+        }
+        int id = dis.readInt();
+        String name = dis.readUTF();
+        String[] packages = new String[dis.readInt()];
+        for (int i = 0; i < packages.length; i++) {
+            packages[i] = dis.readUTF();
+        }
+        int[] filters = new int[dis.readInt()];
+        for (int i = 0; i < filters.length; i++) {
+            filters[i] = dis.readInt();
+        }
+        return new Pirate(id, name, packages, filters);
+    }
+}
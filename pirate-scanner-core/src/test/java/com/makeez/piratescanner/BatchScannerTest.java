@@ -0,0 +1,139 @@
+package com.makeez.piratescanner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class BatchScannerTest {
+    private static final Pirate LUCKY_PATCHER = new Pirate(1, "Lucky Patcher",
+            new String[] { "com.dimonvideo.luckypatcher", "com.chelpus.*" },
+            new int[] { Filter.BYPASS_IAB, Filter.BYPASS_LICENSE_CHECK });
+    private static final Pirate ADAWAY = new Pirate(2, "AdAway",
+            new String[] { "org.adaway" },
+            new int[] { Filter.BLOCK_ADS });
+    private static final Pirate FREEDOM = new Pirate(3, "Freedom",
+            new String[] { "cc.madkite.freedom" },
+            new int[] { Filter.BYPASS_IAB });
+
+    private static final List<Pirate> PIRATES = Arrays.asList(LUCKY_PATCHER, ADAWAY, FREEDOM);
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = File.createTempFile("inventories", "");
+        mDir.delete();
+        assertTrue(mDir.mkdir());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void scan_countsDevicesPerPirate() throws Exception {
+        write("device-1.txt", "# farm device 1\ncom.android.chrome\norg.adaway\n\ncom.chelpus.lackypatch\n");
+        write("device-2.txt", "org.adaway\norg.adaway\n com.dimonvideo.luckypatcher \ncom.chelpus.clone\n");
+        write("device-3.txt", "com.android.chrome\ncom.google.android.gm\n");
+        writeGzip("device-4.txt.gz", "cc.madkite.freedom\norg.adaway\n");
+        List<File> inventories = BatchScanner.inventories(mDir);
+        inventories.add(new File(mDir, "missing.txt"));
+
+        CompiledPirateList list = CompiledPirateList.compile(PIRATES, 1);
+        BatchScanner.Result result = new BatchScanner(list.index()).scan(inventories, new ForkJoinPool(4));
+        assertEquals(4, result.DEVICES);
+        assertEquals(1, result.FAILED);
+        assertEquals(3, result.INFECTED);
+        assertEquals(11, result.PACKAGES);
+
+        List<String> names = new ArrayList<>();
+        List<Integer> hits = new ArrayList<>();
+        for (Map.Entry<Pirate, Integer> entry : result.HITS.entrySet()) {
+            names.add(entry.getKey().NAME);
+            hits.add(entry.getValue());
+        }
+        assertEquals(Arrays.asList("AdAway", "Lucky Patcher", "Freedom"), names);
+        assertEquals(Arrays.asList(3, 2, 1), hits);
+        assertTrue(result.getDevicesPerSecond() > 0);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        BatchScanner.write(result, bos);
+        assertEquals("3\tAdAway\n2\tLucky Patcher\n1\tFreedom\n", bos.toString("UTF-8"));
+    }
+
+    @Test
+    public void scan_honoursFilters() throws Exception {
+        write("device-1.txt", "org.adaway\ncom.chelpus.lackypatch\n");
+        CompiledPirateList list = CompiledPirateList.compile(PIRATES, 1);
+        BatchScanner.Result result = new BatchScanner(list.index(Filter.mask(Filter.BYPASS_LICENSE_CHECK)))
+                .scan(BatchScanner.inventories(mDir), new ForkJoinPool(2));
+        assertEquals(1, result.HITS.size());
+        assertEquals(Integer.valueOf(1), result.HITS.get(list.get(0)));
+    }
+
+    @Test
+    public void scan_parallelMatchesSequential() throws Exception {
+        int devices = 2000;
+        for (int i = 0; i < devices; i++) {
+            StringBuilder inventory = new StringBuilder();
+            for (int j = 0; j < 50; j++) {
+                inventory.append("com.example.app").append(j).append('\n');
+            }
+            if (i % 3 == 0) {
+                inventory.append("org.adaway\n");
+            }
+            if (i % 7 == 0) {
+                inventory.append("com.chelpus.v").append(i).append('\n');
+            }
+            write("device-" + i + ".txt", inventory.toString());
+        }
+        PirateIndex index = new HashPirateIndex(PIRATES, Filter.ALL);
+        List<File> inventories = BatchScanner.inventories(mDir);
+        BatchScanner.Result sequential = new BatchScanner(index).scan(inventories, new ForkJoinPool(1));
+        BatchScanner.Result parallel = new BatchScanner(index).scan(inventories, new ForkJoinPool(4));
+        assertEquals(devices, parallel.DEVICES);
+        assertEquals(sequential.HITS, parallel.HITS);
+        assertEquals(Integer.valueOf((devices + 2) / 3), parallel.HITS.get(ADAWAY));
+        assertEquals(Integer.valueOf((devices + 6) / 7), parallel.HITS.get(LUCKY_PATCHER));
+        assertEquals(sequential.INFECTED, parallel.INFECTED);
+    }
+
+    private void write(String name, String inventory) throws IOException {
+        OutputStream os = new FileOutputStream(new File(mDir, name));
+        try {
+            os.write(inventory.getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+    }
+
+    private void writeGzip(String name, String inventory) throws IOException {
+        OutputStream os = new GZIPOutputStream(new FileOutputStream(new File(mDir, name)));
+        try {
+            os.write(inventory.getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.makeez.piratescanner;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class CompiledPirateListTest {
+    private static final List<Pirate> PIRATES = Arrays.asList(
+            new Pirate("Lucky Patcher",
+                    new String[] { "com.dimonvideo.luckypatcher", "com.chelpus.lackypatch" },
+                    new int[] { Filter.BYPASS_IAB, Filter.BYPASS_LICENSE_CHECK }),
+            new Pirate("AdAway", new String[] { "org.adaway" }, new int[] { Filter.BLOCK_ADS }),
+            new Pirate("Lucky Patcher (clone)",
+                    new String[] { "com.chelpus.lackypatch" }, new int[] { Filter.BYPASS_IAB }));
+
+    @Test
+    public void write_thenLoad_roundTrips() throws Exception {
+        File file = File.createTempFile("pirate-app-list", ".bin");
+        try {
+            CompiledPirateList.write(file, PIRATES, 42L, 100L, 200L);
+            CompiledPirateList list = CompiledPirateList.load(file);
+            assertEquals(42L, list.getChecksum());
+            assertTrue(list.isCompiledFrom(100L, 200L));
+            assertFalse(list.isCompiledFrom(101L, 200L));
+            assertEquals(3, list.size());
+            Pirate pirate = list.get(0);
+            assertEquals("Lucky Patcher", pirate.NAME);
+            assertArrayEquals(PIRATES.get(0).PACKAGES, pirate.PACKAGES);
+            assertArrayEquals(PIRATES.get(0).FILTERS, pirate.FILTERS);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void load_failsOnCorruptedFile() throws Exception {
+        File file = File.createTempFile("pirate-app-list", ".bin");
+        try {
+            CompiledPirateList.write(file, PIRATES, 42L, 100L, 200L);
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                // Somewhere in the body, past the header
+                raf.seek(raf.length() / 2);
+                raf.writeInt(Integer.MAX_VALUE);
+            } finally {
+                raf.close();
+            }
+            try {
+                CompiledPirateList.load(file);
+                fail("Corruption must be noticed when loading");
+            } catch (IOException e) {
+                // Expected
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void writeAndLoad_mapsTheWrittenList() throws Exception {
+        File file = File.createTempFile("pirate-app-list", ".bin");
+        try {
+            MetricsRecorder recorder = new MetricsRecorder();
+            CompiledPirateList list = CompiledPirateList.writeAndLoad(file, PIRATES, 42L, 100L, 200L, recorder);
+            assertEquals(42L, list.getChecksum());
+            assertTrue(list.isCompiledFrom(100L, 200L));
+            assertNull(recorder.finish().ERROR);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void writeAndLoad_neverTakesAnOlderListForThisOne() throws Exception {
+        File file = File.createTempFile("pirate-app-list", ".bin");
+        // Cannot be written as a file, so neither can the index
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            CompiledPirateList.write(file, PIRATES.subList(0, 1), 41L, 90L, 190L);
+            assertTrue(temp.mkdir());
+
+            MetricsRecorder recorder = new MetricsRecorder();
+            CompiledPirateList list = CompiledPirateList.writeAndLoad(file, PIRATES, 42L, 100L, 200L, recorder);
+            assertEquals(42L, list.getChecksum());
+            assertEquals(3, list.size());
+            assertNotNull(recorder.finish().ERROR);
+            assertEquals(41L, CompiledPirateList.load(file).getChecksum());
+        } finally {
+            temp.delete();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void index_looksUpSharedPackages() throws Exception {
+        CompiledPirateList list = CompiledPirateList.compile(PIRATES, 0L);
+        PirateIndex index = list.index();
+        assertEquals(3, index.packageCount());
+        assertArrayEquals(new int[] { 0, 2 }, index.positionsOf("com.chelpus.lackypatch"));
+        assertNull(index.positionsOf("com.chelpus"));
+        assertNull(index.positionsOf("org.adaway.extra"));
+
+        PirateMatcher.Result result = PirateMatcher.match(index,
+                new HashSet<>(Arrays.asList("org.adaway", "com.example")));
+        assertEquals(1, result.PIRATES.size());
+        assertEquals("AdAway", result.PIRATES.get(0).NAME);
+    }
+
+    @Test
+    public void index_honoursFilters() throws Exception {
+        CompiledPirateList list = CompiledPirateList.compile(PIRATES, 0L);
+        PirateIndex index = list.index(Filter.mask(Filter.BYPASS_LICENSE_CHECK));
+        assertArrayEquals(new int[] { 0 }, index.positionsOf("com.chelpus.lackypatch"));
+        assertNull(index.positionsOf("org.adaway"));
+    }
+
+    @Test
+    public void index_touchesOnlyPartitionsOfFilters() throws Exception {
+        CompiledPirateList list = CompiledPirateList.compile(PIRATES, 0L);
+        PirateIndex index = list.index(Filter.mask(Filter.BLOCK_ADS));
+        assertEquals(1, index.packageCount());
+        assertEquals("org.adaway", index.packageAt(0));
+
+        index = list.index(Filter.mask(Filter.BLOCK_ADS) | Filter.mask(Filter.BYPASS_IAB));
+        assertEquals(3, index.packageCount());
+        assertArrayEquals(new int[] { 0, 2 }, index.positionsOf("com.chelpus.lackypatch"));
+        assertArrayEquals(new int[] { 1 }, index.positionsOf("org.adaway"));
+
+        index = list.index(Filter.mask(Filter.BYPASS_IAB) | Filter.mask(Filter.BYPASS_LICENSE_CHECK));
+        assertArrayEquals(new int[] { 0, 2 }, index.positionsOf("com.chelpus.lackypatch"));
+        assertEquals(0, list.index(Filter.mask(Filter.REMOVE_PERMISSION)).packageCount());
+    }
+
+    @Test
+    public void index_looksUpMainIndexOnceForEveryFilter() throws Exception {
+        List<Pirate> pirates = new ArrayList<>(PIRATES);
+        pirates.add(new Pirate("Unfiltered", new String[] { "org.adaway", "com.example.unfiltered" }, new int[0]));
+        CompiledPirateList list = CompiledPirateList.compile(pirates, 0L);
+        PirateIndex index = list.index(Filter.ALL);
+        // Main index, each package once rather than once per partition
+        assertEquals(4, index.packageCount());
+        assertArrayEquals(new int[] { 0, 2 }, index.positionsOf("com.chelpus.lackypatch"));
+        assertArrayEquals(new int[] { 1 }, index.positionsOf("org.adaway"));
+        assertNull(index.positionsOf("com.example.unfiltered"));
+
+        PirateMatcher.Result result = PirateMatcher.match(index,
+                new HashSet<>(Arrays.asList("com.example.unfiltered", "com.dimonvideo.luckypatcher")));
+        assertEquals(1, result.PIRATES.size());
+        assertEquals("Lucky Patcher", result.PIRATES.get(0).NAME);
+    }
+
+    @Test
+    public void get_materialisesOnce() throws Exception {
+        CompiledPirateList list = CompiledPirateList.compile(PIRATES, 0L);
+        assertSame(list.get(0), list.get(0));
+        assertSame(list.get(0), list.toList().get(0));
+        assertSame(list.get(0).PACKAGES[1], list.get(2).PACKAGES[0]);
+        assertEquals(3, list.toList().size());
+        try {
+            list.toList().add(list.get(0));
+            fail("View must be read-only");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void match_allocatesOnlyForMatches() throws Exception {
+        int entries = 100000;
+        List<Pirate> pirates = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            pirates.add(new Pirate("Pirate " + i, new String[] { "com.pirate.app" + i, "com.pirate.app" + i + ".pro" },
+                    new int[] { i % 4 + 1 }));
+        }
+        CompiledPirateList list = CompiledPirateList.compile(pirates, 0L);
+        Set<String> installed = new HashSet<>();
+        for (int i = 0; installed.size() < 200; i++) {
+            installed.add("com.example.app" + i);
+        }
+        installed.add("com.pirate.app500");
+        installed.add("com.pirate.app90000.pro");
+        // Load and warm up the classes involved on another list
+        PirateMatcher.match(CompiledPirateList.compile(PIRATES, 0L).index(Filter.ALL), installed);
+
+        long before = allocatedBytes();
+        PirateMatcher.Result result = PirateMatcher.match(list.index(Filter.ALL), installed);
+        List<Pirate> view = list.toList();
+        int size = view.size();
+        long lazy = allocatedBytes() - before;
+
+        assertEquals(entries, size);
+        assertEquals(2, result.PIRATES.size());
+        assertSame(list.get(500), result.PIRATES.get(0));
+        assertSame(list.get(90000), result.PIRATES.get(1));
+
+        before = allocatedBytes();
+        for (int i = 0; i < entries; i++) {
+            view.get(i);
+        }
+        long eager = allocatedBytes() - before;
+        // A match flag per pirate, nothing else per entry
+        assertTrue("lazy " + lazy, lazy < entries + 64 * 1024);
+        assertTrue("eager " + eager, eager > 100 * lazy);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,64 @@
+package com.makeez.piratescanner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class HitCounterTest {
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("pirate-hits", ".bin");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    @Test
+    public void top_mostHitFirst() throws Exception {
+        HitCounter hits = new HitCounter(mFile);
+        assertEquals(Collections.<String>emptyList(), hits.top(3));
+        hits.record("org.adaway");
+        hits.record("com.chelpus.lackypatch");
+        hits.record("com.chelpus.lackypatch");
+        hits.record("cc.madkite.freedom");
+        assertEquals(Arrays.asList("com.chelpus.lackypatch", "cc.madkite.freedom"), hits.top(2));
+        assertEquals(2, hits.get("com.chelpus.lackypatch"));
+        assertEquals(0, hits.get("com.example"));
+    }
+
+    @Test
+    public void save_survivesReload() throws Exception {
+        HitCounter hits = new HitCounter(mFile);
+        hits.record("org.adaway");
+        hits.save();
+        hits = new HitCounter(mFile);
+        hits.record("org.adaway");
+        hits.save();
+        assertEquals(2, new HitCounter(mFile).get("org.adaway"));
+    }
+
+    @Test
+    public void save_keepsMostHitOnly() throws Exception {
+        HitCounter hits = new HitCounter(mFile);
+        for (int i = 0; i < HitCounter.CAPACITY + 10; i++) {
+            hits.record("com.example.app" + i);
+        }
+        hits.record("org.adaway");
+        hits.record("org.adaway");
+        hits.save();
+        hits = new HitCounter(mFile);
+        assertEquals(Arrays.asList("org.adaway"), hits.top(1));
+        assertEquals(HitCounter.CAPACITY, hits.top(Integer.MAX_VALUE).size());
+    }
+}
@@ -0,0 +1,183 @@
+package com.makeez.piratescanner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class IncrementalScannerTest {
+    private static final List<Pirate> PIRATES = Arrays.asList(
+            new Pirate("Lucky Patcher", new String[] { "com.chelpus.lackypatch" },
+                    new int[] { Filter.BYPASS_IAB }),
+            new Pirate("AdAway", new String[] { "org.adaway" }, new int[] { Filter.BLOCK_ADS }));
+
+    private final FakePackageSource mSource = new FakePackageSource();
+    private PirateIndex mIndex;
+    private File mState;
+
+    @Before
+    public void setUp() throws Exception {
+        mIndex = CompiledPirateList.compile(PIRATES, 1L).index();
+        mState = File.createTempFile("pirate-scan-state", ".bin");
+        mState.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mState.delete();
+    }
+
+    @Test
+    public void scan_firstScanIsFull() throws Exception {
+        mSource.install("com.example", "org.adaway", "com.example.other");
+        IncrementalScanner.Result result = new IncrementalScanner(mState).scan(mIndex, 1L, mSource);
+        assertTrue(result.FULL_SCAN);
+        assertEquals(3, result.CHECKED);
+        assertEquals(set("org.adaway"), result.MATCHED);
+    }
+
+    @Test
+    public void scan_unchangedPackagesAreNotChecked() throws Exception {
+        mSource.install("com.example", "org.adaway");
+        new IncrementalScanner(mState).scan(mIndex, 1L, mSource);
+        IncrementalScanner.Result result = new IncrementalScanner(mState).scan(mIndex, 1L, mSource);
+        assertFalse(result.FULL_SCAN);
+        assertEquals(0, result.CHECKED);
+        assertEquals(set("org.adaway"), result.MATCHED);
+    }
+
+    @Test
+    public void scan_checksOnlyAddedPackages() throws Exception {
+        mSource.install("com.example", "org.adaway");
+        IncrementalScanner scanner = new IncrementalScanner(mState);
+        scanner.scan(mIndex, 1L, mSource);
+        mSource.uninstall("org.adaway");
+        mSource.install("com.chelpus.lackypatch", "com.example.new");
+        IncrementalScanner.Result result = scanner.scan(mIndex, 1L, mSource);
+        assertFalse(result.FULL_SCAN);
+        assertEquals(2, result.CHECKED);
+        assertEquals(set("com.chelpus.lackypatch"), result.MATCHED);
+    }
+
+    @Test
+    public void scan_keepsStateCompact() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            mSource.install("com.example.app" + i);
+        }
+        mSource.install("org.adaway");
+        IncrementalScanner scanner = new IncrementalScanner(mState);
+        scanner.scan(mIndex, 1L, mSource);
+        // A hash per installed package, names of the matches only
+        assertTrue("state " + mState.length(), mState.length() < 1001 * 8 + 64);
+
+        // Not written again while the installed packages stay the same
+        assertTrue(mState.setLastModified(0));
+        assertEquals(set("org.adaway"), scanner.scan(mIndex, 1L, mSource).MATCHED);
+        assertEquals(0, mState.lastModified());
+    }
+
+    @Test
+    public void scan_listChangeForcesFullScan() throws Exception {
+        mSource.install("com.example", "com.chelpus.lackypatch");
+        IncrementalScanner scanner = new IncrementalScanner(mState);
+        scanner.scan(mIndex, 1L, mSource);
+        IncrementalScanner.Result result = scanner.scan(mIndex, 2L, mSource);
+        assertTrue(result.FULL_SCAN);
+        assertEquals(set("com.chelpus.lackypatch"), result.MATCHED);
+    }
+
+    @Test
+    public void scan_failsWithoutPackages() throws Exception {
+        assertNull(new IncrementalScanner(mState).scan(mIndex, 1L, new PackageSource() {
+            @Override
+            public Set<String> getInstalledPackages() {
+                return null;
+            }
+        }));
+    }
+
+    @Test
+    public void scan_concurrentSavesNeverTearTheState() throws Exception {
+        final List<Throwable> failures = new ArrayList<>();
+        List<Thread> scans = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final FakePackageSource source = new FakePackageSource();
+            for (int i = 0; i < 200; i++) {
+                source.install("com.example.thread" + t + ".app" + i);
+            }
+            source.install((t % 2 == 0) ? "org.adaway" : "com.chelpus.lackypatch");
+            Thread scan = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 50; i++) {
+                            // Installed packages change every time, so the state is written every time
+                            source.install("com.example.new" + i);
+                            new IncrementalScanner(mState).scan(mIndex, 1L, source);
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            });
+            scan.start();
+            scans.add(scan);
+        }
+        for (Thread scan : scans) {
+            scan.join();
+        }
+        assertEquals(new ArrayList<Throwable>(), failures);
+
+        mSource.install("com.example", "org.adaway");
+        assertEquals(set("org.adaway"), new IncrementalScanner(mState).scan(mIndex, 1L, mSource).MATCHED);
+        String[] temps = mState.getAbsoluteFile().getParentFile().list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(mState.getName()) && name.endsWith(".tmp");
+            }
+        });
+        assertEquals(0, temps.length);
+    }
+
+    @Test
+    public void fingerprint_isOrderIndependent() throws Exception {
+        Set<String> a = new HashSet<>(Arrays.asList("a", "b", "c"));
+        Set<String> b = new TreeSet<>(Arrays.asList("c", "b", "a"));
+        assertEquals(IncrementalScanner.fingerprint(a), IncrementalScanner.fingerprint(b));
+        b.remove("c");
+        assertTrue(IncrementalScanner.fingerprint(a) != IncrementalScanner.fingerprint(b));
+    }
+
+    private static Set<String> set(String... packages) {
+        return new HashSet<>(Arrays.asList(packages));
+    }
+
+    private static final class FakePackageSource implements PackageSource {
+        private final Set<String> mPackages = new HashSet<>();
+
+        void install(String... packages) {
+            mPackages.addAll(Arrays.asList(packages));
+        }
+
+        void uninstall(String... packages) {
+            mPackages.removeAll(Arrays.asList(packages));
+        }
+
+        @Override
+        public Set<String> getInstalledPackages() {
+            return new HashSet<>(mPackages);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.makeez.piratescanner;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class ListDeltaTest {
+    private static final Pirate ADAWAY = new Pirate("AdAway", new String[] { "org.adaway" },
+            new int[] { Filter.BLOCK_ADS });
+    private static final Pirate LUCKY_PATCHER = new Pirate("Lucky Patcher",
+            new String[] { "com.chelpus.lackypatch" }, new int[] { Filter.BYPASS_IAB });
+    private static final Pirate LUCKY_PATCHER_2 = new Pirate("Lucky Patcher",
+            new String[] { "com.chelpus.lackypatch", "com.dimonvideo.luckypatcher" },
+            new int[] { Filter.BYPASS_IAB, Filter.BYPASS_LICENSE_CHECK });
+    private static final Pirate FREEDOM = new Pirate("Freedom", new String[] { "cc.madkite.freedom" },
+            new int[] { Filter.BYPASS_IAB });
+
+    private static final List<Pirate> V1 = Arrays.asList(ADAWAY, LUCKY_PATCHER, FREEDOM);
+
+    @Test
+    public void apply_modifiesInPlaceAndAppends() throws Exception {
+        ListDelta delta = new ListDelta(1, 2, 0, Arrays.asList(FREEDOM), Arrays.asList(LUCKY_PATCHER_2),
+                Arrays.asList("AdAway", "Freedom"));
+        assertEquals(Arrays.asList(LUCKY_PATCHER_2, FREEDOM), delta.apply(V1));
+    }
+
+    @Test
+    public void apply_rejectsDeltaForAnotherList() throws Exception {
+        assertNotApplicable(new ListDelta(1, 2, 0, Collections.<Pirate>emptyList(),
+                Collections.<Pirate>emptyList(), Arrays.asList("Uret Patcher")));
+        assertNotApplicable(new ListDelta(1, 2, 0, Collections.<Pirate>emptyList(),
+                Arrays.asList(new Pirate("Uret Patcher", new String[0], new int[0])),
+                Collections.<String>emptyList()));
+        assertNotApplicable(new ListDelta(1, 2, 0, Arrays.asList(ADAWAY),
+                Collections.<Pirate>emptyList(), Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void write_roundTripsThroughParser() throws Exception {
+        Pirate odd = new Pirate("Quote \" slash \\ tab \t caf\u00e9", new String[] { "a.b" }, new int[0]);
+        List<Pirate> pirates = Arrays.asList(ADAWAY, odd);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        PirateListWriter.write(pirates, bos);
+        List<Pirate> parsed = PirateListParser.parse(new ByteArrayInputStream(bos.toByteArray()));
+        assertEquals(2, parsed.size());
+        assertEquals(odd.NAME, parsed.get(1).NAME);
+        assertArrayEquals(ADAWAY.FILTERS, parsed.get(0).FILTERS);
+
+        CRC32 crc = new CRC32();
+        crc.update(bos.toByteArray());
+        assertEquals(crc.getValue(), PirateListWriter.checksum(pirates));
+        assertEquals(PirateListWriter.checksum(pirates), PirateListWriter.checksum(parsed));
+    }
+
+    @Test
+    public void parseDeltas_readsChain() throws Exception {
+        List<ListDelta> deltas = new PirateListParser(stream("{\"server\":{\"a\":1},\"deltas\":[\n"
+                + " {\"from\": 1, \"to\": 2, \"checksum\": \"ffffffff\", \"added\": [],"
+                + "  \"modified\": [{\"name\":\"AdAway\",\"packages\":[\"org.adaway\"],\"filters\":[1]}],"
+                + "  \"removed\": [\"Freedom\"]},\n"
+                + " {\"to\":3,\"from\":2,\"checksum\":\"0\"}]}")).parseDeltas();
+        assertEquals(2, deltas.size());
+        assertEquals(1, deltas.get(0).FROM);
+        assertEquals(0xffffffffL, deltas.get(0).CHECKSUM);
+        assertEquals("AdAway", deltas.get(0).MODIFIED.get(0).NAME);
+        assertEquals(Arrays.asList("Freedom"), deltas.get(0).REMOVED);
+        assertEquals(3, deltas.get(1).TO);
+        assertTrue(deltas.get(1).ADDED.isEmpty());
+    }
+
+    @Test
+    public void parseDeltas_rejectsCorruptedDelta() throws Exception {
+        assertInvalid("{\"deltas\":[{\"from\":1,\"to\":2,\"checksum\":\"0\",\"added\":[{\"name\":1}]}]}");
+        assertInvalid("{\"deltas\":[{\"from\":1,\"to\":2}]}");
+        assertInvalid("{\"deltas\":[{\"from\":-1,\"to\":2,\"checksum\":\"0\"}]}");
+        assertInvalid("{\"deltas\":[{\"from\":1,\"to\":2,\"checksum\":\"0\"}");
+    }
+
+    private static void assertNotApplicable(ListDelta delta) {
+        try {
+            delta.apply(V1);
+            fail("Applied to a list it does not fit");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static void assertInvalid(String json) throws Exception {
+        try {
+            new PirateListParser(stream(json)).parseDeltas();
+            fail("Parsed " + json);
+        } catch (IOException expected) {
+        }
+    }
+
+    private static ByteArrayInputStream stream(String json) throws Exception {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+}
@@ -0,0 +1,137 @@
+package com.makeez.piratescanner;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ListFetcherTest {
+    private static final String JSON
+            = "[{\"name\":\"AdAway\",\"packages\":[\"org.adaway\"],\"filters\":[1]}]";
+    private static final String ETAG = "\"v1\"";
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicInteger mDownloads = new AtomicInteger();
+    private HttpServer mServer;
+    private File mValidators;
+    private String mUrl;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/list.json", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mRequests.incrementAndGet();
+                if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    mDownloads.incrementAndGet();
+                    byte[] body = JSON.getBytes("UTF-8");
+                    exchange.getResponseHeaders().set("ETag", ETAG);
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream os = exchange.getResponseBody();
+                    os.write(body);
+                    os.close();
+                }
+                exchange.close();
+            }
+        });
+        mServer.start();
+        mUrl = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/list.json";
+        mValidators = File.createTempFile("pirate-app-list", ".meta");
+        mValidators.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.stop(0);
+        mValidators.delete();
+    }
+
+    @Test
+    public void fetch_revalidatesWithETag() throws Exception {
+        ListFetcher fetcher = new ListFetcher(mUrl, mValidators);
+        Body body = new Body(true);
+        assertEquals(ListFetcher.MODIFIED, fetcher.fetch(0, false, body));
+        assertEquals(JSON, body.mJson);
+
+        body = new Body(true);
+        assertEquals(ListFetcher.NOT_MODIFIED, fetcher.fetch(0, true, body));
+        assertNull(body.mJson);
+        assertEquals(2, mRequests.get());
+        assertEquals(1, mDownloads.get());
+    }
+
+    @Test
+    public void fetch_forgetsRejectedBody() throws Exception {
+        ListFetcher fetcher = new ListFetcher(mUrl, mValidators);
+        assertEquals(ListFetcher.FAILED, fetcher.fetch(0, false, new Body(false)));
+        assertEquals(ListFetcher.MODIFIED, fetcher.fetch(0, true, new Body(true)));
+        assertEquals(2, mDownloads.get());
+    }
+
+    @Test
+    public void fetch_skipsNetworkWhileFresh() throws Exception {
+        ListFetcher fetcher = new ListFetcher(mUrl, mValidators);
+        assertEquals(ListFetcher.MODIFIED, fetcher.fetch(60000, true, new Body(true)));
+        assertEquals(ListFetcher.FRESH, fetcher.fetch(60000, true, new Body(true)));
+        assertEquals(1, mRequests.get());
+    }
+
+    @Test
+    public void fetch_downloadsWithoutLocalCopy() throws Exception {
+        ListFetcher fetcher = new ListFetcher(mUrl, mValidators);
+        fetcher.fetch(0, false, new Body(true));
+        assertEquals(ListFetcher.MODIFIED, fetcher.fetch(60000, false, new Body(true)));
+        assertEquals(2, mDownloads.get());
+    }
+
+    @Test
+    public void fetch_failsOnServerError() throws Exception {
+        ListFetcher fetcher = new ListFetcher(mUrl.replace("list.json", "missing.json"), mValidators);
+        assertEquals(ListFetcher.FAILED, fetcher.fetch(0, false, new Body(true)));
+        assertNull(fetcher.getError());
+    }
+
+    @Test
+    public void fetch_keepsErrorWhenUnreachable() throws Exception {
+        ListFetcher fetcher = new ListFetcher("http://127.0.0.1:1/list.json", mValidators);
+        assertEquals(ListFetcher.FAILED, fetcher.fetch(0, false, new Body(true)));
+        assertNotNull(fetcher.getError());
+    }
+
+    private static final class Body implements ListFetcher.Receiver {
+        private final boolean mAccept;
+        private String mJson;
+
+        Body(boolean accept) {
+            mAccept = accept;
+        }
+
+        @Override
+        public boolean onBody(InputStream body) throws IOException {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = body.read(buffer)) >= 0) {
+                bos.write(buffer, 0, read);
+            }
+            mJson = bos.toString("UTF-8");
+            return mAccept;
+        }
+    }
+}
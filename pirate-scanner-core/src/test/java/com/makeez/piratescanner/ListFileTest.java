@@ -0,0 +1,311 @@
+package com.makeez.piratescanner;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ListFileTest {
+    private static final int PIRATES = 5000;
+
+    private HttpServer mServer;
+    private byte[] mJson;
+    private volatile boolean mCompress = true;
+    private File mFile;
+    private File mValidators;
+    private String mUrl;
+
+    @Before
+    public void setUp() throws Exception {
+        List<Pirate> pirates = new ArrayList<>(PIRATES);
+        for (int i = 0; i < PIRATES; i++) {
+            pirates.add(new Pirate("Pirate " + i, new String[] { "com.pirate.app" + i, "com.pirate.app" + i + ".pro" },
+                    new int[] { Filter.BLOCK_ADS, Filter.BYPASS_IAB }));
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        PirateListWriter.write(pirates, bos);
+        mJson = bos.toByteArray();
+
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/list.json", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                byte[] body = mJson;
+                if (mCompress && (accept != null) && accept.contains("gzip")) {
+                    body = gzip(mJson);
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                os.close();
+                exchange.close();
+            }
+        });
+        mServer.start();
+        mUrl = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/list.json";
+        mFile = File.createTempFile("pirate-app-list", ".json.gz");
+        mValidators = new File(mFile.getPath() + ".meta");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.stop(0);
+        mFile.delete();
+        new File(mFile.getPath() + ".bak").delete();
+        mValidators.delete();
+    }
+
+    @Test
+    public void fetch_storesCompressedCopy() throws Exception {
+        ListFile local = new ListFile(mFile);
+        ListFetcher fetcher = new ListFetcher(mUrl, mValidators);
+        Save save = new Save(local);
+        assertEquals(ListFetcher.MODIFIED, fetcher.fetch(0, false, save));
+        assertEquals(mJson.length, save.mBytes);
+
+        long wire = fetcher.getBytesReceived();
+        long disk = mFile.length();
+        assertTrue("wire " + wire + " of " + mJson.length, wire * 4 < mJson.length);
+        assertTrue("disk " + disk + " of " + mJson.length, disk * 4 < mJson.length);
+
+        InputStream stream = local.open();
+        List<Pirate> pirates;
+        try {
+            pirates = PirateListParser.parse(stream);
+        } finally {
+            stream.close();
+        }
+        assertEquals(PIRATES, pirates.size());
+    }
+
+    @Test
+    public void fetch_acceptsUncompressedResponse() throws Exception {
+        mCompress = false;
+        ListFile local = new ListFile(mFile);
+        ListFetcher fetcher = new ListFetcher(mUrl, mValidators);
+        assertEquals(ListFetcher.MODIFIED, fetcher.fetch(0, false, new Save(local)));
+        assertEquals(mJson.length, fetcher.getBytesReceived());
+        assertTrue(mFile.length() * 4 < mJson.length);
+    }
+
+    @Test
+    public void open_readsUncompressedCopy() throws Exception {
+        FileOutputStream fos = new FileOutputStream(mFile);
+        try {
+            fos.write(mJson);
+        } finally {
+            fos.close();
+        }
+        InputStream stream = new ListFile(mFile).open();
+        try {
+            assertEquals(PIRATES, PirateListParser.parse(stream).size());
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void discard_keepsCurrentCopy() throws Exception {
+        ListFile local = new ListFile(mFile);
+        OutputStream os = local.create();
+        os.write(mJson);
+        os.close();
+        assertTrue(local.commit());
+        long length = mFile.length();
+
+        os = local.create();
+        os.write("[".getBytes("UTF-8"));
+        os.close();
+        local.discard();
+        assertEquals(length, mFile.length());
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void commit_keepsPreviousCopyAsBackup() throws Exception {
+        ListFile local = new ListFile(mFile);
+        write(local, "[]");
+        write(local, new String(mJson, "UTF-8"));
+        File backup = new File(mFile.getPath() + ".bak");
+        assertTrue(backup.exists());
+        assertEquals("[]", read(new ListFile(backup)));
+    }
+
+    @Test
+    public void commit_dropsIncompleteCopy() throws Exception {
+        ListFile local = new ListFile(mFile);
+        write(local, "[]");
+        OutputStream os = local.create();
+        os.write(mJson);
+        os.flush();
+        // Never closed, as if the process died mid-write
+        assertFalse(local.commit());
+        assertEquals("[]", read(local));
+    }
+
+    @Test
+    public void open_restoresBackupWhenCorrupted() throws Exception {
+        ListFile local = new ListFile(mFile);
+        write(local, "[]");
+        write(local, new String(mJson, "UTF-8"));
+        truncate(mFile);
+
+        local = new ListFile(mFile);
+        assertTrue(local.verify());
+        assertEquals("[]", read(local));
+    }
+
+    @Test(expected = IOException.class)
+    public void open_failsWithoutIntactCopy() throws Exception {
+        ListFile local = new ListFile(mFile);
+        write(local, new String(mJson, "UTF-8"));
+        truncate(mFile);
+        local = new ListFile(mFile);
+        assertFalse(local.verify());
+        local.open().close();
+    }
+
+    @Test
+    public void create_writersHoldingTheInstanceNeverInterleave() throws Exception {
+        final ListFile local = new ListFile(mFile);
+        final List<Throwable> failures = new ArrayList<>();
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final String json = "[" + t + "]";
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 50; i++) {
+                            synchronized (local) {
+                                write(local, json);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertEquals(new ArrayList<Throwable>(), failures);
+        assertTrue(read(local).matches("\\[[0-3]\\]"));
+    }
+
+    @Test
+    public void open_isNotHeldUpByWriters() throws Exception {
+        final ListFile local = new ListFile(mFile);
+        write(local, "[]");
+        final String[] read = new String[1];
+        synchronized (local) {
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        read[0] = read(local);
+                    } catch (IOException e) {
+                        read[0] = e.toString();
+                    }
+                }
+            });
+            reader.start();
+            reader.join(10000);
+        }
+        assertEquals("[]", read[0]);
+    }
+
+    private static void write(ListFile local, String json) throws IOException {
+        OutputStream os = local.create();
+        try {
+            os.write(json.getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+        assertTrue(local.commit());
+    }
+
+    private static String read(ListFile local) throws IOException {
+        InputStream stream = local.open();
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) >= 0) {
+                bos.write(buffer, 0, read);
+            }
+            return bos.toString("UTF-8");
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static void truncate(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() / 2);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        GZIPOutputStream gos = new GZIPOutputStream(bos);
+        gos.write(bytes);
+        gos.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Streams the (decompressed) body into the local copy.
+     */
+    private static final class Save implements ListFetcher.Receiver {
+        private final ListFile mLocal;
+        private long mBytes;
+
+        Save(ListFile local) {
+            mLocal = local;
+        }
+
+        @Override
+        public boolean onBody(InputStream body) throws IOException {
+            OutputStream os = mLocal.create();
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = body.read(buffer)) >= 0) {
+                    os.write(buffer, 0, read);
+                    mBytes += read;
+                }
+            } finally {
+                os.close();
+            }
+            return mLocal.commit();
+        }
+    }
+}
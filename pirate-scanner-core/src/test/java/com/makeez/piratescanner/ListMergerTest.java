@@ -0,0 +1,59 @@
+package com.makeez.piratescanner;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ListMergerTest {
+    private static final Pirate ADAWAY = new Pirate("AdAway", new String[] { "org.adaway" },
+            new int[] { Filter.BLOCK_ADS });
+    private static final Pirate LUCKY_PATCHER = new Pirate("Lucky Patcher",
+            new String[] { "com.chelpus.lackypatch" }, new int[] { Filter.BYPASS_IAB });
+    private static final Pirate IN_HOUSE_LUCKY_PATCHER = new Pirate(7, "Lucky Patcher",
+            new String[] { "com.dimonvideo.luckypatcher", "com.chelpus.lackypatch" },
+            new int[] { Filter.BYPASS_LICENSE_CHECK, Filter.BYPASS_IAB });
+    private static final Pirate FREEDOM = new Pirate("Freedom", new String[] { "cc.madkite.freedom" },
+            new int[] { Filter.BYPASS_IAB });
+
+    @Test
+    public void merge_unionsPiratesOfTheSameName() throws Exception {
+        List<Pirate> merged = ListMerger.merge(Arrays.asList(
+                Arrays.asList(ADAWAY, LUCKY_PATCHER),
+                Arrays.asList(IN_HOUSE_LUCKY_PATCHER, FREEDOM)));
+        assertEquals(3, merged.size());
+        assertSame(ADAWAY, merged.get(0));
+        assertSame(FREEDOM, merged.get(2));
+
+        Pirate luckyPatcher = merged.get(1);
+        assertEquals(-1, luckyPatcher.ID);
+        assertArrayEquals(new String[] { "com.chelpus.lackypatch", "com.dimonvideo.luckypatcher" },
+                luckyPatcher.PACKAGES);
+        assertArrayEquals(new int[] { Filter.BYPASS_IAB, Filter.BYPASS_LICENSE_CHECK }, luckyPatcher.FILTERS);
+        assertEquals(Filter.mask(Filter.BYPASS_IAB) | Filter.mask(Filter.BYPASS_LICENSE_CHECK),
+                luckyPatcher.FILTER_MASK);
+    }
+
+    @Test
+    public void merge_indexesSharedPackagesOnce() throws Exception {
+        Pirate alias = new Pirate("Lucky Patcher Mod", new String[] { "com.chelpus.lackypatch" },
+                new int[] { Filter.REMOVE_PERMISSION });
+        List<Pirate> merged = ListMerger.merge(Arrays.asList(
+                Arrays.asList(LUCKY_PATCHER), null, Arrays.asList(alias)));
+        assertEquals(Arrays.asList(LUCKY_PATCHER, alias), merged);
+
+        PirateIndex index = CompiledPirateList.compile(merged, 0).index();
+        assertEquals(1, index.packageCount());
+        assertEquals(2, index.positionsOf("com.chelpus.lackypatch").length);
+    }
+
+    @Test
+    public void merge_keepsSingleListAsIs() throws Exception {
+        List<Pirate> list = Arrays.asList(ADAWAY, LUCKY_PATCHER, FREEDOM);
+        assertEquals(list, ListMerger.merge(Collections.singletonList(list)));
+        assertTrue(ListMerger.merge(Collections.<List<Pirate>>emptyList()).isEmpty());
+    }
+}
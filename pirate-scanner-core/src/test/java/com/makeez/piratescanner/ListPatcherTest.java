@@ -0,0 +1,249 @@
+package com.makeez.piratescanner;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ListPatcherTest {
+    private static final Pirate ADAWAY = new Pirate("AdAway", new String[] { "org.adaway" },
+            new int[] { Filter.BLOCK_ADS });
+    private static final Pirate LUCKY_PATCHER = new Pirate("Lucky Patcher",
+            new String[] { "com.chelpus.lackypatch" }, new int[] { Filter.BYPASS_IAB });
+    private static final Pirate LUCKY_PATCHER_2 = new Pirate("Lucky Patcher",
+            new String[] { "com.chelpus.lackypatch", "com.dimonvideo.luckypatcher" },
+            new int[] { Filter.BYPASS_IAB, Filter.BYPASS_LICENSE_CHECK });
+    private static final Pirate FREEDOM = new Pirate("Freedom", new String[] { "cc.madkite.freedom" },
+            new int[] { Filter.BYPASS_IAB });
+    private static final Pirate URET = new Pirate("Uret Patcher", new String[] { "uret.jasi2169.patcher" },
+            new int[] { Filter.BYPASS_IAB, Filter.BYPASS_LICENSE_CHECK });
+
+    /**
+     * Snapshots by version, 1 to 3.
+     */
+    private static final List<List<Pirate>> SNAPSHOTS = Arrays.asList(
+            null,
+            Arrays.asList(ADAWAY, LUCKY_PATCHER, FREEDOM),
+            Arrays.asList(ADAWAY, LUCKY_PATCHER_2),
+            Arrays.asList(ADAWAY, LUCKY_PATCHER_2, URET));
+
+    private HttpServer mServer;
+    private volatile int mLatest = 1;
+    private volatile boolean mBrokenChain;
+    private volatile boolean mBadChecksum;
+    private volatile int mDeltaRequests;
+    private File mSource;
+    private ListFile mLocal;
+    private File mValidators;
+    private String mUrl;
+    private String mDeltaUrl;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/list.json", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                PirateListWriter.write(SNAPSHOTS.get(mLatest), bos);
+                respond(exchange, bos.toString("UTF-8"));
+            }
+        });
+        mServer.createContext("/deltas", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mDeltaRequests++;
+                String query = exchange.getRequestURI().getQuery();
+                int since = Integer.parseInt(query.substring(query.indexOf("since=") + 6));
+                if (since == mLatest) {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                StringBuilder json = new StringBuilder("{\"deltas\":[");
+                for (int from = mBrokenChain ? since + 1 : since; from < mLatest; from++) {
+                    if (json.charAt(json.length() - 1) != '[') {
+                        json.append(',');
+                    }
+                    json.append(delta(from));
+                }
+                respond(exchange, json.append("]}").toString());
+            }
+        });
+        mServer.start();
+        String base = "http://127.0.0.1:" + mServer.getAddress().getPort();
+        mUrl = base + "/list.json";
+        mDeltaUrl = base + "/deltas";
+        mSource = File.createTempFile("pirate-app-list", ".json");
+        mValidators = new File(mSource.getPath() + ".meta");
+        mLocal = new ListFile(mSource);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.stop(0);
+        mSource.delete();
+        mValidators.delete();
+    }
+
+    @Test
+    public void fetchDelta_patchesLocalCopy() throws Exception {
+        ListFetcher fetcher = new ListFetcher(mUrl, mValidators);
+        assertEquals(ListFetcher.FAILED, fetcher.fetchDelta(mDeltaUrl, 0, patcher(fetcher)));
+        assertEquals(0, mDeltaRequests);
+        assertEquals(ListFetcher.MODIFIED, fetcher.fetch(0, false, new Save()));
+        assertEquals(1, fetcher.getVersion());
+
+        mLatest = 3;
+        ListPatcher patcher = patcher(fetcher);
+        assertEquals(ListFetcher.MODIFIED, fetcher.fetchDelta(mDeltaUrl, 0, patcher));
+        assertEquals(3, fetcher.getVersion());
+        assertEquals(3, patcher.getList().size());
+        assertEquals(PirateListWriter.checksum(SNAPSHOTS.get(3)), patcher.getChecksum());
+        assertTrue(patcher.getBytes() > 0);
+        assertEquals(SNAPSHOTS.get(3).size(), PirateListParser.parse(mLocal.open()).size());
+        assertEquals(snapshot(3), read(mLocal));
+
+        assertEquals(ListFetcher.NOT_MODIFIED, fetcher.fetchDelta(mDeltaUrl, 0, patcher(fetcher)));
+        assertEquals(ListFetcher.FRESH, fetcher.fetchDelta(mDeltaUrl, 60000, patcher(fetcher)));
+        assertEquals(2, mDeltaRequests);
+    }
+
+    @Test
+    public void fetchDelta_refusesBrokenChain() throws Exception {
+        ListFetcher fetcher = new ListFetcher(mUrl, mValidators);
+        fetcher.fetch(0, false, new Save());
+        mLatest = 3;
+        mBrokenChain = true;
+        assertEquals(ListFetcher.FAILED, fetcher.fetchDelta(mDeltaUrl, 0, patcher(fetcher)));
+        assertEquals(1, fetcher.getVersion());
+        assertEquals(snapshot(1), read(mLocal));
+
+        // Falls back to a full download
+        assertEquals(ListFetcher.MODIFIED, fetcher.fetch(0, true, new Save()));
+        assertEquals(3, fetcher.getVersion());
+        assertEquals(snapshot(3), read(mLocal));
+    }
+
+    @Test
+    public void fetchDelta_refusesChecksumMismatch() throws Exception {
+        ListFetcher fetcher = new ListFetcher(mUrl, mValidators);
+        fetcher.fetch(0, false, new Save());
+        mLatest = 2;
+        mBadChecksum = true;
+        MetricsRecorder recorder = new MetricsRecorder();
+        assertEquals(ListFetcher.FAILED, fetcher.fetchDelta(mDeltaUrl, 0,
+                new ListPatcher(mLocal, fetcher.getVersion(), recorder)));
+        assertNotNull(recorder.finish().ERROR);
+        assertEquals(snapshot(1), read(mLocal));
+    }
+
+    private ListPatcher patcher(ListFetcher fetcher) {
+        return new ListPatcher(mLocal, fetcher.getVersion(), new MetricsRecorder());
+    }
+
+    private String delta(int from) throws IOException {
+        List<Pirate> before = SNAPSHOTS.get(from);
+        List<Pirate> after = SNAPSHOTS.get(from + 1);
+        List<Pirate> added = new ArrayList<>();
+        List<Pirate> modified = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (Pirate pirate : after) {
+            Pirate old = find(before, pirate.NAME);
+            if (old == null) {
+                added.add(pirate);
+            } else if (old != pirate) {
+                modified.add(pirate);
+            }
+        }
+        for (Pirate pirate : before) {
+            if (find(after, pirate.NAME) == null) {
+                removed.add("\"" + pirate.NAME + "\"");
+            }
+        }
+        long checksum = PirateListWriter.checksum(after) ^ (mBadChecksum ? 1 : 0);
+        return "{\"from\":" + from + ",\"to\":" + (from + 1) + ",\"checksum\":\"" + Long.toHexString(checksum)
+                + "\",\"added\":" + json(added) + ",\"modified\":" + json(modified)
+                + ",\"removed\":" + removed + "}";
+    }
+
+    private void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set(ListFetcher.VERSION_HEADER, String.valueOf(mLatest));
+        exchange.getResponseHeaders().set("ETag", "\"v" + mLatest + "\"");
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(bytes);
+        os.close();
+        exchange.close();
+    }
+
+    private static Pirate find(List<Pirate> pirates, String name) {
+        for (Pirate pirate : pirates) {
+            if (pirate.NAME.equals(name)) {
+                return pirate;
+            }
+        }
+        return null;
+    }
+
+    private static String json(List<Pirate> pirates) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        PirateListWriter.write(pirates, bos);
+        return bos.toString("UTF-8");
+    }
+
+    private static String snapshot(int version) throws IOException {
+        return json(SNAPSHOTS.get(version));
+    }
+
+    private static String read(ListFile file) throws IOException {
+        InputStream is = file.open();
+        try {
+            return new String(readFully(is), "UTF-8");
+        } finally {
+            is.close();
+        }
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = is.read(buffer)) >= 0) {
+            bos.write(buffer, 0, read);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Saves a full download as the local copy.
+     */
+    private final class Save implements ListFetcher.Receiver {
+        @Override
+        public boolean onBody(InputStream body) throws IOException {
+            OutputStream os = mLocal.create();
+            try {
+                os.write(readFully(body));
+            } finally {
+                os.close();
+            }
+            return mLocal.commit();
+        }
+    }
+}
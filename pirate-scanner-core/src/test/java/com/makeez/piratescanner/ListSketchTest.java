@@ -0,0 +1,171 @@
+package com.makeez.piratescanner;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class ListSketchTest {
+    private static final int PIRATES = 5000;
+    private static final int PROBES = 200000;
+
+    @Test
+    public void build_neverMissesListedPackages() throws Exception {
+        List<Pirate> pirates = pirates();
+        ListSketch sketch = ListSketch.build(pirates, 1L, ListSketch.DEFAULT_FALSE_POSITIVE_RATE, 0);
+        for (Pirate pirate : pirates) {
+            for (String packageName : pirate.PACKAGES) {
+                assertTrue(packageName, sketch.mightBeListed(packageName));
+            }
+        }
+        assertEquals(PIRATES * 2, sketch.getEntryCount());
+    }
+
+    @Test
+    public void build_meetsFalsePositiveRate() throws Exception {
+        for (double rate : new double[] { 0.01, 0.001 }) {
+            ListSketch sketch = ListSketch.build(pirates(), 1L, rate, 0);
+            double measured = falsePositiveRate(sketch);
+            assertTrue(measured + " > " + rate, measured < rate * 1.5);
+            assertEquals(rate, sketch.getFalsePositiveRate(), rate * 0.2);
+        }
+        // About 1.44 log2(1 / rate) bits per package name
+        int size = ListSketch.build(pirates(), 1L, 0.01, 0).getFilterSize();
+        assertTrue("size " + size, (size > PIRATES * 2 * 9 / 8) && (size < PIRATES * 2 * 10 / 8 + 8));
+    }
+
+    @Test
+    public void build_capsFilterSize() throws Exception {
+        ListSketch sketch = ListSketch.build(pirates(), 1L, 0.001, 4096);
+        assertEquals(4096, sketch.getFilterSize());
+        assertTrue(sketch.getFalsePositiveRate() > 0.001);
+        double measured = falsePositiveRate(sketch);
+        assertEquals(sketch.getFalsePositiveRate(), measured, sketch.getFalsePositiveRate() * 0.2);
+    }
+
+    @Test
+    public void mightBeListed_matchesPatterns() throws Exception {
+        List<Pirate> pirates = Arrays.asList(new Pirate("Lucky Patcher",
+                new String[] { "com.chelpus.*", "com.dimonvideo.luckypatcher" }, new int[] { Filter.BYPASS_IAB }));
+        ListSketch sketch = ListSketch.build(pirates, 1L, 0.001, 0);
+        assertTrue(sketch.mightBeListed("com.chelpus.lackypatch"));
+        assertTrue(sketch.mightBeListed("com.dimonvideo.luckypatcher"));
+        assertFalse(sketch.mightBeListed("com.example.app"));
+        assertEquals(1, sketch.getEntryCount());
+        assertEquals(Arrays.asList("com.chelpus.x"),
+                sketch.candidates(Arrays.asList("com.example.app", "com.chelpus.x", "org.example")));
+    }
+
+    @Test
+    public void candidates_ruleOutCleanDevices() throws Exception {
+        ListSketch sketch = ListSketch.build(pirates(), 1L, 0.0001, 0);
+        int ruledOut = 0;
+        for (int device = 0; device < 100; device++) {
+            List<String> installed = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                installed.add("com.vendor" + device + ".app" + i);
+            }
+            if (sketch.candidates(installed).isEmpty()) {
+                ruledOut++;
+            }
+        }
+        assertTrue(ruledOut + " of 100", ruledOut >= 90);
+        assertFalse(sketch.candidates(Arrays.asList("com.example.app", "com.pirate.app7.pro")).isEmpty());
+    }
+
+    @Test
+    public void write_readsBackTheSameSketch() throws Exception {
+        List<Pirate> pirates = new ArrayList<>(pirates());
+        pirates.add(new Pirate("Cloned", new String[] { "com.clone.*" }, new int[] { Filter.BLOCK_ADS }));
+        ListSketch sketch = ListSketch.build(pirates, 42L, 0.01, 0);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        sketch.write(bos);
+        assertTrue(bos.size() < sketch.getFilterSize() + 64);
+
+        ListSketch read = ListSketch.read(new ByteArrayInputStream(bos.toByteArray()));
+        assertEquals(42L, read.getVersion());
+        assertEquals(sketch.getEntryCount(), read.getEntryCount());
+        assertEquals(sketch.getHashCount(), read.getHashCount());
+        assertTrue(read.mightBeListed("com.clone.app"));
+        for (int i = 0; i < 10000; i++) {
+            String packageName = "com.example.app" + i;
+            assertEquals(sketch.mightBeListed(packageName), read.mightBeListed(packageName));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsOtherFiles() throws Exception {
+        ListSketch.read(new ByteArrayInputStream("[{\"name\":\"x\"}]".getBytes("UTF-8")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void build_rejectsImpossibleRate() throws Exception {
+        ListSketch.build(Collections.<Pirate>emptyList(), 1L, 1.0, 0);
+    }
+
+    @Test
+    public void main_generatesSketchVersionedByChecksum() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        PirateListWriter.write(pirates(), bos);
+        byte[] json = bos.toByteArray();
+        File list = File.createTempFile("pirate-app-list", ".json");
+        File out = new File(list.getPath() + ".sketch");
+        try {
+            OutputStream os = new FileOutputStream(list);
+            try {
+                os.write(json);
+            } finally {
+                os.close();
+            }
+            ListSketch.main(new String[] { "-rate", "0.01", "-size", "8192", list.getPath(), out.getPath() });
+
+            ListSketch sketch;
+            InputStream stream = new FileInputStream(out);
+            try {
+                sketch = ListSketch.read(stream);
+            } finally {
+                stream.close();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(json);
+            assertEquals(crc.getValue(), sketch.getVersion());
+            assertEquals(8192, sketch.getFilterSize());
+            assertTrue(sketch.mightBeListed("com.pirate.app0"));
+        } finally {
+            list.delete();
+            out.delete();
+        }
+    }
+
+    private static double falsePositiveRate(ListSketch sketch) {
+        int hits = 0;
+        for (int i = 0; i < PROBES; i++) {
+            if (sketch.mightBeListed("org.unlisted.app" + i)) {
+                hits++;
+            }
+        }
+        return (double) hits / PROBES;
+    }
+
+    private static List<Pirate> pirates() {
+        List<Pirate> pirates = new ArrayList<>(PIRATES);
+        for (int i = 0; i < PIRATES; i++) {
+            pirates.add(new Pirate("Pirate " + i, new String[] { "com.pirate.app" + i, "com.pirate.app" + i + ".pro" },
+                    new int[] { Filter.BLOCK_ADS, Filter.BYPASS_IAB }));
+        }
+        return pirates;
+    }
+}
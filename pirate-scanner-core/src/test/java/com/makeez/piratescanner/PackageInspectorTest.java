@@ -0,0 +1,185 @@
+package com.makeez.piratescanner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class PackageInspectorTest {
+    private static final Pirate LUCKY_PATCHER = new Pirate("Lucky Patcher",
+            new String[] { "com.chelpus.lackypatch" }, new int[] { Filter.BYPASS_IAB });
+    private static final Pirate BLACKMART = new Pirate("Blackmart", new String[] { "org.blackmart.market" },
+            new int[] { Filter.BYPASS_IAB, Filter.BYPASS_LICENSE_CHECK });
+    private static final String LUCKY_PATCHER_CERT = "AB:CD:EF:01";
+
+    private final Map<String, Integer> mReads = new HashMap<>();
+    private final PackageFacts mFacts = new PackageFacts() {
+        @Override
+        public String getInstaller(String packageName) {
+            return packageName.equals("com.example.cracked") ? "org.blackmart.market" : "com.android.vending";
+        }
+
+        @Override
+        public Set<String> getSignatureDigests(String packageName) {
+            Integer reads = mReads.get(packageName);
+            mReads.put(packageName, (reads != null) ? reads + 1 : 1);
+            return Collections.singleton(packageName.equals("com.example.repackaged") ? "abcdef01" : "12345678");
+        }
+    };
+
+    private File mCache;
+    private List<PackageDetector> mDetectors;
+
+    @Before
+    public void setUp() throws Exception {
+        mCache = File.createTempFile("pirate-verdicts", ".bin");
+        mCache.delete();
+        SignatureDetector signatures = new SignatureDetector();
+        signatures.add(LUCKY_PATCHER_CERT, LUCKY_PATCHER);
+        InstallerDetector installers = new InstallerDetector();
+        installers.add("org.blackmart.market", BLACKMART);
+        mDetectors = Arrays.<PackageDetector>asList(signatures, installers);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mCache.delete();
+    }
+
+    @Test
+    public void inspect_detectsBySignatureAndInstaller() throws Exception {
+        Map<String, Pirate> found = inspect(installed(1), Filter.ALL);
+        assertEquals(2, found.size());
+        assertSame(LUCKY_PATCHER, found.get("com.example.repackaged"));
+        assertSame(BLACKMART, found.get("com.example.cracked"));
+    }
+
+    @Test
+    public void inspect_onlyLooksIntoNewOrUpdatedPackages() throws Exception {
+        inspect(installed(1), Filter.ALL);
+        assertEquals(3, mReads.size());
+
+        mReads.clear();
+        Map<String, Pirate> found = inspect(installed(1), Filter.ALL);
+        assertTrue(mReads.isEmpty());
+        assertEquals("Lucky Patcher", found.get("com.example.repackaged").NAME);
+        assertEquals("Blackmart", found.get("com.example.cracked").NAME);
+
+        List<PackageStamp> updated = installed(1);
+        updated.set(0, new PackageStamp("com.example.clean", 2, 2L));
+        found = inspect(updated, Filter.ALL);
+        assertEquals(Collections.singleton("com.example.clean"), mReads.keySet());
+        assertEquals(2, found.size());
+    }
+
+    @Test
+    public void inspect_startsOverWhenDetectorsChange() throws Exception {
+        inspect(installed(1), Filter.ALL);
+        ((SignatureDetector) mDetectors.get(0)).add("00", LUCKY_PATCHER);
+        mReads.clear();
+        inspect(installed(1), Filter.ALL);
+        assertEquals(3, mReads.size());
+    }
+
+    @Test
+    public void inspect_honoursFiltersAndStops() throws Exception {
+        Map<String, Pirate> found = inspect(installed(1), Filter.mask(Filter.BYPASS_LICENSE_CHECK));
+        assertEquals(Collections.singleton("com.example.cracked"), found.keySet());
+
+        final List<Pirate> first = new ArrayList<>();
+        new PackageInspector(mDetectors, mCache).inspect(installed(1), mFacts, Filter.ALL,
+                new PirateMatcher.Listener() {
+                    @Override
+                    public boolean onMatch(Pirate pirate, String packageName) {
+                        first.add(pirate);
+                        return false;
+                    }
+                });
+        assertEquals(1, first.size());
+    }
+
+    @Test
+    public void inspect_stopsWhenInterrupted() throws Exception {
+        Thread.currentThread().interrupt();
+        try {
+            assertTrue(inspect(installed(1), Filter.ALL).isEmpty());
+            assertTrue(mReads.isEmpty());
+        } finally {
+            Thread.interrupted();
+        }
+        assertEquals(2, inspect(installed(1), Filter.ALL).size());
+    }
+
+    @Test
+    public void inspect_completesWhenDetectorThrows() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("Detector failed");
+        List<PackageDetector> detectors = new ArrayList<>();
+        detectors.add(new PackageDetector() {
+            @Override
+            public long fingerprint() {
+                return 1L;
+            }
+
+            @Override
+            public Pirate detect(String packageName, PackageFacts facts) {
+                throw failure;
+            }
+        });
+        detectors.addAll(mDetectors);
+        final Map<String, Pirate> found = new HashMap<>();
+        PackageInspector inspector = new PackageInspector(detectors, mCache);
+        assertEquals(3, inspector.inspect(installed(1), mFacts, Filter.ALL, new PirateMatcher.Listener() {
+            @Override
+            public boolean onMatch(Pirate pirate, String packageName) {
+                found.put(packageName, pirate);
+                return true;
+            }
+        }));
+        inspector.save();
+        assertSame(failure, inspector.getError());
+        assertSame(LUCKY_PATCHER, found.get("com.example.repackaged"));
+        assertSame(BLACKMART, found.get("com.example.cracked"));
+
+        // Nothing was cached, every package is looked into again
+        mReads.clear();
+        assertEquals(3, new PackageInspector(detectors, mCache).inspect(installed(1), mFacts, Filter.ALL,
+                new PirateMatcher.Listener() {
+                    @Override
+                    public boolean onMatch(Pirate pirate, String packageName) {
+                        return true;
+                    }
+                }));
+        assertEquals(3, mReads.size());
+    }
+
+    private Map<String, Pirate> inspect(List<PackageStamp> installed, int filterMask) {
+        final Map<String, Pirate> found = new HashMap<>();
+        PackageInspector inspector = new PackageInspector(mDetectors, mCache);
+        inspector.inspect(installed, mFacts, filterMask, new PirateMatcher.Listener() {
+            @Override
+            public boolean onMatch(Pirate pirate, String packageName) {
+                found.put(packageName, pirate);
+                return true;
+            }
+        });
+        inspector.save();
+        return found;
+    }
+
+    private static List<PackageStamp> installed(int version) {
+        return new ArrayList<>(Arrays.asList(
+                new PackageStamp("com.example.clean", version, version),
+                new PackageStamp("com.example.repackaged", version, version),
+                new PackageStamp("com.example.cracked", version, version)));
+    }
+}
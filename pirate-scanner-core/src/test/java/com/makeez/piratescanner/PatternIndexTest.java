@@ -0,0 +1,127 @@
+package com.makeez.piratescanner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class PatternIndexTest {
+    private static final Pirate LUCKY_PATCHER = new Pirate(1, "Lucky Patcher",
+            new String[] { "com.dimonvideo.luckypatcher", "com.chelpus.*" },
+            new int[] { Filter.BYPASS_IAB, Filter.BYPASS_LICENSE_CHECK });
+    private static final Pirate CLONER = new Pirate(2, "Cloner",
+            new String[] { "*.cloned.*.patch*" },
+            new int[] { Filter.REMOVE_PERMISSION });
+    private static final Pirate ADAWAY = new Pirate(3, "AdAway",
+            new String[] { "org.adaway" },
+            new int[] { Filter.BLOCK_ADS });
+
+    private static final List<Pirate> PIRATES = Arrays.asList(LUCKY_PATCHER, CLONER, ADAWAY);
+
+    @Test
+    public void positionsOf_matchesPrefixesAndGlobs() throws Exception {
+        PatternIndex patterns = new PatternIndex(
+                new String[] { "com.chelpus.*", "com.chelpus.lucky*", "*.cloned.*.patch*", "org.exact" },
+                new int[][] { { 0 }, { 4 }, { 1 }, { 2 } });
+        assertEquals(4, patterns.size());
+        assertArrayEquals(new int[] { 0 }, patterns.positionsOf("com.chelpus.lackypatch"));
+        assertArrayEquals(new int[] { 0 }, patterns.positionsOf("com.chelpus."));
+        assertArrayEquals(new int[] { 0, 4 }, patterns.positionsOf("com.chelpus.luckypatcher"));
+        assertArrayEquals(new int[] { 1 }, patterns.positionsOf("x.cloned.y.z.patcher"));
+        assertArrayEquals(new int[] { 1 }, patterns.positionsOf("a.cloned.b.patch"));
+        assertArrayEquals(new int[] { 2 }, patterns.positionsOf("org.exact"));
+        assertNull(patterns.positionsOf("com.chelpus"));
+        assertNull(patterns.positionsOf("org.exact.more"));
+        assertNull(patterns.positionsOf("a.cloned.b.pat"));
+        assertNull(patterns.positionsOf(""));
+        assertNull(patterns.positionsOf(null));
+    }
+
+    @Test
+    public void positionsOf_collapsesStars() throws Exception {
+        PatternIndex patterns = new PatternIndex(new String[] { "a**b", "*" }, new int[][] { { 3 }, { 5 } });
+        assertArrayEquals(new int[] { 3, 5 }, patterns.positionsOf("ab"));
+        assertArrayEquals(new int[] { 3, 5 }, patterns.positionsOf("axxbxb"));
+        assertArrayEquals(new int[] { 5 }, patterns.positionsOf("ba"));
+    }
+
+    @Test
+    public void match_findsPatternsInBothIndexes() throws Exception {
+        Set<String> installed = packages("org.adaway", "com.chelpus.lackypatch", "com.android.chrome");
+        PirateIndex hash = new HashPirateIndex(PIRATES, Filter.ALL);
+        assertEquals(Arrays.asList(LUCKY_PATCHER, ADAWAY), PirateMatcher.match(hash, installed).PIRATES);
+        PirateIndex compiled = CompiledPirateList.compile(PIRATES, 1).index(Filter.ALL);
+        assertEquals(Arrays.asList("Lucky Patcher", "AdAway"), names(PirateMatcher.match(compiled, installed).PIRATES));
+        assertTrue(PirateMatcher.isListed(compiled, "com.chelpus.anything"));
+        assertFalse(PirateMatcher.isListed(compiled, "com.chelpusx"));
+    }
+
+    @Test
+    public void match_honoursFiltersOfPatterns() throws Exception {
+        CompiledPirateList list = CompiledPirateList.compile(PIRATES, 1);
+        Set<String> installed = packages("com.chelpus.lackypatch", "a.cloned.b.patch");
+        assertNull(PirateMatcher.match(list.index(Filter.mask(Filter.BLOCK_ADS)), installed).PIRATES);
+        assertEquals(Arrays.asList("Cloner"),
+                names(PirateMatcher.match(list.index(Filter.mask(Filter.REMOVE_PERMISSION)), installed).PIRATES));
+        assertEquals(Arrays.asList("Lucky Patcher", "Cloner"), names(PirateMatcher.match(list.index(), installed).PIRATES));
+        assertSame(list.index().patterns(), list.index().patterns());
+    }
+
+    @Test
+    public void match_streamsPatternMatches() throws Exception {
+        PirateIndex index = new HashPirateIndex(PIRATES, Filter.ALL);
+        final List<String> packages = new ArrayList<>();
+        boolean[] found = new boolean[index.size()];
+        PirateMatcher.match(index, packages("com.chelpus.one", "com.chelpus.two"), found, new PirateMatcher.Listener() {
+            @Override
+            public boolean onMatch(Pirate pirate, String packageName) {
+                packages.add(packageName);
+                return true;
+            }
+        });
+        assertEquals(1, packages.size());
+        assertTrue(packages.get(0).startsWith("com.chelpus."));
+        assertTrue(found[0]);
+    }
+
+    @Test
+    public void positionsOf_handlesManyPatterns() throws Exception {
+        int count = 5000;
+        String[] patterns = new String[count];
+        int[][] positions = new int[count][];
+        for (int i = 0; i < count; i++) {
+            patterns[i] = "com.patcher" + i + ".*";
+            positions[i] = new int[] { i };
+        }
+        PatternIndex index = new PatternIndex(patterns, positions);
+        assertArrayEquals(new int[] { 42 }, index.positionsOf("com.patcher42.clone"));
+        assertArrayEquals(new int[] { 4242 }, index.positionsOf("com.patcher4242.clone"));
+        assertNull(index.positionsOf("com.patcher.clone"));
+
+        int hits = 0;
+        for (int i = 0; i < 20000; i++) {
+            if (index.positionsOf("com.example.app" + i) != null) {
+                hits++;
+            }
+        }
+        // Timings are measured by PatternBenchmark
+        assertEquals(0, hits);
+    }
+
+    private static List<String> names(List<Pirate> pirates) {
+        List<String> names = new ArrayList<>();
+        for (Pirate pirate : pirates) {
+            names.add(pirate.NAME);
+        }
+        return names;
+    }
+
+    private static Set<String> packages(String... packageNames) {
+        return new HashSet<>(Arrays.asList(packageNames));
+    }
+}
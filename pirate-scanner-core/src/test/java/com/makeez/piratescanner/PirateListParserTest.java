@@ -0,0 +1,128 @@
+package com.makeez.piratescanner;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PirateListParserTest {
+    @Test
+    public void parse_readsEntries() throws Exception {
+        List<Pirate> pirates = PirateListParser.parse(stream("[\n"
+                + "  {\"name\": \"Lucky \\\"Patcher\\\"\", \"packages\": [\"com.dimonvideo.luckypatcher\",\n"
+                + "   \"com.chelpus.lackypatch\"], \"filters\": [2, 3], \"url\": {\"a\": [1, true, null]}},\n"
+                + "  {\"name\":\"Caf\\u00e9\",\"packages\":[],\"filters\":[1]}\n"
+                + "]"));
+        assertEquals(2, pirates.size());
+        assertEquals("Lucky \"Patcher\"", pirates.get(0).NAME);
+        assertArrayEquals(new String[] { "com.dimonvideo.luckypatcher", "com.chelpus.lackypatch" },
+                pirates.get(0).PACKAGES);
+        assertArrayEquals(new int[] { 2, 3 }, pirates.get(0).FILTERS);
+        assertEquals("Caf\u00e9", pirates.get(1).NAME);
+    }
+
+    @Test
+    public void parse_skipsCorruptedEntries() throws Exception {
+        PirateListParser parser = new PirateListParser(stream("["
+                + "{\"name\":1,\"packages\":[\"a\"],\"filters\":[1]},"
+                + "{\"name\":\"b\",\"packages\":[2],\"filters\":[1]},"
+                + "{\"name\":\"c\",\"packages\":[\"c\"]},"
+                + "\"d\","
+                + "{\"name\":\"e\",\"packages\":[\"e\"],\"filters\":[\"x\"]},"
+                + "{\"name\":\"f\",\"packages\":[\"f\"],\"filters\":[4]}]"));
+        final int[] count = new int[1];
+        parser.parse(new PirateListParser.Listener() {
+            @Override
+            public void onPirate(Pirate pirate) {
+                assertEquals("f", pirate.NAME);
+                count[0]++;
+            }
+        });
+        assertEquals(1, count[0]);
+        assertEquals(1, parser.getAccepted());
+        assertEquals(5, parser.getRejected());
+    }
+
+    @Test(expected = IOException.class)
+    public void parse_rejectsTruncatedList() throws Exception {
+        new PirateListParser(stream("[{\"name\":\"a\",\"packages\":[\"a\"],\"filters\":[1]},{\"na"))
+                .parse(new PirateListParser.Listener() {
+                    @Override
+                    public void onPirate(Pirate pirate) {
+                    }
+                });
+    }
+
+    @Test
+    public void parse_returnsNullForInvalidList() throws Exception {
+        assertNull(PirateListParser.parse(stream("{}")));
+        assertNull(PirateListParser.parse(stream("[]")));
+    }
+
+    @Test
+    public void parse_largeListInBoundedMemory() throws Exception {
+        final int entries = 100000;
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        final long baseline = runtime.totalMemory() - runtime.freeMemory();
+        final long[] peak = new long[1];
+        PirateListParser parser = new PirateListParser(new SyntheticList(entries));
+        parser.parse(new PirateListParser.Listener() {
+            int mCount;
+
+            @Override
+            public void onPirate(Pirate pirate) {
+                if (++mCount % 10000 == 0) {
+                    System.gc();
+                    peak[0] = Math.max(peak[0], runtime.totalMemory() - runtime.freeMemory());
+                }
+            }
+        });
+        assertEquals(entries, parser.getAccepted());
+        // The list itself is ~10MB, holding it (or a String of it) would blow this bound
+        assertTrue("Heap grew by " + (peak[0] - baseline), peak[0] - baseline < 4 * 1024 * 1024);
+    }
+
+    private static InputStream stream(String json) throws Exception {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    /**
+     * Generates a pirate list on the fly, so the test never holds the whole document.
+     */
+    private static final class SyntheticList extends InputStream {
+        private final int mEntries;
+        private int mEntry;
+        private byte[] mChunk = "[".getBytes();
+        private int mPos;
+
+        SyntheticList(int entries) {
+            mEntries = entries;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mPos == mChunk.length) {
+                if (mEntry > mEntries) {
+                    return -1;
+                }
+                mChunk = nextChunk().getBytes("UTF-8");
+                mPos = 0;
+            }
+            return mChunk[mPos++] & 0xff;
+        }
+
+        private String nextChunk() {
+            int i = mEntry++;
+            if (i == mEntries) {
+                return "]";
+            }
+            return ((i > 0) ? "," : "") + "{\"name\":\"Pirate " + i + "\",\"packages\":[\"com.pirate.app"
+                    + i + "\",\"com.pirate.app" + i + ".pro\"],\"filters\":[" + (i % 4 + 1) + "]}";
+        }
+    }
+}
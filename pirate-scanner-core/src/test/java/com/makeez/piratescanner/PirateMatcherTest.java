@@ -0,0 +1,92 @@
+package com.makeez.piratescanner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class PirateMatcherTest {
+    private static final Pirate LUCKY_PATCHER = new Pirate(1, "Lucky Patcher",
+            new String[] { "com.dimonvideo.luckypatcher", "com.chelpus.lackypatch" },
+            new int[] { Filter.BYPASS_IAB, Filter.BYPASS_LICENSE_CHECK });
+    private static final Pirate ADAWAY = new Pirate(2, "AdAway",
+            new String[] { "org.adaway" },
+            new int[] { Filter.BLOCK_ADS });
+    private static final Pirate FREEDOM = new Pirate(3, "Freedom",
+            new String[] { "cc.madkite.freedom", "madkite.freedom" },
+            new int[] { Filter.BYPASS_IAB });
+
+    private static final List<Pirate> PIRATES = Arrays.asList(LUCKY_PATCHER, ADAWAY, FREEDOM);
+
+    @Test
+    public void match_iteratesInstalledSide() throws Exception {
+        PirateIndex index = new HashPirateIndex(PIRATES, Filter.ALL);
+        Set<String> installed = packages("org.adaway");
+        PirateMatcher.Result result = PirateMatcher.match(index, installed);
+        assertEquals(Arrays.asList(ADAWAY), result.PIRATES);
+        assertEquals(4, result.LOOKUPS_SAVED);
+        assertEquals(1, result.LOOKUPS);
+    }
+
+    @Test
+    public void match_iteratesIndexSide() throws Exception {
+        PirateIndex index = new HashPirateIndex(PIRATES, Filter.ALL);
+        Set<String> installed = packages("a", "b", "c", "d", "e", "f",
+                "madkite.freedom", "com.chelpus.lackypatch", "com.dimonvideo.luckypatcher");
+        PirateMatcher.Result result = PirateMatcher.match(index, installed);
+        assertEquals(Arrays.asList(LUCKY_PATCHER, FREEDOM), result.PIRATES);
+        assertEquals(5, result.LOOKUPS);
+    }
+
+    @Test
+    public void match_honoursFilters() throws Exception {
+        PirateIndex index = new HashPirateIndex(PIRATES, Filter.mask(Filter.BLOCK_ADS));
+        assertEquals(1, index.packageCount());
+        assertNull(PirateMatcher.match(index, packages("cc.madkite.freedom")).PIRATES);
+    }
+
+    @Test
+    public void match_streamsUntilListenerStops() throws Exception {
+        PirateIndex index = new HashPirateIndex(PIRATES, Filter.ALL);
+        Set<String> installed = packages("org.adaway", "madkite.freedom", "com.chelpus.lackypatch");
+        final List<Pirate> streamed = new ArrayList<>();
+        boolean[] found = new boolean[index.size()];
+        PirateMatcher.match(index, installed, found, new PirateMatcher.Listener() {
+            @Override
+            public boolean onMatch(Pirate pirate, String packageName) {
+                assertTrue(Arrays.asList(pirate.PACKAGES).contains(packageName));
+                streamed.add(pirate);
+                return false;
+            }
+        });
+        assertEquals(1, streamed.size());
+        assertEquals(streamed, PirateMatcher.collect(index, found, 1));
+    }
+
+    @Test
+    public void match_skipsPiratesAlreadyFound() throws Exception {
+        PirateIndex index = new HashPirateIndex(PIRATES, Filter.ALL);
+        final List<Pirate> streamed = new ArrayList<>();
+        PirateMatcher.Listener listener = new PirateMatcher.Listener() {
+            @Override
+            public boolean onMatch(Pirate pirate, String packageName) {
+                streamed.add(pirate);
+                return true;
+            }
+        };
+        boolean[] found = new boolean[index.size()];
+        assertTrue(PirateMatcher.matchPackage(index, "madkite.freedom", found, listener));
+        assertTrue(PirateMatcher.matchPackage(index, "com.example", found, listener));
+        PirateMatcher.match(index, packages("cc.madkite.freedom", "org.adaway"), found, listener);
+        assertEquals(Arrays.asList(FREEDOM, ADAWAY), streamed);
+    }
+
+    private static Set<String> packages(String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+}
@@ -0,0 +1,146 @@
+package com.makeez.piratescanner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PrefetchScheduleTest {
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+
+    private File mState;
+    private FakeClock mClock;
+
+    @Before
+    public void setUp() throws Exception {
+        mState = File.createTempFile("pirate-prefetch", ".bin");
+        mState.delete();
+        mClock = new FakeClock(1000 * HOUR);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mState.delete();
+    }
+
+    @Test
+    public void shouldRun_rightAwayThenOncePerInterval() throws Exception {
+        PrefetchSchedule schedule = schedule(0);
+        assertEquals(0, schedule.delay());
+        assertTrue(schedule.shouldRun(PrefetchSchedule.NETWORK_METERED));
+        schedule.onSuccess();
+        assertEquals(24 * HOUR, schedule.delay());
+
+        mClock.advance(24 * HOUR - 1);
+        assertFalse(schedule.shouldRun(PrefetchSchedule.NETWORK_UNMETERED));
+        mClock.advance(1);
+        assertTrue(schedule.shouldRun(PrefetchSchedule.NETWORK_UNMETERED));
+    }
+
+    @Test
+    public void onFailure_backsOffExponentially() throws Exception {
+        PrefetchSchedule schedule = schedule(0);
+        schedule.setBackoff(MINUTE, 16 * MINUTE);
+        long[] expected = { 1, 2, 4, 8, 16, 16 };
+        for (long minutes : expected) {
+            assertTrue(schedule.shouldRun(PrefetchSchedule.NETWORK_METERED));
+            schedule.onFailure();
+            assertEquals(minutes * MINUTE, schedule.delay());
+            mClock.advance(schedule.delay());
+        }
+        assertEquals(expected.length, schedule.getFailures());
+
+        schedule.onSuccess();
+        assertEquals(0, schedule.getFailures());
+        assertEquals(24 * HOUR, schedule.delay());
+    }
+
+    @Test
+    public void onFailure_backoffDoesNotOverflow() throws Exception {
+        PrefetchSchedule schedule = schedule(0);
+        for (int i = 0; i < 200; i++) {
+            schedule.onFailure();
+        }
+        assertEquals(24 * HOUR, schedule.delay());
+    }
+
+    @Test
+    public void shouldRun_waitsForSuitableNetwork() throws Exception {
+        PrefetchSchedule schedule = schedule(0);
+        schedule.setUnmeteredOnly(true);
+        assertFalse(schedule.shouldRun(PrefetchSchedule.NETWORK_NONE));
+        assertEquals(PrefetchSchedule.DEFAULT_NETWORK_RETRY, schedule.delay());
+
+        mClock.advance(PrefetchSchedule.DEFAULT_NETWORK_RETRY);
+        assertFalse(schedule.shouldRun(PrefetchSchedule.NETWORK_METERED));
+        assertEquals(PrefetchSchedule.DEFAULT_NETWORK_RETRY, schedule.delay());
+
+        mClock.advance(PrefetchSchedule.DEFAULT_NETWORK_RETRY);
+        assertTrue(schedule.shouldRun(PrefetchSchedule.NETWORK_UNMETERED));
+        assertEquals("Network is no failure", 0, schedule.getFailures());
+    }
+
+    @Test
+    public void reschedule_spreadsDelaysByJitter() throws Exception {
+        PrefetchSchedule schedule = new PrefetchSchedule(mState, 24 * HOUR, mClock, new Random(42));
+        schedule.setJitter(0.25f);
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            schedule.onSuccess();
+            long delay = schedule.delay();
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue("min " + min, min >= 18 * HOUR);
+        assertTrue("max " + max, max <= 30 * HOUR);
+        assertTrue("spread " + (max - min), max - min > 10 * HOUR);
+    }
+
+    @Test
+    public void schedule_survivesRestart() throws Exception {
+        PrefetchSchedule schedule = schedule(0);
+        schedule.onFailure();
+        schedule.onFailure();
+
+        PrefetchSchedule restarted = schedule(0);
+        assertEquals(2, restarted.getFailures());
+        assertEquals(2 * PrefetchSchedule.DEFAULT_MIN_BACKOFF, restarted.delay());
+    }
+
+    @Test
+    public void delay_ignoresClockSetBack() throws Exception {
+        PrefetchSchedule schedule = schedule(0);
+        schedule.onSuccess();
+        mClock.advance(-48 * HOUR);
+        assertEquals(0, schedule.delay());
+    }
+
+    private PrefetchSchedule schedule(float jitter) {
+        PrefetchSchedule schedule = new PrefetchSchedule(mState, 24 * HOUR, mClock, new Random(1));
+        schedule.setJitter(jitter);
+        return schedule;
+    }
+
+    private static final class FakeClock implements PrefetchSchedule.Clock {
+        private long mNow;
+
+        FakeClock(long now) {
+            mNow = now;
+        }
+
+        void advance(long millis) {
+            mNow += millis;
+        }
+
+        @Override
+        public long now() {
+            return mNow;
+        }
+    }
+}
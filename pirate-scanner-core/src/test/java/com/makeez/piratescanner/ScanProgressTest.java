@@ -0,0 +1,101 @@
+package com.makeez.piratescanner;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ScanProgressTest {
+    private static final Pirate LUCKY_PATCHER = new Pirate("Lucky Patcher",
+            new String[] { "com.dimonvideo.luckypatcher" }, new int[] { Filter.BYPASS_IAB });
+    private static final Pirate ADAWAY = new Pirate("AdAway", new String[] { "org.adaway" },
+            new int[] { Filter.BLOCK_ADS });
+
+    @Test
+    public void expire_returnsWhatWasFoundSoFar() throws Exception {
+        ScanProgress progress = new ScanProgress(false);
+        progress.detect(LUCKY_PATCHER);
+        progress.detect(ADAWAY);
+        progress.detect(LUCKY_PATCHER);
+        progress.finish(1);
+        progress.finish(4);
+        ScanProgress.Partial partial = progress.expire();
+        assertEquals(Arrays.asList(LUCKY_PATCHER, ADAWAY), partial.PIRATES);
+        assertEquals(5, partial.STAGES);
+        // Only once
+        assertNull(progress.expire());
+    }
+
+    @Test
+    public void expire_withoutPiratesHasNoList() throws Exception {
+        ScanProgress.Partial partial = new ScanProgress(false).expire();
+        assertNull(partial.PIRATES);
+        assertEquals(0, partial.STAGES);
+    }
+
+    @Test
+    public void expire_afterResultDoesNothing() throws Exception {
+        ScanProgress progress = new ScanProgress(false);
+        assertTrue(progress.complete());
+        assertNull(progress.expire());
+        assertTrue(progress.complete());
+    }
+
+    @Test
+    public void complete_afterDeadlineOnlyWhenContinued() throws Exception {
+        ScanProgress dropped = new ScanProgress(false);
+        assertNotNull(dropped.expire());
+        assertFalse(dropped.complete());
+
+        ScanProgress continued = new ScanProgress(true);
+        assertTrue(continued.isContinued());
+        assertNotNull(continued.expire());
+        assertTrue(continued.complete());
+        assertTrue(continued.complete());
+    }
+
+    @Test
+    public void resultAndDeadline_neverBothWin() throws Exception {
+        for (int i = 0; i < 2000; i++) {
+            final ScanProgress progress = new ScanProgress(false);
+            final CountDownLatch go = new CountDownLatch(1);
+            final AtomicInteger delivered = new AtomicInteger();
+            Thread result = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(go);
+                    progress.detect(LUCKY_PATCHER);
+                    if (progress.complete()) {
+                        delivered.incrementAndGet();
+                    }
+                }
+            });
+            Thread deadline = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(go);
+                    if (progress.expire() != null) {
+                        delivered.incrementAndGet();
+                    }
+                }
+            });
+            result.start();
+            deadline.start();
+            go.countDown();
+            result.join();
+            deadline.join();
+            assertEquals(1, delivered.get());
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
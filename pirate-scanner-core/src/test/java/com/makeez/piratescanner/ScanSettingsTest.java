@@ -0,0 +1,49 @@
+package com.makeez.piratescanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ScanSettingsTest {
+    private static final Pirate LUCKY_PATCHER = new Pirate(1, "Lucky Patcher",
+            new String[] { "com.dimonvideo.luckypatcher" }, new int[] { Filter.BYPASS_IAB });
+
+    @Test
+    public void with_leavesSnapshotUnchanged() throws Exception {
+        ScanSettings before = ScanSettings.DEFAULT;
+        ScanSettings after = before.withPirate(LUCKY_PATCHER).withFilterMask(Filter.mask(Filter.BLOCK_ADS))
+                .withFirstMatch(true);
+        assertTrue(before.PIRATES.isEmpty());
+        assertEquals(0, before.FILTER_MASK);
+        assertEquals(Filter.ALL, before.getFilterMask());
+        assertFalse(before.FIRST_MATCH);
+        assertEquals(1, after.PIRATES.size());
+        assertEquals(Filter.mask(Filter.BLOCK_ADS), after.getFilterMask());
+        assertTrue(after.FIRST_MATCH);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void pirates_areUnmodifiable() throws Exception {
+        ScanSettings.DEFAULT.withPirate(LUCKY_PATCHER).PIRATES.clear();
+    }
+
+    @Test
+    public void withPirate_keepsFirstPirateOfAnId() throws Exception {
+        ScanSettings settings = ScanSettings.DEFAULT.withPirate(LUCKY_PATCHER);
+        assertSame(settings, settings.withPirate(new Pirate(1, "Other", new String[] { "com.other" },
+                new int[] { Filter.BLOCK_ADS })));
+        assertTrue(settings.withoutPirate(1).PIRATES.isEmpty());
+        assertSame(settings, settings.withoutPirate(2));
+    }
+
+    @Test
+    public void equals_comparesPiratesByValue() throws Exception {
+        ScanSettings a = ScanSettings.DEFAULT.withPirate(LUCKY_PATCHER).withSharedMaxAge(1000);
+        ScanSettings b = ScanSettings.DEFAULT.withSharedMaxAge(1000).withPirate(new Pirate(1, "Lucky Patcher",
+                new String[] { "com.dimonvideo.luckypatcher" }, new int[] { Filter.BYPASS_IAB }));
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertFalse(a.equals(b.withMode(1)));
+        assertFalse(a.equals(b.withSharedMaxAge(0)));
+    }
+}
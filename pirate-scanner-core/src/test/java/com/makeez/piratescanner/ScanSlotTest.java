@@ -0,0 +1,203 @@
+package com.makeez.piratescanner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ScanSlotTest {
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 20000;
+
+    @Test
+    public void claim_startsOneScanAtATime() throws Exception {
+        ScanSlot slot = new ScanSlot();
+        ScanSlot.Run run = slot.claim();
+        assertNotNull(run);
+        // Still being started
+        assertNull(slot.claim());
+
+        Scan scan = new Scan();
+        run.attach(scan);
+        assertNull(slot.claim());
+        scan.finish();
+        assertNotNull(slot.claim());
+    }
+
+    @Test
+    public void cancel_cancelsScanAttachedLater() throws Exception {
+        ScanSlot slot = new ScanSlot();
+        ScanSlot.Run run = slot.claim();
+        assertTrue(slot.cancel());
+        assertTrue(run.isCancelled());
+        // The scan being started is not cancelled yet, nothing else starts in the meantime
+        assertNull(slot.claim());
+
+        Scan scan = new Scan();
+        run.attach(scan);
+        assertTrue(scan.isCancelled());
+        assertNotNull(slot.claim());
+    }
+
+    @Test
+    public void cancel_withoutRunDoesNothing() throws Exception {
+        ScanSlot slot = new ScanSlot();
+        assertFalse(slot.cancel());
+        ScanSlot.Run run = slot.claim();
+        Scan scan = new Scan();
+        run.attach(scan);
+        scan.finish();
+        assertTrue(slot.cancel());
+        assertFalse(slot.cancel());
+    }
+
+    /**
+     * Scans are started, cancelled and finished at random from many threads, the way PirateScanner
+     * is driven by apps calling it from several threads at startup.
+     */
+    @Test
+    public void stress_randomStartsAndCancels() throws Exception {
+        final ScanSlot slot = new ScanSlot();
+        final AtomicInteger live = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        final Queue<Scan> running = new ConcurrentLinkedQueue<>();
+        final Queue<Scan> started = new ConcurrentLinkedQueue<>();
+        final List<Throwable> failures = new ArrayList<>();
+        final AtomicInteger claims = new AtomicInteger();
+        final CountDownLatch go = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final long seed = 42L + t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    try {
+                        go.await();
+                        for (int i = 0; i < OPERATIONS; i++) {
+                            int operation = random.nextInt(10);
+                            if (operation < 5) {
+                                ScanSlot.Run run = slot.claim();
+                                if (run != null) {
+                                    claims.incrementAndGet();
+                                    Scan scan = new Scan(run, live, peak);
+                                    started.add(scan);
+                                    running.add(scan);
+                                    run.attach(scan);
+                                }
+                            } else if (operation < 8) {
+                                slot.cancel();
+                            } else {
+                                Scan scan = running.poll();
+                                if (scan != null) {
+                                    scan.finish();
+                                }
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        slot.cancel();
+        for (Scan scan; (scan = running.poll()) != null; ) {
+            scan.finish();
+        }
+
+        assertEquals(new ArrayList<Throwable>(), failures);
+        assertTrue(claims.get() > 0);
+        assertEquals(claims.get(), started.size());
+        assertEquals("scans running at the same time", 1, peak.get());
+        assertEquals(0, live.get());
+        int cancelled = 0;
+        for (Scan scan : started) {
+            assertTrue(scan.isDone());
+            if (scan.mRun.isCancelled()) {
+                // Attached before or after the cancel, either way it must not keep running
+                assertTrue("scan attached to a cancelled run was left running", scan.isCancelled());
+                cancelled++;
+            }
+        }
+        assertTrue(cancelled > 0);
+        // Nothing is left running, the next start goes ahead
+        assertNotNull(slot.claim());
+    }
+
+    private static final class Scan implements ScanSlot.Handle {
+        private static final int LIVE = 0;
+        private static final int ENDING = 1;
+        private static final int DONE = 2;
+
+        private final ScanSlot.Run mRun;
+        private final AtomicInteger mLive;
+        private final AtomicInteger mState = new AtomicInteger(LIVE);
+        private volatile boolean mCancelled;
+
+        Scan() {
+            this(null, new AtomicInteger(), new AtomicInteger());
+        }
+
+        /**
+         * @param live Number of scans started and not over yet, across threads.
+         * @param peak Highest number of scans ever running at the same time.
+         */
+        Scan(ScanSlot.Run run, AtomicInteger live, AtomicInteger peak) {
+            mRun = run;
+            mLive = live;
+            int now = live.incrementAndGet();
+            int max = peak.get();
+            while ((now > max) && (!peak.compareAndSet(max, now))) {
+                max = peak.get();
+            }
+        }
+
+        void finish() {
+            end();
+        }
+
+        /**
+         * Leave the running scans before being seen as done, so that the next claim never
+         * overlaps with this scan. Returns once the scan is over, also when another thread ends it.
+         */
+        private void end() {
+            if (mState.compareAndSet(LIVE, ENDING)) {
+                mLive.decrementAndGet();
+                mState.set(DONE);
+            }
+            while (mState.get() != DONE) {
+                Thread.yield();
+            }
+        }
+
+        boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+            end();
+        }
+
+        @Override
+        public boolean isDone() {
+            return mState.get() == DONE;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.makeez.piratescanner;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ScanStatsTest {
+    @After
+    public void tearDown() throws Exception {
+        ScanStats.setEnabled(false);
+        ScanStats.reset();
+    }
+
+    @Test
+    public void recorder_accumulatesStages() throws Exception {
+        MetricsRecorder recorder = new MetricsRecorder();
+        IOException first = new IOException("first");
+        recorder.setSource(ScanMetrics.SOURCE_NETWORK);
+        recorder.recordFetch(2000, 1024);
+        recorder.recordParse(500, 10, 1);
+        recorder.recordMatch(300, 40);
+        recorder.recordMatch(200, 2);
+        recorder.recordError(first);
+        recorder.recordError(new IOException("second"));
+        ScanMetrics metrics = recorder.finish();
+        assertEquals(ScanMetrics.SOURCE_NETWORK, metrics.SOURCE);
+        assertEquals(2000, metrics.FETCH_TIME);
+        assertEquals(1024, metrics.FETCH_BYTES);
+        assertEquals(500, metrics.PARSE_TIME);
+        assertEquals(10, metrics.ACCEPTED);
+        assertEquals(1, metrics.REJECTED);
+        assertEquals(42, metrics.LOOKUPS);
+        assertEquals(500, metrics.MATCH_TIME);
+        assertTrue(metrics.TOTAL_TIME >= 0);
+        assertSame(first, metrics.ERROR);
+    }
+
+    @Test
+    public void record_ignoredUnlessEnabled() throws Exception {
+        ScanStats.record(metrics(ScanMetrics.SOURCE_NETWORK));
+        assertEquals(0, ScanStats.get(ScanStats.TOTAL_TIME).getCount());
+        assertEquals(0, ScanStats.getSourceCount(ScanMetrics.SOURCE_NETWORK));
+    }
+
+    @Test
+    public void record_aggregatesScans() throws Exception {
+        ScanStats.setEnabled(true);
+        ScanStats.record(metrics(ScanMetrics.SOURCE_NETWORK));
+        ScanStats.record(metrics(ScanMetrics.SOURCE_MEMORY));
+        assertEquals(2, ScanStats.get(ScanStats.TOTAL_TIME).getCount());
+        assertEquals(1, ScanStats.get(ScanStats.FETCH_BYTES).getCount());
+        assertEquals(4096, ScanStats.get(ScanStats.FETCH_BYTES).getMax());
+        assertEquals(3, ScanStats.get(ScanStats.MATCH_TIME).getMax());
+        assertEquals(1, ScanStats.getSourceCount(ScanMetrics.SOURCE_MEMORY));
+        String export = ScanStats.export();
+        assertTrue(export, export.contains("fetch.bytes count=1 sum=4096"));
+        assertTrue(export, export.contains("source.network count=1"));
+    }
+
+    private static ScanMetrics metrics(int source) {
+        boolean downloaded = source == ScanMetrics.SOURCE_NETWORK;
+        return new ScanMetrics(source, downloaded ? 5000000 : 0, downloaded ? 4096 : 0, downloaded ? 1000000 : 0,
+                downloaded ? 100 : 0, 0, 50, 3000, 9000000, null);
+    }
+}
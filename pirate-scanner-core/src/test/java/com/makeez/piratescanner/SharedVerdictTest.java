@@ -0,0 +1,209 @@
+package com.makeez.piratescanner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SharedVerdictTest {
+    private static final Pirate LUCKY_PATCHER = new Pirate(1, "Lucky Patcher",
+            new String[] { "com.dimonvideo.luckypatcher", "com.chelpus.lackypatch" },
+            new int[] { Filter.BYPASS_IAB, Filter.BYPASS_LICENSE_CHECK });
+    private static final Pirate ADAWAY = new Pirate(2, "AdAway",
+            new String[] { "org.adaway" },
+            new int[] { Filter.BLOCK_ADS });
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("pirate-verdict", ".shared");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    @Test
+    public void read_returnsNullUntilPublished() throws Exception {
+        assertNull(new SharedVerdict(mFile).read());
+    }
+
+    @Test
+    public void publish_isReadByOtherInstances() throws Exception {
+        SharedVerdict writer = new SharedVerdict(mFile);
+        writer.acquire();
+        try {
+            assertTrue(writer.publish(1L, 2L, 3L, 4L, Arrays.asList(LUCKY_PATCHER, ADAWAY)));
+        } finally {
+            writer.release();
+        }
+        SharedVerdict.Verdict verdict = new SharedVerdict(mFile).read();
+        assertEquals(1L, verdict.LIST_VERSION);
+        assertEquals(2L, verdict.FINGERPRINT);
+        assertEquals(3L, verdict.SETTINGS);
+        assertEquals(4L, verdict.PUBLISHED_AT);
+        assertEquals(2, verdict.PIRATES.size());
+        assertEquals("Lucky Patcher", verdict.PIRATES.get(0).NAME);
+        assertArrayEquals(LUCKY_PATCHER.PACKAGES, verdict.PIRATES.get(0).PACKAGES);
+        assertArrayEquals(ADAWAY.FILTERS, verdict.PIRATES.get(1).FILTERS);
+
+        writer.acquire();
+        try {
+            assertTrue(writer.publish(5L, 6L, 7L, 8L, null));
+        } finally {
+            writer.release();
+        }
+        verdict = new SharedVerdict(mFile).read();
+        assertEquals(5L, verdict.LIST_VERSION);
+        assertNull(verdict.PIRATES);
+    }
+
+    @Test
+    public void read_allocatesForTheVerdictOnly() throws Exception {
+        SharedVerdict verdict = new SharedVerdict(mFile);
+        verdict.acquire();
+        try {
+            assertTrue(verdict.publish(1L, 2L, 3L, 4L, Arrays.asList(LUCKY_PATCHER, ADAWAY)));
+        } finally {
+            verdict.release();
+        }
+        // Map the file and load the classes involved first
+        assertNotNull(verdict.read());
+        long before = allocatedBytes();
+        assertNotNull(verdict.read());
+        long allocated = allocatedBytes() - before;
+        assertTrue("allocated " + allocated, allocated < SharedVerdict.CAPACITY / 4);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void publish_requiresTheRightToRefresh() throws Exception {
+        new SharedVerdict(mFile).publish(1L, 2L, 3L, 4L, null);
+    }
+
+    @Test
+    public void tryAcquire_isExclusive() throws Exception {
+        SharedVerdict first = new SharedVerdict(mFile);
+        SharedVerdict second = new SharedVerdict(mFile);
+        assertTrue(first.tryAcquire());
+        assertFalse(second.tryAcquire());
+        first.release();
+        assertTrue(second.tryAcquire());
+        second.release();
+    }
+
+    @Test
+    public void tryAcquire_isExclusiveAcrossProcesses() throws Exception {
+        Process holder = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"), Holder.class.getName(), mFile.getPath())
+                .redirectErrorStream(true).start();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(holder.getInputStream(), "UTF-8"));
+            assertEquals("published", reader.readLine());
+
+            SharedVerdict verdict = new SharedVerdict(mFile);
+            assertFalse(verdict.tryAcquire());
+            assertEquals(42L, verdict.read().LIST_VERSION);
+
+            OutputStream os = holder.getOutputStream();
+            os.write('\n');
+            os.flush();
+            assertEquals(0, holder.waitFor());
+            assertTrue(verdict.tryAcquire());
+            verdict.release();
+        } finally {
+            holder.destroy();
+        }
+    }
+
+    @Test
+    public void read_neverSeesTornVerdicts() throws Exception {
+        final SharedVerdict writer = new SharedVerdict(mFile);
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicInteger reads = new AtomicInteger();
+        final List<Throwable> failures = new ArrayList<>();
+        writer.acquire();
+        writer.publish(0L, 0L, 0L, 0L, null);
+        writer.release();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    SharedVerdict shared = new SharedVerdict(mFile);
+                    try {
+                        while (!done.get()) {
+                            SharedVerdict.Verdict verdict = shared.read();
+                            if (verdict == null) {
+                                continue;
+                            }
+                            long i = verdict.LIST_VERSION;
+                            assertEquals(i, verdict.FINGERPRINT);
+                            assertEquals(i, verdict.SETTINGS);
+                            assertEquals(i % 4, (verdict.PIRATES != null) ? verdict.PIRATES.size() : 0);
+                            reads.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        writer.acquire();
+        try {
+            for (long i = 0; i < 20000; i++) {
+                List<Pirate> pirates = new ArrayList<>();
+                for (int p = 0; p < i % 4; p++) {
+                    pirates.add((p % 2 == 0) ? LUCKY_PATCHER : ADAWAY);
+                }
+                writer.publish(i, i, i, i, pirates.isEmpty() ? null : pirates);
+            }
+        } finally {
+            writer.release();
+            done.set(true);
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(Arrays.asList(), failures);
+        assertTrue(reads.get() > 0);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Holds the right to refresh from another process, until a line is read.
+     */
+    public static final class Holder {
+        public static void main(String[] args) throws Exception {
+            SharedVerdict verdict = new SharedVerdict(new File(args[0]));
+            verdict.acquire();
+            verdict.publish(42L, 1L, 1L, 1L, null);
+            System.out.println("published");
+            System.out.flush();
+            System.in.read();
+            verdict.release();
+        }
+    }
+}
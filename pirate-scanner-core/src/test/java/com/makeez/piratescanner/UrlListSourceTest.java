@@ -0,0 +1,100 @@
+package com.makeez.piratescanner;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class UrlListSourceTest {
+    private static final String JSON
+            = "[{\"name\":\"AdAway\",\"packages\":[\"org.adaway\"],\"filters\":[1]}]";
+
+    private final AtomicInteger mDownloads = new AtomicInteger();
+    private volatile String mJson = JSON;
+    private HttpServer mServer;
+    private File mDirectory;
+    private String mUrl;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/in-house.json", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mDownloads.incrementAndGet();
+                byte[] body = mJson.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                os.close();
+                exchange.close();
+            }
+        });
+        mServer.start();
+        mUrl = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/in-house.json";
+        mDirectory = File.createTempFile("pirate-sources", "");
+        mDirectory.delete();
+        mDirectory.mkdir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.stop(0);
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void refresh_followsMaxAge() throws Exception {
+        UrlListSource source = new UrlListSource(mUrl, 60000, mDirectory);
+        assertEquals(0, source.fingerprint());
+        source.refresh(new MetricsRecorder());
+        assertTrue(source.fingerprint() != 0);
+        assertEquals("AdAway", source.load(new MetricsRecorder()).get(0).NAME);
+
+        long fingerprint = source.fingerprint();
+        source.refresh(new MetricsRecorder());
+        assertEquals(1, mDownloads.get());
+        assertEquals(fingerprint, new UrlListSource(mUrl, 60000, mDirectory).fingerprint());
+    }
+
+    @Test
+    public void refresh_keepsLocalCopyOnInvalidList() throws Exception {
+        UrlListSource source = new UrlListSource(mUrl, 0, mDirectory);
+        source.refresh(new MetricsRecorder());
+        long fingerprint = source.fingerprint();
+
+        mJson = "<html>";
+        MetricsRecorder recorder = new MetricsRecorder();
+        source.refresh(recorder);
+        assertEquals(2, mDownloads.get());
+        assertEquals(fingerprint, source.fingerprint());
+        assertTrue(recorder.finish().FETCH_BYTES > 0);
+        assertEquals(1, source.load(new MetricsRecorder()).size());
+    }
+
+    @Test
+    public void refresh_recordsUnreachableServer() throws Exception {
+        UrlListSource source = new UrlListSource("http://127.0.0.1:1/in-house.json", 0, mDirectory);
+        MetricsRecorder recorder = new MetricsRecorder();
+        source.refresh(recorder);
+        assertNotNull(recorder.finish().ERROR);
+        assertEquals(0, source.fingerprint());
+    }
+}
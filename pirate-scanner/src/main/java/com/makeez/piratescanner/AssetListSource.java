@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Pirate list bundled in the assets of the app. Nothing to refresh, it can only change when
+ * the app is updated.
+ */
+public final class AssetListSource implements ListSource {
+    private final Context mContext;
+    private final String mPath;
+
+    /**
+     * @param path Path of the list within the assets.
+     */
+    public AssetListSource(Context context, String path) {
+        if ((context == null) || (path == null)) {
+            throw new NullPointerException("Context and path must not be null.");
+        }
+        mContext = context.getApplicationContext();
+        mPath = path;
+    }
+
+    @Override
+    public void refresh(MetricsRecorder recorder) {
+    }
+
+    @Override
+    public long fingerprint() {
+        try {
+            long updated = mContext.getPackageManager().getPackageInfo(mContext.getPackageName(), 0).lastUpdateTime;
+            return (updated * 31) + mPath.hashCode();
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public List<Pirate> load(MetricsRecorder recorder) throws IOException {
+        InputStream stream = mContext.getAssets().open(mPath);
+        try {
+            return PirateListParser.parse(stream, recorder);
+        } finally {
+            stream.close();
+        }
+    }
+}
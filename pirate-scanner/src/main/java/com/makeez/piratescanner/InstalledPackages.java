@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * PackageSource backed by the PackageManager. Installed packages are enumerated once,
+ * with a single call, and remembered for the lifetime of this object along with their
+ * version codes and last update times.
+ */
+final class InstalledPackages implements PackageSource {
+    private final PackageManager mManager;
+    private Set<String> mPackages;
+    private List<PackageStamp> mStamps;
+    private boolean mEnumerated;
+
+    InstalledPackages(PackageManager manager) {
+        mManager = manager;
+    }
+
+    @Override
+    public Set<String> getInstalledPackages() {
+        if (!mEnumerated) {
+            enumerate();
+            mEnumerated = true;
+        }
+        return mPackages;
+    }
+
+    /**
+     * @return Installed packages, or null if they cannot be enumerated.
+     */
+    List<PackageStamp> getStamps() {
+        getInstalledPackages();
+        return mStamps;
+    }
+
+    private void enumerate() {
+        if (mManager == null) {
+            return;
+        }
+        try {
+            // Same single call as getInstalledApplications(0), version code and update time included
+            List<PackageInfo> infos = mManager.getInstalledPackages(0);
+            Set<String> packages = new HashSet<>(infos.size() * 2);
+            List<PackageStamp> stamps = new ArrayList<>(infos.size());
+            for (PackageInfo info : infos) {
+                packages.add(info.packageName);
+                stamps.add(new PackageStamp(info.packageName, info.versionCode, info.lastUpdateTime));
+            }
+            mPackages = packages;
+            mStamps = Collections.unmodifiableList(stamps);
+        } catch (Exception ex) {
+            // Binder transaction might be too large on devices with lots of apps
+        }
+    }
+}
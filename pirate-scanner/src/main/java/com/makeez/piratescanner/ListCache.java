@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+/**
+ * Keeps the last revalidated pirate list in memory for a bounded lifetime, so that scans
+ * started close to each other do not load and index it again.
+ */
+final class ListCache {
+    static final long DEFAULT_LIFETIME = 5 * 60 * 1000;
+
+    private static CompiledPirateList sList;
+    private static long sLoadedAt;
+    private static long sLifetime = DEFAULT_LIFETIME;
+
+    /**
+     * @return The cached list if it is within its lifetime, null otherwise.
+     */
+    static synchronized CompiledPirateList get() {
+        if ((sList != null) && (System.nanoTime() - sLoadedAt >= sLifetime * 1000000L)) {
+            sList = null;
+        }
+        return sList;
+    }
+
+    /**
+     * @param list List that has just been loaded (and revalidated, if online).
+     */
+    static synchronized void put(CompiledPirateList list) {
+        if (sLifetime > 0) {
+            sList = list;
+            sLoadedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * Forget the cached list, eg. because it is no longer made of the same lists.
+     */
+    static synchronized void clear() {
+        sList = null;
+    }
+
+    static synchronized void setLifetime(long lifetime) {
+        sLifetime = Math.max(0, lifetime);
+        if (sLifetime == 0) {
+            sList = null;
+        }
+    }
+
+    private ListCache(){}
+}
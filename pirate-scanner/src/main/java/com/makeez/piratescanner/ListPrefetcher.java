@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the local copy of the pirate list revalidated and compiled in the background, on a
+ * schedule of its own, so that scans in PirateScanner.MODE_LOCAL_FIRST never wait for the network.
+ * Failed prefetches are retried with an exponential backoff, every delay is spread by a random
+ * jitter, and nothing is fetched without a suitable network. The schedule is kept on the internal
+ * storage, so a process started again does not prefetch before it is due.
+ *
+ * Prefetching runs for as long as the process does, between start() and stop(). Telling metered
+ * networks apart needs the ACCESS_NETWORK_STATE permission, without it any network is assumed
+ * to be connected and unmetered.
+ */
+public final class ListPrefetcher {
+    /**
+     * Default delay between two prefetches, in milliseconds.
+     */
+    public static final long DEFAULT_INTERVAL = 24 * 60 * 60 * 1000;
+
+    private static final String LOCAL_SCHEDULE = "pirate-prefetch.bin";
+
+    private static ScheduledExecutorService sScheduler;
+    private static PrefetchSchedule sSchedule;
+    private static boolean sUnmeteredOnly;
+
+    /**
+     * Start prefetching the pirate list, the first prefetch happens right away unless an earlier
+     * one is not due yet. Starting again replaces the current schedule.
+     *
+     * @param context  Context of the app.
+     * @param interval Delay between two prefetches, in milliseconds, eg. DEFAULT_INTERVAL.
+     */
+    public static synchronized void start(Context context, long interval) {
+        if (context == null) {
+            throw new NullPointerException("Context must not be null.");
+        }
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive: " + interval);
+        }
+        stop();
+        Context application = context.getApplicationContext();
+        if (application == null) {
+            application = context;
+        }
+        sSchedule = new PrefetchSchedule(new File(application.getFilesDir(), LOCAL_SCHEDULE), interval,
+                PrefetchSchedule.SYSTEM_CLOCK, new Random());
+        sSchedule.setUnmeteredOnly(sUnmeteredOnly);
+        sScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PirateScanner prefetch");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        sScheduler.execute(new Prefetch(application, sSchedule, sScheduler));
+    }
+
+    /**
+     * Stop prefetching, a prefetch already running is interrupted.
+     */
+    public static synchronized void stop() {
+        if (sScheduler != null) {
+            sScheduler.shutdownNow();
+            sScheduler = null;
+            sSchedule = null;
+        }
+    }
+
+    /**
+     * Only prefetch on a network that is not charged by the byte, eg. Wi-Fi.
+     * Default: false
+     *
+     * @param unmeteredOnly Whether to wait for an unmetered network.
+     */
+    public static synchronized void setUnmeteredOnly(boolean unmeteredOnly) {
+        sUnmeteredOnly = unmeteredOnly;
+        if (sSchedule != null) {
+            sSchedule.setUnmeteredOnly(unmeteredOnly);
+        }
+    }
+
+    /**
+     * @return Current network, one of PrefetchSchedule.NETWORK_*.
+     */
+    private static int network(Context context) {
+        if (context.checkCallingOrSelfPermission(Manifest.permission.ACCESS_NETWORK_STATE)
+                != PackageManager.PERMISSION_GRANTED) {
+            return PrefetchSchedule.NETWORK_UNMETERED;
+        }
+        ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = (manager != null) ? manager.getActiveNetworkInfo() : null;
+        if ((info == null) || (!info.isConnected())) {
+            return PrefetchSchedule.NETWORK_NONE;
+        }
+        boolean metered = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+                ? manager.isActiveNetworkMetered() : (info.getType() == ConnectivityManager.TYPE_MOBILE);
+        return metered ? PrefetchSchedule.NETWORK_METERED : PrefetchSchedule.NETWORK_UNMETERED;
+    }
+
+    /**
+     * Prefetches the list if it is due, then schedules itself again for when the next one is.
+     */
+    private static final class Prefetch implements Runnable {
+        private final Context mContext;
+        private final PrefetchSchedule mSchedule;
+        private final ScheduledExecutorService mScheduler;
+
+        Prefetch(Context context, PrefetchSchedule schedule, ScheduledExecutorService scheduler) {
+            mContext = context;
+            mSchedule = schedule;
+            mScheduler = scheduler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (mSchedule.shouldRun(network(mContext))) {
+                    boolean reached;
+                    try {
+                        reached = PirateList.prefetch(mContext, new MetricsRecorder());
+                    } catch (RuntimeException e) {
+                        // Backed off like any other failure, rather than retried right away
+                        reached = false;
+                    }
+                    if (reached) {
+                        mSchedule.onSuccess();
+                    } else {
+                        mSchedule.onFailure();
+                    }
+                }
+                mScheduler.schedule(this, mSchedule.delay(), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Stopped
+            }
+        }
+    }
+
+    private ListPrefetcher(){}
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.Signature;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * PackageFacts asked from the PackageManager, one call per fact and package.
+ */
+final class PackageManagerFacts implements PackageFacts {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final PackageManager mManager;
+
+    PackageManagerFacts(PackageManager manager) {
+        mManager = manager;
+    }
+
+    @Override
+    public String getInstaller(String packageName) {
+        try {
+            return mManager.getInstallerPackageName(packageName);
+        } catch (Exception ex) {
+            // Uninstalled in the meantime
+            return null;
+        }
+    }
+
+    @Override
+    public Set<String> getSignatureDigests(String packageName) {
+        Signature[] signatures;
+        try {
+            PackageInfo info = mManager.getPackageInfo(packageName, PackageManager.GET_SIGNATURES);
+            signatures = info.signatures;
+        } catch (Exception ex) {
+            return null;
+        }
+        if (signatures == null) {
+            return null;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        Set<String> digests = new HashSet<>(signatures.length * 2);
+        for (Signature signature : signatures) {
+            digests.add(hex(digest.digest(signature.toByteArray())));
+        }
+        return digests;
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
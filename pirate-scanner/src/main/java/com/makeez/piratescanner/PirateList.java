@@ -17,24 +17,23 @@ package com.makeez.piratescanner;
 
 import android.content.Context;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.URL;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-
-import javax.net.ssl.HttpsURLConnection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 public final class PirateList {
     /**
@@ -44,11 +43,157 @@ public final class PirateList {
             = "https://storage.googleapis.com/anti-piracy/android-pirate-app-list.json";
 
     /**
-     * A local copy of the pirate list will be stored in this file (in internal storage)
+     * A local copy of the pirate list will be stored in this file (in internal storage), gzip compressed.
      */
     private static final String LOCAL_JSON
+            = "pirate-app-list.json.gz";
+
+    /**
+     * Uncompressed local copy written by earlier versions, taken over as the local copy.
+     */
+    private static final String LEGACY_JSON
             = "pirate-app-list.json";
 
+    /**
+     * A compiled copy of the local pirate list, memory-mapped while scanning.
+     */
+    private static final String LOCAL_INDEX
+            = "pirate-app-list.bin";
+
+    /**
+     * Validators (ETag / Last-Modified) of the local copy are kept in this file.
+     */
+    private static final String LOCAL_VALIDATORS
+            = "pirate-app-list.meta";
+
+    /**
+     * The official list merged with every source added through addSource(), compiled as one.
+     */
+    private static final String LOCAL_MERGED
+            = "pirate-app-list.merged.bin";
+
+    /**
+     * A local copy of the sketch of the pirate list is stored in this file (in internal storage).
+     */
+    private static final String LOCAL_SKETCH
+            = "pirate-app-list.sketch";
+
+    /**
+     * Validators (ETag / Last-Modified) of the local copy of the sketch are kept in this file.
+     */
+    private static final String LOCAL_SKETCH_VALIDATORS
+            = "pirate-app-list.sketch.meta";
+
+    private static final List<ListSource> sSources = new CopyOnWriteArrayList<>();
+    // One per file, so that a copy verified once is not checksummed again until it changes
+    private static final ConcurrentMap<File, ListFile> sListFiles = new ConcurrentHashMap<>();
+
+    private static volatile String sSourceUrl = WEB_JSON;
+    private static volatile String sDeltaUrl;
+    private static volatile String sSketchUrl;
+    private static volatile long sMaxAge = 0;
+    private static volatile int sConnectTimeout = ListFetcher.DEFAULT_CONNECT_TIMEOUT;
+    private static volatile int sReadTimeout = ListFetcher.DEFAULT_READ_TIMEOUT;
+
+    /**
+     * Change where the pirate list is downloaded from, eg. a mirror or a test server.
+     *
+     * @param url Url of the pirate list, null to restore the default.
+     */
+    public static void setSourceUrl(String url) {
+        sSourceUrl = (url != null) ? url : WEB_JSON;
+    }
+
+    /**
+     * Ask a delta endpoint for what changed since the version of the local copy, instead of
+     * downloading the whole list again. The whole list is still downloaded when the server does
+     * not version it, the deltas do not chain or the patched list fails its checksum.
+     * See ListFetcher.fetchDelta() for the protocol.
+     * Default: null, always download the whole list
+     *
+     * @param url Url of the delta endpoint, null to disable delta updates.
+     */
+    public static void setDeltaUrl(String url) {
+        sDeltaUrl = url;
+    }
+
+    /**
+     * Check the installed packages against a sketch of the pirate list (see ListSketch), eg.
+     * published next to the list, before loading the list. The list is then only loaded (and
+     * downloaded) by the few devices where the sketch finds a package that may be listed. The
+     * sketch is refreshed along with the list (prefetch included), and is not used when it was
+     * built from another version of the list than the local copy. It is not used while sources
+     * are added through addSource(), as their lists are not in it.
+     * Default: null, always load the list
+     *
+     * @param url Url of the sketch, null to disable it.
+     */
+    public static void setSketchUrl(String url) {
+        sSketchUrl = url;
+    }
+
+    /**
+     * Specify how long a downloaded (or revalidated) copy stays fresh. While it is fresh,
+     * get() and getCompiled() do not touch the network at all.
+     * Default: 0, revalidate every time
+     *
+     * @param maxAge Max age of the local copy, in milliseconds.
+     */
+    public static void setMaxAge(long maxAge) {
+        sMaxAge = Math.max(0, maxAge);
+    }
+
+    /**
+     * Specify how long to wait for the server before falling back to the local copy.
+     * Default: 10 seconds to connect, 15 seconds to read
+     *
+     * @param connectTimeout Connect timeout, in milliseconds, 0 waits forever.
+     * @param readTimeout    Read timeout, in milliseconds, 0 waits forever.
+     */
+    public static void setTimeouts(int connectTimeout, int readTimeout) {
+        sConnectTimeout = Math.max(0, connectTimeout);
+        sReadTimeout = Math.max(0, readTimeout);
+    }
+
+    /**
+     * Merge another pirate list with the official one, eg. an in-house blacklist, see
+     * UrlListSource, FileListSource and AssetListSource. Sources are refreshed in parallel,
+     * each following its own refresh policy, then merged into one list: pirates of the same
+     * name are merged, owning the union of their packages and filters. The merged list is
+     * compiled and kept as one, it is only merged again when one of the lists changes.
+     *
+     * @param source Source of the list.
+     */
+    public static void addSource(ListSource source) {
+        if (source == null) {
+            throw new NullPointerException("Source must not be null.");
+        }
+        sSources.add(source);
+        ListCache.clear();
+    }
+
+    public static void removeSource(ListSource source) {
+        if (sSources.remove(source)) {
+            ListCache.clear();
+        }
+    }
+
+    public static void clearSources() {
+        sSources.clear();
+        ListCache.clear();
+    }
+
+    /**
+     * Specify how long the scanner keeps a loaded pirate list in memory, shared by every
+     * scanner in the process. Scans within this period neither load nor revalidate the list.
+     * Default: 5 minutes
+     *
+     * @param lifetime Lifetime of the in-memory list, in milliseconds, 0 to disable.
+     */
+    public static void setMemoryCacheLifetime(long lifetime) {
+        ListCache.setLifetime(lifetime);
+    }
+
     /**
      * This method will automatically grab the pirate list either from internet or locally.
      *
@@ -58,7 +203,11 @@ public final class PirateList {
         if (context == null) {
             throw new NullPointerException("Context must not be null.");
         }
-        List<Pirate> list = getFromInternet(context);
+        if (!sSources.isEmpty()) {
+            CompiledPirateList compiled = getCompiled(context, new MetricsRecorder());
+            return (compiled != null) ? compiled.toList() : null;
+        }
+        List<Pirate> list = download(context, sMaxAge, new MetricsRecorder()).mList;
         if (list == null) {
             list = getFromLocal(context);
         }
@@ -66,29 +215,186 @@ public final class PirateList {
     }
 
     /**
-     * Get a (latest) copy of the pirate list from the World Wide Web.
+     * Same as get(), except the list is returned compiled so that it can be scanned
+     * without materialising every pirate.
      *
-     * @return List of pirate apps that ruin the developers' life.
+     * @return Compiled list of pirate apps, or null if there is none available.
      */
-    public static List<Pirate> getFromInternet(Context context) {
+    public static CompiledPirateList getCompiled(Context context) {
+        if (context == null) {
+            throw new NullPointerException("Context must not be null.");
+        }
+        return getCompiled(context, new MetricsRecorder());
+    }
+
+    static CompiledPirateList getCompiled(Context context, MetricsRecorder recorder) {
+        CompiledPirateList compiled = refresh(context, recorder);
+        return (compiled != null) ? compiled : getCompiledFromLocal(context, recorder);
+    }
+
+    /**
+     * Refresh the local copy of the pirate list from the World Wide Web, unless it is still fresh.
+     *
+     * @return Compiled list of pirate apps, or null if the local copy has not changed
+     * (or the list could not be downloaded).
+     */
+    public static CompiledPirateList refresh(Context context) {
         if (context == null) {
             throw new NullPointerException("Context must not be null.");
         }
-        String json;
+        return refresh(context, new MetricsRecorder());
+    }
+
+    static CompiledPirateList refresh(Context context, MetricsRecorder recorder) {
+        return refresh(context, sMaxAge, recorder);
+    }
+
+    /**
+     * Revalidate the pirate list whatever its max age, and have it compiled and kept in memory,
+     * so that the next scan only has to read it. Waits for a refresh of a scan that is under way
+     * rather than downloading along with it. See ListPrefetcher.
+     *
+     * @return Whether the server could be reached.
+     */
+    static boolean prefetch(Context context, MetricsRecorder recorder) {
+        CompiledPirateList compiled = refresh(context, 0, recorder);
+        int source = recorder.finish().SOURCE;
+        if (compiled == null) {
+            compiled = getCompiledFromLocal(context, recorder);
+        }
+        if (compiled != null) {
+            ListCache.put(compiled);
+        }
+        return (source == ScanMetrics.SOURCE_NETWORK) || (source == ScanMetrics.SOURCE_NOT_MODIFIED);
+    }
+
+    /**
+     * Refresh the list and its sketch as one, holding the lock of the local copy (the one download()
+     * takes), so that a scan and the prefetcher never refresh at the same time and the sketch stays
+     * of the version of the list it was refreshed with.
+     */
+    private static CompiledPirateList refresh(Context context, long maxAge, MetricsRecorder recorder) {
+        synchronized (localCopy(context)) {
+            return refreshLocked(context, maxAge, recorder);
+        }
+    }
+
+    private static CompiledPirateList refreshLocked(Context context, long maxAge, MetricsRecorder recorder) {
+        CompiledPirateList official = refreshOfficial(context, maxAge, recorder);
+        List<ListSource> sources = new ArrayList<>(sSources);
+        if (sources.isEmpty()) {
+            refreshSketch(context, maxAge, recorder);
+            return official;
+        }
+        if ((!refreshSources(sources, recorder)) && (official == null)) {
+            return null;
+        }
+        return merge(context, (official != null) ? official : getOfficialFromLocal(context, recorder),
+                sources, recorder);
+    }
+
+    private static CompiledPirateList refreshOfficial(Context context, long maxAge, MetricsRecorder recorder) {
+        return download(context, maxAge, recorder).mCompiled;
+    }
+
+    /**
+     * Get the sketch of the pirate list, as long as it was built from the same version of the list
+     * as the local copy, which would be scanned otherwise.
+     *
+     * @param revalidate Whether to refresh the local copy of the sketch first, unless it is still fresh.
+     * @return Sketch of the list, or null if there is none (or it is not to be used).
+     */
+    static ListSketch getSketch(Context context, boolean revalidate, MetricsRecorder recorder) {
+        if ((sSketchUrl == null) || (!sSources.isEmpty())) {
+            return null;
+        }
+        ListSketch sketch = revalidate ? refreshSketch(context, sMaxAge, recorder) : getSketchFromLocal(context, recorder);
+        if ((sketch == null) || (!localCopy(context).exists())) {
+            return sketch;
+        }
+        File source = localCopy(context).getFile();
+        CompiledPirateList compiled = loadCompiled(context, LOCAL_INDEX, recorder);
+        if ((compiled == null) || (!compiled.isCompiledFrom(source.length(), source.lastModified()))
+                || (compiled.getChecksum() != sketch.getVersion())) {
+            // Sketch of another version of the list, it could rule out pirates the list knows about
+            return null;
+        }
+        return sketch;
+    }
+
+    /**
+     * Refresh the local copy of the sketch of the pirate list, unless it is still fresh.
+     * Done along with the list, so that both stay of the same version.
+     *
+     * @return Sketch of the list, or null if there is none.
+     */
+    private static ListSketch refreshSketch(Context context, long maxAge, MetricsRecorder recorder) {
+        String url = sSketchUrl;
+        if ((url == null) || (!sSources.isEmpty())) {
+            return null;
+        }
+        final ListFile local = listFile(context, LOCAL_SKETCH);
+        ListFetcher fetcher = new ListFetcher(url, new File(context.getFilesDir(), LOCAL_SKETCH_VALIDATORS));
+        fetcher.setTimeouts(sConnectTimeout, sReadTimeout);
+        final ListSketch[] fetched = new ListSketch[1];
+        long start = System.nanoTime();
+        synchronized (local) {
+            fetcher.fetch(maxAge, local.exists(), new ListFetcher.Receiver() {
+                @Override
+                public boolean onBody(InputStream body) throws IOException {
+                    OutputStream out = local.create();
+                    try {
+                        fetched[0] = ListSketch.read(new TeeInputStream(body, out));
+                    } catch (IOException e) {
+                        out.close();
+                        local.discard();
+                        throw e;
+                    }
+                    out.close();
+                    return local.commit();
+                }
+            });
+        }
+        recorder.recordFetch(System.nanoTime() - start, fetcher.getBytesReceived());
+        if (fetcher.getError() != null) {
+            recorder.recordError(fetcher.getError());
+        }
+        return (fetched[0] != null) ? fetched[0] : getSketchFromLocal(context, recorder);
+    }
+
+    private static ListSketch getSketchFromLocal(Context context, MetricsRecorder recorder) {
+        ListFile local = listFile(context, LOCAL_SKETCH);
+        if (!local.exists()) {
+            return null;
+        }
         try {
-            URL url = new URL(WEB_JSON);
-            HttpsURLConnection connection = (HttpsURLConnection) url.openConnection();
-            connection.setUseCaches(false);
-            connection.setDefaultUseCaches(false);
-            json = read(connection.getInputStream());
-            connection.disconnect();
+            InputStream stream = local.open();
+            try {
+                return ListSketch.read(stream);
+            } finally {
+                stream.close();
+            }
         } catch (IOException e) {
-            json = null;
+            recorder.recordError(e);
+            return null;
         }
-        if (json != null) {
-            save(context, json);
+    }
+
+    /**
+     * Get a (latest) copy of the pirate list from the World Wide Web.
+     * The list is only downloaded in full when it has changed since the last download.
+     *
+     * @return List of pirate apps that ruin the developers' life.
+     */
+    public static List<Pirate> getFromInternet(Context context) {
+        if (context == null) {
+            throw new NullPointerException("Context must not be null.");
         }
-        return createPirateList(json);
+        Download download = download(context, 0, new MetricsRecorder());
+        if (download.mStatus == ListFetcher.NOT_MODIFIED) {
+            return getFromLocal(context);
+        }
+        return download.mList;
     }
 
     /**
@@ -100,71 +406,433 @@ public final class PirateList {
         if (context == null) {
             throw new NullPointerException("Context must not be null.");
         }
-        String json;
         try {
-            FileInputStream fis = context.openFileInput(LOCAL_JSON);
-            json = read(fis);
-        } catch (FileNotFoundException e) {
-            json = null;
+            InputStream stream = localCopy(context).open();
+            try {
+                return PirateListParser.parse(stream);
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get a (maybe outdated) compiled copy of the pirate list from internal storage.
+     * The local JSON is only parsed again when it has changed since it was last compiled.
+     *
+     * @return Compiled list of pirate apps, or null if there is none available.
+     */
+    public static CompiledPirateList getCompiledFromLocal(Context context) {
+        if (context == null) {
+            throw new NullPointerException("Context must not be null.");
         }
-        return createPirateList(json);
+        return getCompiledFromLocal(context, new MetricsRecorder());
     }
 
-    private static List<Pirate> createPirateList(String json) {
-        List<Pirate> pirateList = new ArrayList<>();
-        if (json != null) {
+    static CompiledPirateList getCompiledFromLocal(Context context, MetricsRecorder recorder) {
+        CompiledPirateList official = getOfficialFromLocal(context, recorder);
+        List<ListSource> sources = new ArrayList<>(sSources);
+        return sources.isEmpty() ? official : merge(context, official, sources, recorder);
+    }
+
+    private static CompiledPirateList getOfficialFromLocal(Context context, MetricsRecorder recorder) {
+        ListFile local = localCopy(context);
+        if (!local.exists()) {
+            return null;
+        }
+        if (!local.verify()) {
+            // Neither the local copy nor its backup is intact, report it rather than "no pirates"
+            recorder.recordError(new IOException("Local copy of the pirate list is corrupted."));
+            return null;
+        }
+        File source = local.getFile();
+        CompiledPirateList compiled = loadCompiled(context, LOCAL_INDEX, recorder);
+        if ((compiled != null) && compiled.isCompiledFrom(source.length(), source.lastModified())) {
+            return compiled;
+        }
+        List<Pirate> list;
+        long checksum;
+        try {
+            // Checksum of the decompressed list, same as the one of a download
+            CheckedInputStream cis = new CheckedInputStream(local.open(), new CRC32());
             try {
-                JSONArray blacklist = new JSONArray(json);
-                for (int i = 0, j = blacklist.length(); i < j; i++) {
-                    try {
-                        JSONObject app = blacklist.getJSONObject(i);
-                        String name = app.getString("name");
-                        JSONArray packages = app.getJSONArray("packages");
-                        JSONArray filters = app.getJSONArray("filters");
-                        String[] p = new String[packages.length()];
-                        for (int a = 0; a < p.length; a++) {
-                            p[a] = packages.getString(a);
-                        }
-                        int[] f = new int[filters.length()];
-                        for (int a = 0; a < f.length; a++) {
-                            f[a] = filters.getInt(a);
-                        }
-                        pirateList.add(new Pirate(name, p, f));
-                    } catch (JSONException e) {
-                        // Corrupted pirate data, ignore this
-                    }
-                }
-            } catch (JSONException e) {
-                // Invalid pirate list, ignore this
+                list = parse(cis, recorder);
+                drain(cis);
+            } finally {
+                cis.close();
             }
+            checksum = cis.getChecksum().getValue();
+        } catch (IOException e) {
+            recorder.recordError(e);
+            return null;
         }
-        return pirateList.isEmpty() ? null : Collections.unmodifiableList(pirateList);
+        if (list == null) {
+            return null;
+        }
+        return compile(context, list, checksum, recorder);
     }
 
-    private static String read(InputStream stream) {
+    private static CompiledPirateList loadCompiled(Context context, String name, MetricsRecorder recorder) {
+        File file = new File(context.getFilesDir(), name);
+        if (!file.exists()) {
+            return null;
+        }
         try {
-            String line;
-            StringBuilder builder = new StringBuilder();
-            BufferedInputStream is = new BufferedInputStream(stream);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-            while ((line = reader.readLine()) != null) {
-                builder.append(line);
-            }
-            is.close();
-            reader.close();
-            return builder.toString();
+            return CompiledPirateList.load(file);
         } catch (IOException e) {
+            // Corrupted compiled list, it will be compiled again from the JSON
+            recorder.recordError(e);
+            return null;
+        }
+    }
+
+    /**
+     * Compile the local copy into the index, or in memory if the index cannot be written.
+     * The index is never loaded as it is here, it may still be of an earlier version of the list.
+     */
+    private static CompiledPirateList compile(Context context, List<Pirate> list, long checksum,
+                                              MetricsRecorder recorder) {
+        File source = localCopy(context).getFile();
+        return CompiledPirateList.writeAndLoad(new File(context.getFilesDir(), LOCAL_INDEX), list, checksum,
+                source.length(), source.lastModified(), recorder);
+    }
+
+    /**
+     * Merge the official list with the sources, unless the merged list compiled last time
+     * was merged from the same lists.
+     *
+     * @param official Official list, null if there is none available.
+     */
+    private static CompiledPirateList merge(Context context, CompiledPirateList official,
+                                            List<ListSource> sources, MetricsRecorder recorder) {
+        CRC32 crc = new CRC32();
+        update(crc, (official != null) ? official.getChecksum() : 0);
+        for (ListSource source : sources) {
+            update(crc, source.fingerprint());
+        }
+        // Fingerprint of every merged list, which doubles as the version of the merged list
+        long checksum = crc.getValue();
+        CompiledPirateList merged = loadCompiled(context, LOCAL_MERGED, recorder);
+        if ((merged != null) && (merged.getChecksum() == checksum)) {
+            return merged;
+        }
+        List<SourceTask<List<Pirate>>> loads = new ArrayList<>(sources.size());
+        for (final ListSource source : sources) {
+            final MetricsRecorder own = new MetricsRecorder();
+            loads.add(new SourceTask<>(own, new Callable<List<Pirate>>() {
+                @Override
+                public List<Pirate> call() throws Exception {
+                    return source.load(own);
+                }
+            }));
+        }
+        List<List<Pirate>> lists = new ArrayList<>();
+        lists.add((official != null) ? official.toList() : null);
+        boolean complete = true;
+        for (SourceTask<List<Pirate>> load : inParallel(loads)) {
+            try {
+                lists.add(load.get(recorder));
+            } catch (IOException e) {
+                // Merged without it this time, but never kept as the merged list
+                recorder.recordError(e);
+                complete = false;
+            }
+        }
+        List<Pirate> list = ListMerger.merge(lists);
+        if (list.isEmpty()) {
             return null;
         }
+        if (complete) {
+            return CompiledPirateList.writeAndLoad(new File(context.getFilesDir(), LOCAL_MERGED), list, checksum,
+                    -1, -1, recorder);
+        }
+        return CompiledPirateList.compile(list, checksum);
+    }
+
+    /**
+     * Refresh every source in parallel.
+     *
+     * @return Whether any of the sources changed.
+     */
+    private static boolean refreshSources(List<ListSource> sources, MetricsRecorder recorder) {
+        List<SourceTask<Boolean>> refreshes = new ArrayList<>(sources.size());
+        for (final ListSource source : sources) {
+            final MetricsRecorder own = new MetricsRecorder();
+            refreshes.add(new SourceTask<>(own, new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    long fingerprint = source.fingerprint();
+                    source.refresh(own);
+                    return source.fingerprint() != fingerprint;
+                }
+            }));
+        }
+        boolean changed = false;
+        for (SourceTask<Boolean> refresh : inParallel(refreshes)) {
+            try {
+                changed |= refresh.get(recorder);
+            } catch (IOException e) {
+                recorder.recordError(e);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Run the tasks on the scanner pool, running on this thread whatever the pool has not started yet.
+     *
+     * @return The same tasks, every one of them done.
+     */
+    private static <T extends FutureTask<?>> List<T> inParallel(List<T> tasks) {
+        for (T task : tasks) {
+            try {
+                ScanExecutors.background().execute(task);
+            } catch (RejectedExecutionException e) {
+                // Run below instead
+            }
+        }
+        for (T task : tasks) {
+            task.run();
+        }
+        return tasks;
+    }
+
+    private static void update(CRC32 crc, long value) {
+        for (int i = 0; i < 64; i += 8) {
+            crc.update((int) (value >>> i));
+        }
+    }
+
+    /**
+     * Download (or patch) the local copy, one download at a time: the local copy, its validators
+     * and its compiled index are only written while holding the lock of the local copy.
+     */
+    private static Download download(Context context, long maxAge, MetricsRecorder recorder) {
+        synchronized (localCopy(context)) {
+            return downloadLocked(context, maxAge, recorder);
+        }
+    }
+
+    private static Download downloadLocked(Context context, long maxAge, MetricsRecorder recorder) {
+        ListFetcher fetcher = new ListFetcher(sSourceUrl, new File(context.getFilesDir(), LOCAL_VALIDATORS));
+        fetcher.setTimeouts(sConnectTimeout, sReadTimeout);
+        Download download = new Download(context, recorder);
+        String deltaUrl = sDeltaUrl;
+        if ((deltaUrl == null) || (!patch(context, fetcher, deltaUrl, maxAge, download, recorder))) {
+            long start = System.nanoTime();
+            download.mStatus = fetcher.fetch(maxAge, hasLocalCopy(context), download);
+            recorder.recordFetch(System.nanoTime() - start, fetcher.getBytesReceived());
+            if (fetcher.getError() != null) {
+                recorder.recordError(fetcher.getError());
+            }
+        }
+        switch (download.mStatus) {
+            case ListFetcher.MODIFIED:
+                recorder.setSource(ScanMetrics.SOURCE_NETWORK);
+                break;
+            case ListFetcher.NOT_MODIFIED:
+                recorder.setSource(ScanMetrics.SOURCE_NOT_MODIFIED);
+                break;
+            default:
+                recorder.setSource(ScanMetrics.SOURCE_LOCAL);
+                break;
+        }
+        return download;
     }
 
-    private static void save(Context context, String json) {
+    /**
+     * Bring the local copy up to date through deltas.
+     *
+     * @return False if a full download is needed.
+     */
+    private static boolean patch(Context context, ListFetcher fetcher, String deltaUrl, long maxAge,
+                                 Download download, MetricsRecorder recorder) {
+        if (!hasLocalCopy(context)) {
+            return false;
+        }
+        long version = fetcher.getVersion();
+        if (version < 0) {
+            return false;
+        }
+        ListPatcher patcher = new ListPatcher(localCopy(context), version, recorder);
+        long start = System.nanoTime();
+        int status = fetcher.fetchDelta(deltaUrl, maxAge, patcher);
+        recorder.recordFetch(System.nanoTime() - start, fetcher.getBytesReceived());
+        if (fetcher.getError() != null) {
+            recorder.recordError(fetcher.getError());
+        }
+        if (status == ListFetcher.FAILED) {
+            return false;
+        }
+        download.mStatus = status;
+        if (status == ListFetcher.MODIFIED) {
+            download.mList = patcher.getList();
+            download.mChecksum = patcher.getChecksum();
+            download.mCompiled = compile(context, download.mList, download.mChecksum, recorder);
+        }
+        return true;
+    }
+
+    /**
+     * Same as PirateListParser.parse(), recording how long it took and how many entries were accepted.
+     */
+    private static List<Pirate> parse(InputStream stream, MetricsRecorder recorder) {
         try {
-            FileOutputStream fos = context.openFileOutput(LOCAL_JSON, Context.MODE_PRIVATE);
-            fos.write(json.getBytes());
-            fos.close();
+            return PirateListParser.parse(stream, recorder);
         } catch (IOException e) {
-            e.printStackTrace();
+            recorder.recordError(e);
+            return null;
+        }
+    }
+
+    private static boolean hasLocalCopy(Context context) {
+        return localCopy(context).exists();
+    }
+
+    private static ListFile localCopy(Context context) {
+        File file = new File(context.getFilesDir(), LOCAL_JSON);
+        if (!sListFiles.containsKey(file)) {
+            File legacy = new File(context.getFilesDir(), LEGACY_JSON);
+            if (legacy.exists() && (!file.exists())) {
+                // Still read as it is, compressed the next time the list is downloaded
+                legacy.renameTo(file);
+            }
+        }
+        return listFile(context, LOCAL_JSON);
+    }
+
+    private static ListFile listFile(Context context, String name) {
+        File file = new File(context.getFilesDir(), name);
+        ListFile local = sListFiles.get(file);
+        if (local == null) {
+            ListFile created = new ListFile(file);
+            local = sListFiles.putIfAbsent(file, created);
+            if (local == null) {
+                local = created;
+            }
+        }
+        return local;
+    }
+
+    private static void drain(InputStream stream) throws IOException {
+        byte[] buffer = new byte[1024];
+        while (stream.read(buffer) >= 0) {
+            // Consume whatever follows the list so that the whole stream is accounted for
+        }
+    }
+
+    /**
+     * Parses the downloaded list while it is being written to a temporary file, which
+     * replaces the local copy only if the list turns out to be valid.
+     */
+    private static final class Download implements ListFetcher.Receiver {
+        private final Context mContext;
+        private final MetricsRecorder mRecorder;
+        private int mStatus;
+        private List<Pirate> mList;
+        private long mChecksum;
+        private CompiledPirateList mCompiled;
+
+        Download(Context context, MetricsRecorder recorder) {
+            mContext = context;
+            mRecorder = recorder;
+        }
+
+        @Override
+        public boolean onBody(InputStream body) throws IOException {
+            ListFile local = localCopy(mContext);
+            OutputStream out = local.create();
+            CheckedInputStream cis = new CheckedInputStream(new TeeInputStream(body, out), new CRC32());
+            try {
+                mList = parse(cis, mRecorder);
+                drain(cis);
+            } catch (IOException | RuntimeException e) {
+                // Closing completes the new copy, which must not be left behind
+                mList = null;
+                try {
+                    out.close();
+                } finally {
+                    local.discard();
+                }
+                throw e;
+            }
+            out.close();
+            if (mList == null) {
+                local.discard();
+                return false;
+            }
+            if (!local.commit()) {
+                mList = null;
+                return false;
+            }
+            mChecksum = cis.getChecksum().getValue();
+            mCompiled = compile(mContext, mList, mChecksum, mRecorder);
+            return true;
+        }
+    }
+
+    /**
+     * Work on one of the sources, recording its own metrics since it runs in parallel with the others.
+     */
+    private static final class SourceTask<T> extends FutureTask<T> {
+        private final MetricsRecorder mRecorder;
+
+        /**
+         * @param recorder Recorder the callable records to.
+         */
+        SourceTask(MetricsRecorder recorder, Callable<T> callable) {
+            super(callable);
+            mRecorder = recorder;
+        }
+
+        /**
+         * @param recorder Recorder of the scan, the metrics of this task are added to it.
+         */
+        T get(MetricsRecorder recorder) throws IOException {
+            try {
+                T result = get();
+                recorder.add(mRecorder.finish());
+                return result;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                recorder.add(mRecorder.finish());
+                Throwable cause = e.getCause();
+                throw (cause instanceof IOException) ? (IOException) cause : new IOException(cause);
+            }
+        }
+    }
+
+    /**
+     * Copies everything read from the stream to the output stream.
+     */
+    private static final class TeeInputStream extends FilterInputStream {
+        private final OutputStream mCopy;
+
+        TeeInputStream(InputStream in, OutputStream copy) {
+            super(in);
+            mCopy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                mCopy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCopy.write(buffer, offset, read);
+            }
+            return read;
         }
     }
 
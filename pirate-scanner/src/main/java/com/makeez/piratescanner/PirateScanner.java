@@ -16,23 +16,74 @@
 package com.makeez.piratescanner;
 
 import android.content.Context;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
-import android.os.AsyncTask;
 
-import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class PirateScanner {
+    /**
+     * Download (or revalidate) the pirate list before scanning, fall back to the local copy
+     * when offline. Callback is called once.
+     */
+    public static final int MODE_NETWORK_FIRST = 0;
+    /**
+     * Scan against the local copy of the pirate list right away, then refresh the list in the
+     * background. Callback is called a second time, with the complete result, only when the
+     * refreshed list finds pirates that the local copy did not.
+     */
+    public static final int MODE_STALE_WHILE_REVALIDATE = 1;
+    /**
+     * Scan against the local copy of the pirate list without touching the network, leaving it
+     * to ListPrefetcher to keep the copy up to date. The list is only downloaded while there is
+     * no local copy yet. Callback is called once.
+     */
+    public static final int MODE_LOCAL_FIRST = 2;
+
+    /**
+     * The packages found most often on earlier scans were looked up.
+     */
+    public static final int STAGE_PROBE = 1;
+    /**
+     * Every installed package was matched against the pirate list, the local copy if it was
+     * not refreshed yet.
+     */
+    public static final int STAGE_MATCH = 2;
+    /**
+     * The package detectors were run on every installed package (if any was added).
+     */
+    public static final int STAGE_DETECTORS = 4;
+    /**
+     * The pirate list was brought up to date, as far as the mode asks for.
+     */
+    public static final int STAGE_REFRESH = 8;
+
     public interface Callback {
         void onCompleted(List<Pirate> pirateList);
     }
 
-    private final List<Pirate> mCustomPirateList = new ArrayList<>();
-    private final List<Integer> mFilters = new ArrayList<>();
-    private FinderTask mTask;
+    public interface PartialCallback extends Callback {
+        /**
+         * Called instead of onCompleted() when the deadline passes before the scan completes.
+         * onCompleted() is called afterwards only if the scan continues after its deadline.
+         *
+         * @param pirateList Pirates found by the deadline, or null if none was found.
+         * @param stages     Stages finished by the deadline, a bitmask of STAGE_*.
+         */
+        void onPartial(List<Pirate> pirateList, int stages);
+    }
+
+    public interface DetectionCallback {
+        /**
+         * Called for every pirate as soon as it is found, ahead of Callback.onCompleted().
+         */
+        void onDetected(Pirate pirate);
+    }
+
+    // Replaced as a whole on every change (under the lock), a scan starts with the current snapshot
+    private volatile Snapshot mSnapshot = Snapshot.DEFAULT;
+    private final ScanSlot mSlot = new ScanSlot();
 
     /**
      * Add custom (static) pirate that will be put to the final pirate list for scanning.
@@ -44,11 +95,11 @@ public class PirateScanner {
      *
      * @param pirate Custom (static) pirate that will be scanned in start().
      */
-    public void addPirate(Pirate pirate) {
-        int pos = findPiratePos(pirate);
-        if (pos < 0) {
-            mCustomPirateList.add(pirate);
+    public synchronized void addPirate(Pirate pirate) {
+        if (pirate == null) {
+            throw new NullPointerException("Pirate must not be null.");
         }
+        update(mSnapshot.SETTINGS.withPirate(pirate));
     }
 
     /**
@@ -59,31 +110,15 @@ public class PirateScanner {
      *
      * @param id Unique pirate ID of the corresponding pirate to be removed.
      */
-    public void removePirate(int id) {
-        int pos = findPiratePos(id);
-        if (pos >= 0) {
-            mCustomPirateList.remove(pos);
-        }
+    public synchronized void removePirate(int id) {
+        update(mSnapshot.SETTINGS.withoutPirate(id));
     }
 
     /**
      * Remove all added custom (static) pirates from the list.
      */
-    public void clearPirates() {
-        mCustomPirateList.clear();
-    }
-
-    private int findPiratePos(Pirate pirate) {
-        return findPiratePos(pirate.ID);
-    }
-
-    private int findPiratePos(int id) {
-        for (int i = 0, j = mCustomPirateList.size(); i < j; i++) {
-            if (mCustomPirateList.get(i).ID == id) {
-                return i;
-            }
-        }
-        return -1;
+    public synchronized void clearPirates() {
+        update(mSnapshot.SETTINGS.withoutPirates());
     }
 
     /**
@@ -92,10 +127,12 @@ public class PirateScanner {
      *
      * @param filter Filter to be used while scanning for pirates.
      */
-    public void addFilter(int filter) {
-        if (!mFilters.contains(filter)) {
-            mFilters.add(filter);
+    public synchronized void addFilter(int filter) {
+        int mask = Filter.mask(filter);
+        if (mask == 0) {
+            throw new IllegalArgumentException("Filter must be between 0 and 31: " + filter);
         }
+        update(mSnapshot.SETTINGS.withFilterMask(mSnapshot.SETTINGS.FILTER_MASK | mask));
     }
 
     /**
@@ -103,135 +140,401 @@ public class PirateScanner {
      *
      * @param filter Filter to be removed.
      */
-    public void removeFilter(int filter) {
-        mFilters.remove(Integer.valueOf(filter));
+    public synchronized void removeFilter(int filter) {
+        update(mSnapshot.SETTINGS.withFilterMask(mSnapshot.SETTINGS.FILTER_MASK & ~Filter.mask(filter)));
     }
 
     /**
      * Empty the filter list, calling this make sure scanner will scan through the whole pirate list.
      */
-    public void clearFilters() {
-        mFilters.clear();
+    public synchronized void clearFilters() {
+        update(mSnapshot.SETTINGS.withFilterMask(0));
+    }
+
+    /**
+     * Also detect pirates by something else than their package name, eg. SignatureDetector or
+     * InstallerDetector. Detectors run after the pirate list is matched, and their verdicts are
+     * cached per package, so only apps installed or updated since the last scan are looked into.
+     *
+     * @param detector Detector to be run on every installed package.
+     */
+    public synchronized void addDetector(PackageDetector detector) {
+        if (detector == null) {
+            throw new NullPointerException("Detector must not be null.");
+        }
+        update(mSnapshot.SETTINGS.withDetector(detector));
+    }
+
+    public synchronized void removeDetector(PackageDetector detector) {
+        update(mSnapshot.SETTINGS.withoutDetector(detector));
+    }
+
+    public synchronized void clearDetectors() {
+        update(mSnapshot.SETTINGS.withoutDetectors());
+    }
+
+    /**
+     * Specify how the scanner gets hold of the pirate list.
+     * Default: MODE_NETWORK_FIRST
+     *
+     * @param mode MODE_NETWORK_FIRST, MODE_STALE_WHILE_REVALIDATE or MODE_LOCAL_FIRST.
+     */
+    public synchronized void setMode(int mode) {
+        if ((mode != MODE_NETWORK_FIRST) && (mode != MODE_STALE_WHILE_REVALIDATE) && (mode != MODE_LOCAL_FIRST)) {
+            throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+        update(mSnapshot.SETTINGS.withMode(mode));
+    }
+
+    /**
+     * Only check the apps installed or removed since the last scan, instead of every installed app.
+     * Everything is checked again whenever the pirate list changes.
+     * Default: false
+     *
+     * @param incremental Whether to scan incrementally.
+     */
+    public synchronized void setIncremental(boolean incremental) {
+        update(mSnapshot.SETTINGS.withIncremental(incremental));
+    }
+
+    /**
+     * Specify where the scan runs. Loading the pirate list and enumerating installed packages
+     * are submitted separately so that they can run at the same time.
+     * Default: a small pool dedicated to the scanner
+     *
+     * @param executor Executor for the scan, null to restore the default.
+     */
+    public synchronized void setExecutor(Executor executor) {
+        mSnapshot = mSnapshot.withExecutor(executor);
+    }
+
+    /**
+     * Specify where Callback.onCompleted() is called.
+     * Default: main thread
+     *
+     * @param executor Executor for the callback, null to restore the default.
+     */
+    public synchronized void setCallbackExecutor(Executor executor) {
+        mSnapshot = mSnapshot.withCallbackExecutor(executor);
+    }
+
+    /**
+     * Receive every pirate as soon as it is found, on the callback executor. Packages found most
+     * often on earlier scans are looked up first, so common offenders are reported early.
+     * Default: null
+     *
+     * @param callback Callback for each pirate found, null to stop listening.
+     */
+    public synchronized void setDetectionCallback(DetectionCallback callback) {
+        mSnapshot = mSnapshot.withDetectionCallback(callback);
+    }
+
+    /**
+     * Stop scanning as soon as one pirate is found, Callback.onCompleted() then gets that pirate only.
+     * Useful when any pirate is enough to make a decision, eg. with a BYPASS_IAB filter.
+     * Default: false
+     *
+     * @param firstMatch Whether the first pirate found ends the scan.
+     */
+    public synchronized void setStopOnFirstMatch(boolean firstMatch) {
+        update(mSnapshot.SETTINGS.withFirstMatch(firstMatch));
+    }
+
+    /**
+     * Share the verdict of the latest scan with the other processes of the app, through a file in
+     * internal storage. A scan reuses the verdict published by any process (itself included) if it
+     * is not older than maxAge and was reached with the same settings, the same installed packages
+     * and the pirate list held in memory (if any). Otherwise one process at a time scans, and
+     * publishes its verdict for the others waiting for it.
+     * Default: 0, not shared
+     *
+     * @param maxAge Age in milliseconds beyond which a shared verdict is not reused, 0 to not share.
+     */
+    public synchronized void setSharedVerdictMaxAge(long maxAge) {
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("Max age must not be negative: " + maxAge);
+        }
+        update(mSnapshot.SETTINGS.withSharedMaxAge(maxAge));
+    }
+
+    /**
+     * Receive the metrics of every scan (timings, list source, lookups), on the callback executor
+     * after the last Callback.onCompleted() of the scan. See also ScanStats.
+     * Default: null
+     *
+     * @param listener Listener of scan metrics, null to stop listening.
+     */
+    public synchronized void setMetricsListener(ScanMetrics.Listener listener) {
+        mSnapshot = mSnapshot.withMetricsListener(listener);
+    }
+
+    /**
+     * Keep scanning once the deadline given to start() passed, so that onCompleted() still gets
+     * the complete result after the partial one.
+     * Default: false, the scan is cancelled at its deadline
+     *
+     * @param continueAfterDeadline Whether the scan goes on in the background after its deadline.
+     */
+    public synchronized void setContinueAfterDeadline(boolean continueAfterDeadline) {
+        mSnapshot = mSnapshot.withContinueAfterDeadline(continueAfterDeadline);
     }
 
     /**
      * Start pirate scanner, if it is not already running.
+     * Scanners started with the same settings and custom pirates while a scan is running
+     * share that scan (and its result) instead of starting their own.
+     * The scan runs with the settings as they are at this point, may be called from any thread.
      *
      * @param context   Context where the scanner should run.
      * @param callback  Callback when the scanner is done.
      */
     public void start(Context context, Callback callback) {
+        scan(context, 0, callback);
+    }
+
+    /**
+     * Same as start(), except the scan gets a time budget. It is spent on the local copy of the
+     * pirate list first, the packages found most often on earlier scans being looked up before
+     * any other, and only then on refreshing the list over the network (MODE_NETWORK_FIRST scans
+     * as MODE_STALE_WHILE_REVALIDATE does). When the deadline passes first, the pirates found so far
+     * are delivered to onPartial() along with the stages finished, never to onCompleted(), which
+     * only ever gets complete results. See setContinueAfterDeadline().
+     *
+     * @param context   Context where the scanner should run.
+     * @param timeout   Time budget of the scan, in milliseconds, 0 for no deadline.
+     * @param callback  Callback when the scanner is done, or its deadline passed.
+     */
+    public void start(Context context, long timeout, PartialCallback callback) {
+        scan(context, timeout, callback);
+    }
+
+    private void scan(Context context, long timeout, Callback callback) {
         if (context == null) {
             throw new NullPointerException("Context must not be null.");
         }
         if (callback == null) {
             throw new NullPointerException("Callback must not be null.");
         }
-        if ((mTask == null) || (mTask.getStatus() == AsyncTask.Status.FINISHED)) {
-            mTask = new FinderTask(context, callback, mFilters, mCustomPirateList);
-            mTask.execute();
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative: " + timeout);
+        }
+        ScanSlot.Run run = mSlot.claim();
+        if (run == null) {
+            return;
+        }
+        Snapshot snapshot = mSnapshot;
+        ScanSettings settings = snapshot.SETTINGS;
+        if ((timeout > 0) && (settings.MODE == MODE_NETWORK_FIRST)) {
+            // Local copy first, the network is the last thing the budget is spent on
+            settings = settings.withMode(MODE_STALE_WHILE_REVALIDATE);
+        }
+        Executor executor = (snapshot.EXECUTOR != null) ? snapshot.EXECUTOR : ScanExecutors.background();
+        Delivery delivery = new Delivery(run, callback, snapshot.DETECTION_CALLBACK, snapshot.METRICS_LISTENER,
+                (snapshot.CALLBACK_EXECUTOR != null) ? snapshot.CALLBACK_EXECUTOR : ScanExecutors.mainThread(),
+                (timeout > 0) ? new ScanProgress(snapshot.CONTINUE_AFTER_DEADLINE) : null);
+        try {
+            delivery.schedule(timeout);
+            run.attach(ScanCoordinator.getInstance().scan(context, executor, settings, delivery));
+        } catch (RuntimeException e) {
+            run.abandon();
+            throw e;
         }
     }
 
     /**
      * Cancel any running pirate scanner, this should be called upon user leaving (quit) the app.
+     * May be called from any thread, also while start() is in progress.
      */
     public void cancel() {
-        if ((!mTask.isCancelled()) && (mTask.getStatus() != AsyncTask.Status.FINISHED)) {
-            mTask.cancel(true);
-            mTask = null;
-        }
+        mSlot.cancel();
     }
 
-    private static class FinderTask extends AsyncTask<Void, Void, List<Pirate>> {
-        private WeakReference<Context> mContextRef;
-        private Callback mCallback;
+    /**
+     * Must be called holding the lock.
+     */
+    private void update(ScanSettings settings) {
+        mSnapshot = mSnapshot.withSettings(settings);
+    }
+
+    /**
+     * Everything a scan starts with. Only the settings tell scans apart (see ScanCoordinator), the
+     * rest is about where it runs and how its results are delivered.
+     */
+    private static final class Snapshot {
+        static final Snapshot DEFAULT = new Snapshot(ScanSettings.DEFAULT, null, null, null, null, false);
+
+        final ScanSettings SETTINGS;
+        /**
+         * Executors, null for the defaults.
+         */
+        final Executor EXECUTOR;
+        final Executor CALLBACK_EXECUTOR;
+        final DetectionCallback DETECTION_CALLBACK;
+        final ScanMetrics.Listener METRICS_LISTENER;
+        final boolean CONTINUE_AFTER_DEADLINE;
+
+        private Snapshot(ScanSettings settings, Executor executor, Executor callbackExecutor,
+                         DetectionCallback detectionCallback, ScanMetrics.Listener metricsListener,
+                         boolean continueAfterDeadline) {
+            SETTINGS = settings;
+            EXECUTOR = executor;
+            CALLBACK_EXECUTOR = callbackExecutor;
+            DETECTION_CALLBACK = detectionCallback;
+            METRICS_LISTENER = metricsListener;
+            CONTINUE_AFTER_DEADLINE = continueAfterDeadline;
+        }
+
+        Snapshot withSettings(ScanSettings settings) {
+            return new Snapshot(settings, EXECUTOR, CALLBACK_EXECUTOR, DETECTION_CALLBACK, METRICS_LISTENER,
+                    CONTINUE_AFTER_DEADLINE);
+        }
+
+        Snapshot withExecutor(Executor executor) {
+            return new Snapshot(SETTINGS, executor, CALLBACK_EXECUTOR, DETECTION_CALLBACK, METRICS_LISTENER,
+                    CONTINUE_AFTER_DEADLINE);
+        }
+
+        Snapshot withCallbackExecutor(Executor callbackExecutor) {
+            return new Snapshot(SETTINGS, EXECUTOR, callbackExecutor, DETECTION_CALLBACK, METRICS_LISTENER,
+                    CONTINUE_AFTER_DEADLINE);
+        }
+
+        Snapshot withDetectionCallback(DetectionCallback detectionCallback) {
+            return new Snapshot(SETTINGS, EXECUTOR, CALLBACK_EXECUTOR, detectionCallback, METRICS_LISTENER,
+                    CONTINUE_AFTER_DEADLINE);
+        }
+
+        Snapshot withMetricsListener(ScanMetrics.Listener metricsListener) {
+            return new Snapshot(SETTINGS, EXECUTOR, CALLBACK_EXECUTOR, DETECTION_CALLBACK, metricsListener,
+                    CONTINUE_AFTER_DEADLINE);
+        }
+
+        Snapshot withContinueAfterDeadline(boolean continueAfterDeadline) {
+            return new Snapshot(SETTINGS, EXECUTOR, CALLBACK_EXECUTOR, DETECTION_CALLBACK, METRICS_LISTENER,
+                    continueAfterDeadline);
+        }
+    }
 
-        private List<Pirate> mPirateList = new ArrayList<>();
-        private int[] mFilters;
+    /**
+     * Hands results over to the callback on the callback executor, unless cancelled by then.
+     * With a deadline, whatever was found by then is handed over if the result is not in yet.
+     */
+    private static final class Delivery implements ScanPipeline.Listener, Runnable {
+        private final ScanSlot.Run mRun;
+        private final Callback mCallback;
+        private final DetectionCallback mDetectionCallback;
+        private final ScanMetrics.Listener mMetricsListener;
+        private final Executor mExecutor;
+        private final ScanProgress mProgress;
+        private volatile Future<?> mDeadline;
 
-        public FinderTask(Context context, Callback callback,
-                          List<Integer> filters, List<Pirate> customPirateList) {
-            mContextRef = new WeakReference<>(context);
+        /**
+         * @param progress Progress of the scan, null if it has no deadline.
+         */
+        Delivery(ScanSlot.Run run, Callback callback, DetectionCallback detectionCallback,
+                 ScanMetrics.Listener metricsListener, Executor executor, ScanProgress progress) {
+            mRun = run;
             mCallback = callback;
-            if ((filters != null) && (!filters.isEmpty())) {
-                mFilters = new int[filters.size()];
-                for (int i = 0; i < mFilters.length; i++) {
-                    mFilters[i] = filters.get(i);
-                }
-            } else {
-                mFilters = Filter.LIST;
-            }
-            if ((customPirateList != null) && (!customPirateList.isEmpty())) {
-                mPirateList.addAll(customPirateList);
+            mDetectionCallback = detectionCallback;
+            mMetricsListener = metricsListener;
+            mExecutor = executor;
+            mProgress = progress;
+        }
+
+        void schedule(long timeout) {
+            if (mProgress != null) {
+                mDeadline = ScanExecutors.deadlines().schedule(this, timeout, TimeUnit.MILLISECONDS);
             }
         }
 
+        /**
+         * Deadline passed.
+         */
         @Override
-        protected List<Pirate> doInBackground(Void... params) {
-            List<Pirate> found = new ArrayList<>();
-            Context context = mContextRef.get();
-            if (context != null) {
-                List<Pirate> pirates = PirateList.get(context);
-                if (pirates != null) {
-                    mPirateList.addAll(pirates);
-                }
-                if (!mPirateList.isEmpty()) {
-                    PackageManager manager = context.getPackageManager();
-                    for (Pirate pirate : mPirateList) {
-                        if (isCancelled()) {
-                            break;
-                        }
-                        if (containsAny(pirate.FILTERS, mFilters)) {
-                            for (String packageName : pirate.PACKAGES) {
-                                if (hasPackage(manager, packageName)) {
-                                    found.add(pirate);
-                                }
-                            }
-                        }
+        public void run() {
+            final ScanProgress.Partial partial = mProgress.expire();
+            if (partial == null) {
+                return;
+            }
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mRun.isCancelled()) {
+                        return;
+                    }
+                    // Only scans given a PartialCallback have a deadline
+                    ((PartialCallback) mCallback).onPartial(partial.PIRATES, partial.STAGES);
+                    if (!mProgress.isContinued()) {
+                        // Stop scanning once the partial result is handed over
+                        mRun.cancel();
                     }
                 }
-            }
-            return found.isEmpty() ? null : Collections.unmodifiableList(found);
+            });
         }
 
         @Override
-        protected void onPostExecute(List<Pirate> pirates) {
-            if (isCancelled()) {
-                return;
+        public void onDetected(final Pirate pirate) {
+            if (mProgress != null) {
+                mProgress.detect(pirate);
             }
-            if (mCallback != null) {
-                mCallback.onCompleted(pirates);
+            if (mDetectionCallback == null) {
+                return;
             }
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mRun.isCancelled()) {
+                        mDetectionCallback.onDetected(pirate);
+                    }
+                }
+            });
         }
 
-        private static boolean hasPackage(PackageManager manager, String packageName) {
-            if ((manager == null) || (packageName == null)) {
-                return false;
-            }
-            try {
-                ApplicationInfo info = manager.getApplicationInfo(packageName, 0);
-                return info != null;
-            } catch (Exception ex) {
-                return false;
+        @Override
+        public void onProgress(int stages) {
+            if (mProgress != null) {
+                mProgress.finish(stages);
             }
         }
 
-        private static boolean containsAny(int[] sources, int[] targets) {
-            if ((sources == null) || (targets == null)) {
-                return false;
-            }
-            if ((sources.length == 0) || (targets.length == 0)) {
-                return false;
+        @Override
+        public void onResult(final List<Pirate> pirateList) {
+            if (mProgress != null) {
+                if (!mProgress.complete()) {
+                    return;
+                }
+                Future<?> deadline = mDeadline;
+                if (deadline != null) {
+                    deadline.cancel(false);
+                }
             }
-            for (int source : sources) {
-                for (int target : targets) {
-                    if (source == target) {
-                        return true;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mRun.isCancelled()) {
+                        mCallback.onCompleted(pirateList);
                     }
                 }
+            });
+        }
+
+        @Override
+        public void onMetrics(final ScanMetrics metrics) {
+            if (mMetricsListener == null) {
+                return;
             }
-            return false;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mRun.isCancelled()) {
+                        mMetricsListener.onScanMetrics(metrics);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onFinished() {
         }
     }
 }
@@ -0,0 +1,295 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import android.content.Context;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Process-wide coordinator of scans. Scanners asking for the same scan (equal settings) while one
+ * is in flight join it and share its result, instead of fetching, parsing and matching the list
+ * once each.
+ */
+final class ScanCoordinator {
+    private static final ScanCoordinator INSTANCE = new ScanCoordinator();
+
+    /**
+     * Cancelling a subscription stops delivering results to its subscriber, the scan itself is
+     * cancelled once nobody is subscribed to it anymore.
+     */
+    interface Subscription extends ScanSlot.Handle {
+    }
+
+    private final Map<ScanSettings, SharedScan> mScans = new HashMap<>();
+
+    static ScanCoordinator getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Join the matching scan in flight, or start a new one.
+     *
+     * @param listener Listener of the scan results, a late subscriber first gets the pirates
+     *                 detected, the stages finished and the last result delivered so far (if any),
+     *                 always ahead of what the scan delivers next.
+     */
+    Subscription scan(Context context, Executor executor, ScanSettings settings, ScanPipeline.Listener listener) {
+        SharedScan scan;
+        boolean start = false;
+        Subscriber subscriber = new Subscriber(listener);
+        synchronized (this) {
+            scan = mScans.get(settings);
+            if (scan == null) {
+                Context application = context.getApplicationContext();
+                scan = new SharedScan(settings);
+                scan.mPipeline = new ScanPipeline((application != null) ? application : context, executor,
+                        scan, settings);
+                mScans.put(settings, scan);
+                start = true;
+            } else {
+                // Queued under the same lock as the scan's own events, so none of them overtakes it
+                for (Pirate pirate : scan.mDetected) {
+                    subscriber.post(detected(pirate));
+                }
+                if (scan.mStages != 0) {
+                    subscriber.post(progress(scan.mStages));
+                }
+                if (scan.mHasResult) {
+                    subscriber.post(result(scan.mLastResult));
+                }
+            }
+            scan.mSubscribers.add(subscriber);
+        }
+        if (start) {
+            scan.mPipeline.start();
+        } else {
+            subscriber.drain();
+        }
+        return new SharedSubscription(scan, subscriber);
+    }
+
+    private static Event detected(final Pirate pirate) {
+        return new Event() {
+            @Override
+            void deliverTo(ScanPipeline.Listener listener) {
+                listener.onDetected(pirate);
+            }
+        };
+    }
+
+    private static Event progress(final int stages) {
+        return new Event() {
+            @Override
+            void deliverTo(ScanPipeline.Listener listener) {
+                listener.onProgress(stages);
+            }
+        };
+    }
+
+    private static Event result(final List<Pirate> pirateList) {
+        return new Event() {
+            @Override
+            void deliverTo(ScanPipeline.Listener listener) {
+                listener.onResult(pirateList);
+            }
+        };
+    }
+
+    private abstract static class Event {
+        abstract void deliverTo(ScanPipeline.Listener listener);
+    }
+
+    /**
+     * Delivers events to one listener in the order they were posted, one at a time.
+     */
+    private static final class Subscriber {
+        private final ScanPipeline.Listener mListener;
+        private final Queue<Event> mQueue = new ArrayDeque<>();
+        private boolean mDraining;
+
+        Subscriber(ScanPipeline.Listener listener) {
+            mListener = listener;
+        }
+
+        synchronized void post(Event event) {
+            mQueue.add(event);
+        }
+
+        /**
+         * Deliver the events posted so far, unless another thread is already delivering them.
+         */
+        void drain() {
+            synchronized (this) {
+                if (mDraining) {
+                    return;
+                }
+                mDraining = true;
+            }
+            while (true) {
+                Event event;
+                synchronized (this) {
+                    event = mQueue.poll();
+                    if (event == null) {
+                        mDraining = false;
+                        return;
+                    }
+                }
+                try {
+                    event.deliverTo(mListener);
+                } catch (RuntimeException e) {
+                    synchronized (this) {
+                        mDraining = false;
+                    }
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private final class SharedScan implements ScanPipeline.Listener {
+        private final ScanSettings mKey;
+        private final List<Subscriber> mSubscribers = new ArrayList<>();
+        private final List<Pirate> mDetected = new ArrayList<>();
+        private ScanPipeline mPipeline;
+        private boolean mHasResult;
+        private int mStages;
+        private List<Pirate> mLastResult;
+        private volatile boolean mFinished;
+
+        SharedScan(ScanSettings key) {
+            mKey = key;
+        }
+
+        @Override
+        public void onDetected(Pirate pirate) {
+            List<Subscriber> subscribers;
+            synchronized (ScanCoordinator.this) {
+                mDetected.add(pirate);
+                subscribers = post(detected(pirate));
+            }
+            drain(subscribers);
+        }
+
+        @Override
+        public void onProgress(int stages) {
+            List<Subscriber> subscribers;
+            synchronized (ScanCoordinator.this) {
+                mStages = stages;
+                subscribers = post(progress(stages));
+            }
+            drain(subscribers);
+        }
+
+        @Override
+        public void onResult(List<Pirate> pirateList) {
+            List<Subscriber> subscribers;
+            synchronized (ScanCoordinator.this) {
+                mHasResult = true;
+                mLastResult = pirateList;
+                subscribers = post(result(pirateList));
+            }
+            drain(subscribers);
+        }
+
+        @Override
+        public void onMetrics(final ScanMetrics metrics) {
+            List<Subscriber> subscribers;
+            synchronized (ScanCoordinator.this) {
+                subscribers = post(new Event() {
+                    @Override
+                    void deliverTo(ScanPipeline.Listener listener) {
+                        listener.onMetrics(metrics);
+                    }
+                });
+            }
+            drain(subscribers);
+        }
+
+        @Override
+        public void onFinished() {
+            List<Subscriber> subscribers;
+            synchronized (ScanCoordinator.this) {
+                mFinished = true;
+                if (mScans.get(mKey) == this) {
+                    mScans.remove(mKey);
+                }
+                subscribers = post(new Event() {
+                    @Override
+                    void deliverTo(ScanPipeline.Listener listener) {
+                        listener.onFinished();
+                    }
+                });
+                mSubscribers.clear();
+            }
+            drain(subscribers);
+        }
+
+        /**
+         * Must be called holding the coordinator lock.
+         */
+        private List<Subscriber> post(Event event) {
+            for (Subscriber subscriber : mSubscribers) {
+                subscriber.post(event);
+            }
+            return new ArrayList<>(mSubscribers);
+        }
+
+        private void drain(List<Subscriber> subscribers) {
+            for (Subscriber subscriber : subscribers) {
+                subscriber.drain();
+            }
+        }
+    }
+
+    private final class SharedSubscription implements Subscription {
+        private final SharedScan mScan;
+        private final Subscriber mSubscriber;
+
+        SharedSubscription(SharedScan scan, Subscriber subscriber) {
+            mScan = scan;
+            mSubscriber = subscriber;
+        }
+
+        @Override
+        public void cancel() {
+            boolean abandoned;
+            synchronized (ScanCoordinator.this) {
+                abandoned = mScan.mSubscribers.remove(mSubscriber) && mScan.mSubscribers.isEmpty()
+                        && (!mScan.mFinished);
+                if (abandoned && (mScans.get(mScan.mKey) == mScan)) {
+                    mScans.remove(mScan.mKey);
+                }
+            }
+            if (abandoned) {
+                mScan.mPipeline.cancel();
+            }
+        }
+
+        @Override
+        public boolean isDone() {
+            return mScan.mFinished;
+        }
+    }
+
+    private ScanCoordinator(){}
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Default executors of the scanner.
+ */
+final class ScanExecutors {
+    private static final int POOL_SIZE = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static volatile ExecutorService sBackground;
+    private static volatile Executor sMainThread;
+    private static volatile ScheduledExecutorService sDeadlines;
+
+    /**
+     * @return Small pool dedicated to scanning, so scans never queue behind unrelated work.
+     * Idle threads are let go after a while.
+     */
+    static Executor background() {
+        if (sBackground == null) {
+            synchronized (ScanExecutors.class) {
+                if (sBackground == null) {
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+                            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                            new ThreadFactory() {
+                                private final AtomicInteger mCount = new AtomicInteger();
+
+                                @Override
+                                public Thread newThread(Runnable runnable) {
+                                    Thread thread = new Thread(runnable, "PirateScanner #" + mCount.incrementAndGet());
+                                    thread.setDaemon(true);
+                                    thread.setPriority(Thread.MIN_PRIORITY);
+                                    return thread;
+                                }
+                            });
+                    executor.allowCoreThreadTimeOut(true);
+                    sBackground = executor;
+                }
+            }
+        }
+        return sBackground;
+    }
+
+    /**
+     * @return Single thread where deadlines of the scans pass, it never runs any scanning itself.
+     */
+    static ScheduledExecutorService deadlines() {
+        if (sDeadlines == null) {
+            synchronized (ScanExecutors.class) {
+                if (sDeadlines == null) {
+                    sDeadlines = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "PirateScanner deadline");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+            }
+        }
+        return sDeadlines;
+    }
+
+    /**
+     * @return Executor that runs everything on the main thread.
+     */
+    static Executor mainThread() {
+        if (sMainThread == null) {
+            synchronized (ScanExecutors.class) {
+                if (sMainThread == null) {
+                    final Handler handler = new Handler(Looper.getMainLooper());
+                    sMainThread = new Executor() {
+                        @Override
+                        public void execute(Runnable runnable) {
+                            handler.post(runnable);
+                        }
+                    };
+                }
+            }
+        }
+        return sMainThread;
+    }
+
+    private ScanExecutors(){}
+}
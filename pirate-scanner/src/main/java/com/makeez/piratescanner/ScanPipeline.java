@@ -0,0 +1,719 @@
+/**
+ * Copyright (c) 2016 Daniel Tan <tantzewee@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.makeez.piratescanner;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+
+/**
+ * A single scan, split into stages: load the pirate list, index it, enumerate installed
+ * packages and match. Package enumeration runs on the executor while the list is being loaded,
+ * and the packages found most often on earlier scans are looked up first, without waiting for it.
+ */
+final class ScanPipeline implements Runnable {
+    interface Listener {
+        /**
+         * Called on the worker thread for every pirate as soon as it is found, once per pirate.
+         */
+        void onDetected(Pirate pirate);
+
+        /**
+         * Called on the worker thread whenever stages finish.
+         *
+         * @param stages Bitmask of every PirateScanner.STAGE_* finished so far.
+         */
+        void onProgress(int stages);
+
+        /**
+         * Called on the worker thread for every result that should be delivered.
+         */
+        void onResult(List<Pirate> pirateList);
+
+        /**
+         * Called on the worker thread after the last result, unless the scan was cancelled.
+         */
+        void onMetrics(ScanMetrics metrics);
+
+        /**
+         * Called on the worker thread once the scan is over, cancelled or not.
+         */
+        void onFinished();
+    }
+
+    /**
+     * Outcome of the last scan is kept in this file (in internal storage) for incremental scans.
+     */
+    private static final String LOCAL_SCAN_STATE = "pirate-scan-state.bin";
+
+    /**
+     * How often each package was found is kept in this file (in internal storage).
+     */
+    private static final String LOCAL_HITS = "pirate-hits.bin";
+
+    /**
+     * Verdicts of the package detectors are kept in this file (in internal storage).
+     */
+    private static final String LOCAL_VERDICTS = "pirate-verdicts.bin";
+
+    /**
+     * Verdict of the latest scan is shared with the other processes of the app through this file
+     * (in internal storage).
+     */
+    private static final String LOCAL_SHARED_VERDICT = "pirate-verdict.shared";
+
+    /**
+     * Number of most often found packages looked up before anything else.
+     */
+    private static final int PROBES = 8;
+
+    private final WeakReference<Context> mContextRef;
+    private final Executor mExecutor;
+    private final Listener mListener;
+    private final int mMode;
+    private final boolean mIncremental;
+    private final int mFilterMask;
+    private final List<Pirate> mPirateList;
+    private final boolean mFirstMatch;
+    private final List<PackageDetector> mDetectors;
+    private final long mSharedMaxAge;
+
+    private static SharedVerdict sSharedVerdict;
+
+    private final FutureTask<Void> mTask;
+    private volatile boolean mCancelled;
+
+    // Only touched by the worker thread while the scan runs
+    private MetricsRecorder mRecorder;
+    private PackageManager mManager;
+    private InstalledPackages mInstalled;
+    private FutureTask<Set<String>> mEnumeration;
+    private PirateIndex mCustom;
+    private File mState;
+    private HitCounter mHits;
+    private PackageInspector mInspector;
+    private PackageFacts mFacts;
+    private CompiledPirateList mLastList;
+    private Pass mLastPass;
+    private int mStages;
+    private boolean mDelivered;
+    private final Set<String> mHitPackages = new HashSet<>();
+    private final Set<String> mDetected = new HashSet<>();
+
+    ScanPipeline(Context context, Executor executor, Listener listener, ScanSettings settings) {
+        mContextRef = new WeakReference<>(context);
+        mExecutor = executor;
+        mListener = listener;
+        mMode = settings.MODE;
+        mIncremental = settings.INCREMENTAL;
+        mFilterMask = settings.getFilterMask();
+        mPirateList = settings.PIRATES;
+        mFirstMatch = settings.FIRST_MATCH;
+        mDetectors = settings.DETECTORS;
+        mSharedMaxAge = settings.SHARED_MAX_AGE;
+        mTask = new FutureTask<>(this, null);
+    }
+
+    void start() {
+        mExecutor.execute(mTask);
+    }
+
+    void cancel() {
+        mCancelled = true;
+        mTask.cancel(true);
+    }
+
+    boolean isDone() {
+        return mTask.isDone();
+    }
+
+    @Override
+    public void run() {
+        try {
+            mRecorder = new MetricsRecorder();
+            try {
+                scan();
+            } catch (RuntimeException e) {
+                // Eg. a corrupted list or a failing list source, the scan still ends with a result
+                mRecorder.recordError(e);
+                if ((!mDelivered) && (!mCancelled)) {
+                    deliver(null);
+                }
+            }
+            if (!mCancelled) {
+                ScanMetrics metrics = mRecorder.finish();
+                ScanStats.record(metrics);
+                mListener.onMetrics(metrics);
+            }
+        } finally {
+            mListener.onFinished();
+        }
+    }
+
+    private void scan() {
+        Context context = mContextRef.get();
+        if (context == null) {
+            deliver(null);
+            return;
+        }
+        mManager = context.getPackageManager();
+        mInstalled = new InstalledPackages(mManager);
+        mEnumeration = new FutureTask<>(new Callable<Set<String>>() {
+            @Override
+            public Set<String> call() throws Exception {
+                return mInstalled.getInstalledPackages();
+            }
+        });
+        try {
+            mExecutor.execute(mEnumeration);
+        } catch (RejectedExecutionException e) {
+            // Enumerated below instead
+        }
+        mCustom = mPirateList.isEmpty() ? null : new HashPirateIndex(mPirateList, mFilterMask);
+        mState = new File(context.getFilesDir(), LOCAL_SCAN_STATE);
+        mHits = new HitCounter(new File(context.getFilesDir(), LOCAL_HITS));
+        if (!mDetectors.isEmpty()) {
+            mInspector = new PackageInspector(mDetectors, new File(context.getFilesDir(), LOCAL_VERDICTS));
+            mFacts = new PackageManagerFacts(mManager);
+        }
+        try {
+            if (mSharedMaxAge > 0) {
+                scanShared(context);
+            } else {
+                scan(context);
+            }
+        } finally {
+            // Not needed anymore if the scan stopped early
+            mEnumeration.cancel(true);
+            mHits.save();
+            if (mInspector != null) {
+                mInspector.save();
+            }
+        }
+    }
+
+    private void scan(Context context) {
+        CompiledPirateList list = ListCache.get();
+        if (list != null) {
+            mRecorder.setSource(ScanMetrics.SOURCE_MEMORY);
+            finish(PirateScanner.STAGE_REFRESH);
+        } else if (mMode == PirateScanner.MODE_STALE_WHILE_REVALIDATE) {
+            // Nothing but local copies before the stale result
+            CompiledPirateList cached = null;
+            Pass stale = null;
+            if (rulesOut(PirateList.getSketch(context, false, mRecorder))) {
+                mRecorder.setSource(ScanMetrics.SOURCE_SKETCH);
+                finish(PirateScanner.STAGE_MATCH);
+                stale = find(null);
+            } else {
+                cached = PirateList.getCompiledFromLocal(context, mRecorder);
+                if (cached != null) {
+                    mRecorder.setSource(ScanMetrics.SOURCE_LOCAL);
+                    stale = find(cached);
+                }
+            }
+            if (stale != null) {
+                if (mCancelled) {
+                    return;
+                }
+                List<Pirate> staleResult = stale.result();
+                deliver(staleResult);
+                if (stale.mStopped) {
+                    // First match found, a fresher list cannot change the verdict
+                    return;
+                }
+                CompiledPirateList refreshed;
+                if (cached != null) {
+                    refreshed = PirateList.refresh(context, mRecorder);
+                    ListCache.put((refreshed != null) ? refreshed : cached);
+                } else {
+                    // Only load the list if the revalidated sketch no longer rules every package out
+                    refreshed = rulesOut(PirateList.getSketch(context, true, mRecorder))
+                            ? null : PirateList.getCompiled(context, mRecorder);
+                    if (refreshed != null) {
+                        ListCache.put(refreshed);
+                    }
+                }
+                finish(PirateScanner.STAGE_REFRESH);
+                if ((refreshed != null) && (!mCancelled)) {
+                    List<Pirate> fresh = find(refreshed).result();
+                    if ((!mCancelled) && addsHits(staleResult, fresh)) {
+                        deliver(fresh);
+                    }
+                }
+                return;
+            }
+        } else if (mMode == PirateScanner.MODE_LOCAL_FIRST) {
+            if (ruledOut(context, false)) {
+                return;
+            }
+            list = PirateList.getCompiledFromLocal(context, mRecorder);
+            if (list != null) {
+                mRecorder.setSource(ScanMetrics.SOURCE_LOCAL);
+                ListCache.put(list);
+                finish(PirateScanner.STAGE_REFRESH);
+            }
+        }
+        if (list == null) {
+            if ((mMode != PirateScanner.MODE_LOCAL_FIRST) && ruledOut(context, true)) {
+                return;
+            }
+            list = PirateList.getCompiled(context, mRecorder);
+            if (list != null) {
+                ListCache.put(list);
+            } else {
+                mRecorder.setSource(ScanMetrics.SOURCE_NONE);
+            }
+            finish(PirateScanner.STAGE_REFRESH);
+        }
+        List<Pirate> found = find(list).result();
+        if (!mCancelled) {
+            deliver(found);
+        }
+    }
+
+    /**
+     * Reuse the verdict published by any process if it is still fresh, otherwise scan while
+     * holding the right to refresh it, so that processes scanning at the same time wait for one
+     * verdict instead of all scanning, and publish the outcome.
+     */
+    private void scanShared(Context context) {
+        Set<String> packages = await(mEnumeration);
+        if (packages == null) {
+            scan(context);
+            return;
+        }
+        long fingerprint = IncrementalScanner.fingerprint(packages);
+        long settings = settings();
+        SharedVerdict shared = sharedVerdict(context);
+        if (reuse(shared.read(), fingerprint, settings)) {
+            return;
+        }
+        try {
+            shared.acquire();
+        } catch (IOException e) {
+            if (!mCancelled) {
+                mRecorder.recordError(e);
+                scan(context);
+            }
+            return;
+        }
+        try {
+            // Published by another process while waiting for the right to refresh
+            if (reuse(shared.read(), fingerprint, settings)) {
+                return;
+            }
+            scan(context);
+            if ((mLastList != null) && (!mLastPass.isOver())) {
+                shared.publish(mLastList.getChecksum(), fingerprint, settings, System.currentTimeMillis(),
+                        mLastPass.result());
+            }
+        } catch (IOException e) {
+            mRecorder.recordError(e);
+        } finally {
+            shared.release();
+        }
+    }
+
+    /**
+     * Deliver a shared verdict, if it was reached with the same settings, the same installed
+     * packages and the list held in memory (if any), and is not older than the max age.
+     */
+    private boolean reuse(SharedVerdict.Verdict verdict, long fingerprint, long settings) {
+        if ((verdict == null) || (verdict.FINGERPRINT != fingerprint) || (verdict.SETTINGS != settings)) {
+            return false;
+        }
+        long age = System.currentTimeMillis() - verdict.PUBLISHED_AT;
+        if ((age < 0) || (age > mSharedMaxAge)) {
+            return false;
+        }
+        CompiledPirateList list = ListCache.get();
+        if ((list != null) && (list.getChecksum() != verdict.LIST_VERSION)) {
+            return false;
+        }
+        mRecorder.setSource(ScanMetrics.SOURCE_SHARED);
+        List<Pirate> found = verdict.PIRATES;
+        if ((found != null) && mFirstMatch) {
+            found = found.subList(0, 1);
+        }
+        if (found != null) {
+            for (Pirate pirate : found) {
+                mListener.onDetected(pirate);
+            }
+            found = Collections.unmodifiableList(found);
+        }
+        if (!mCancelled) {
+            deliver(found);
+        }
+        return true;
+    }
+
+    /**
+     * @return Key of the settings that change the verdict: filters, custom pirates and detectors.
+     */
+    private long settings() {
+        CRC32 crc = new CRC32();
+        update(crc, mFilterMask);
+        update(crc, PirateListWriter.checksum(mPirateList));
+        for (PackageDetector detector : mDetectors) {
+            update(crc, detector.fingerprint());
+        }
+        return crc.getValue();
+    }
+
+    private static void update(CRC32 crc, long value) {
+        for (int i = 0; i < 64; i += 8) {
+            crc.update((int) (value >>> i));
+        }
+    }
+
+    private static synchronized SharedVerdict sharedVerdict(Context context) {
+        if (sSharedVerdict == null) {
+            sSharedVerdict = new SharedVerdict(new File(context.getFilesDir(), LOCAL_SHARED_VERDICT));
+        }
+        return sSharedVerdict;
+    }
+
+    /**
+     * Check the installed packages against the sketch of the pirate list, if there is one, and
+     * deliver the result without loading the list when none of them may be listed.
+     *
+     * @param revalidate Whether the sketch may be refreshed first.
+     * @return False if the list has to be loaded.
+     */
+    private boolean ruledOut(Context context, boolean revalidate) {
+        if (!rulesOut(PirateList.getSketch(context, revalidate, mRecorder))) {
+            return false;
+        }
+        mRecorder.setSource(ScanMetrics.SOURCE_SKETCH);
+        finish(PirateScanner.STAGE_MATCH | PirateScanner.STAGE_REFRESH);
+        // Custom pirates and detectors are still matched
+        List<Pirate> found = find(null).result();
+        if (!mCancelled) {
+            deliver(found);
+        }
+        return true;
+    }
+
+    /**
+     * @return Whether none of the installed packages may be listed according to the sketch.
+     */
+    private boolean rulesOut(ListSketch sketch) {
+        if (sketch == null) {
+            return false;
+        }
+        Set<String> packages = await(mEnumeration);
+        if ((packages == null) || mCancelled) {
+            return false;
+        }
+        long start = System.nanoTime();
+        boolean candidates = !sketch.candidates(packages).isEmpty();
+        mRecorder.recordMatch(System.nanoTime() - start, packages.size());
+        return !candidates;
+    }
+
+    /**
+     * Wait for the enumeration stage, running it on this thread if the executor has not started it yet.
+     */
+    private static Set<String> await(FutureTask<Set<String>> enumeration) {
+        enumeration.run();
+        try {
+            return enumeration.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | CancellationException e) {
+            return null;
+        }
+    }
+
+    private Pass find(CompiledPirateList pirates) {
+        long start = System.nanoTime();
+        Pass pass = new Pass(mCustom, (pirates != null) ? pirates.index(mFilterMask) : null);
+        pass.probe(mHits.top(PROBES));
+        if (!pass.isOver()) {
+            finish(PirateScanner.STAGE_PROBE);
+            Set<String> packages = await(mEnumeration);
+            pass.match(Pass.CUSTOM, packages);
+            if ((pirates != null) && (!pass.isOver())) {
+                IncrementalScanner.Result result = null;
+                if (mIncremental && (packages != null)) {
+                    result = new IncrementalScanner(mState).scan(pirates.index(), pirates.getChecksum(),
+                            mInstalled);
+                }
+                pass.match(Pass.LIST, (result != null) ? result.MATCHED : packages);
+                if (!pass.isOver()) {
+                    finish(PirateScanner.STAGE_MATCH);
+                }
+            }
+            if ((mInspector != null) && (packages != null) && (!pass.isOver())) {
+                pass.inspect(mInstalled.getStamps());
+            }
+            if ((packages != null) && (!pass.isOver())) {
+                finish(PirateScanner.STAGE_DETECTORS);
+            }
+        }
+        mRecorder.recordMatch(System.nanoTime() - start, pass.mLookups);
+        mLastList = pirates;
+        mLastPass = pass;
+        return pass;
+    }
+
+    private void deliver(List<Pirate> found) {
+        mDelivered = true;
+        mListener.onResult(found);
+    }
+
+    private void finish(int stage) {
+        if ((mStages & stage) != stage) {
+            mStages |= stage;
+            mListener.onProgress(mStages);
+        }
+    }
+
+    /**
+     * Reports a pirate to the listener, unless it was already reported by an earlier pass.
+     */
+    private void detect(Pirate pirate, String packageName) {
+        if (mHitPackages.add(packageName)) {
+            mHits.record(packageName);
+        }
+        if (mDetected.add(key(pirate))) {
+            mListener.onDetected(pirate);
+        }
+    }
+
+    /**
+     * One pass of matching the installed packages against the custom pirates and a pirate list.
+     */
+    private final class Pass implements PirateMatcher.Listener {
+        static final int CUSTOM = 0;
+        static final int LIST = 1;
+
+        private final PirateIndex[] mIndexes;
+        private final boolean[][] mFound;
+        private final int[] mCount;
+        private final List<Pirate> mSuspects = new ArrayList<>();
+        private int mCurrent;
+        private int mLookups;
+        private boolean mStopped;
+
+        Pass(PirateIndex custom, PirateIndex list) {
+            mIndexes = new PirateIndex[] { custom, list };
+            mFound = new boolean[][] {
+                    (custom != null) ? new boolean[custom.size()] : null,
+                    (list != null) ? new boolean[list.size()] : null };
+            mCount = new int[mIndexes.length];
+        }
+
+        boolean isOver() {
+            return mStopped || mCancelled;
+        }
+
+        /**
+         * Look up the given packages first, through the enumeration if it is done already,
+         * or one by one through the PackageManager otherwise.
+         */
+        void probe(List<String> packageNames) {
+            if (packageNames.isEmpty()) {
+                return;
+            }
+            Set<String> packages = mEnumeration.isDone() ? await(mEnumeration) : null;
+            for (String packageName : packageNames) {
+                if (!isListed(packageName)) {
+                    continue;
+                }
+                mLookups++;
+                boolean installed = (packages != null) ? packages.contains(packageName)
+                        : hasPackage(mManager, packageName);
+                if (installed) {
+                    for (int i = 0; i < mIndexes.length; i++) {
+                        if ((mIndexes[i] != null) && (!matchPackage(i, packageName))) {
+                            return;
+                        }
+                    }
+                }
+                if (isOver()) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @param packages Installed packages, or null to ask the PackageManager about every indexed one.
+         */
+        void match(int index, Set<String> packages) {
+            if (mIndexes[index] == null) {
+                return;
+            }
+            mCurrent = index;
+            if (packages != null) {
+                mLookups += PirateMatcher.match(mIndexes[index], packages, mFound[index], this);
+            } else {
+                lookUpEach(index);
+            }
+        }
+
+        /**
+         * Fallback for when the installed packages cannot be enumerated at once,
+         * asks the PackageManager about every indexed package name instead.
+         * Package name patterns cannot be asked about and are skipped.
+         */
+        private void lookUpEach(int index) {
+            PirateIndex pirates = mIndexes[index];
+            for (int i = 0, j = pirates.packageCount(); i < j; i++) {
+                if (isOver()) {
+                    break;
+                }
+                String packageName = pirates.packageAt(i);
+                if (PatternIndex.isPattern(packageName)) {
+                    continue;
+                }
+                mLookups++;
+                if (hasPackage(mManager, packageName) && (!matchPackage(index, packageName))) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Run the package detectors, only packages installed or updated since they last ran are
+         * looked into, the others get their cached verdict.
+         */
+        void inspect(List<PackageStamp> installed) {
+            mInspector.inspect(installed, mFacts, mFilterMask, new PirateMatcher.Listener() {
+                @Override
+                public boolean onMatch(Pirate pirate, String packageName) {
+                    mSuspects.add(pirate);
+                    return report(pirate, packageName);
+                }
+            });
+            if (mInspector.getError() != null) {
+                mRecorder.recordError(mInspector.getError());
+            }
+        }
+
+        private boolean matchPackage(int index, String packageName) {
+            mCurrent = index;
+            return PirateMatcher.matchPackage(mIndexes[index], packageName, mFound[index], this);
+        }
+
+        private boolean isListed(String packageName) {
+            for (PirateIndex index : mIndexes) {
+                if ((index != null) && PirateMatcher.isListed(index, packageName)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean onMatch(Pirate pirate, String packageName) {
+            mCount[mCurrent]++;
+            return report(pirate, packageName);
+        }
+
+        private boolean report(Pirate pirate, String packageName) {
+            detect(pirate, packageName);
+            if (mFirstMatch) {
+                mStopped = true;
+            }
+            return !isOver();
+        }
+
+        /**
+         * @return Pirates found, custom ones first, each in index order, then the ones found
+         * by the detectors, or null if none was found.
+         */
+        List<Pirate> result() {
+            List<Pirate> found = new ArrayList<>();
+            Set<String> keys = new HashSet<>();
+            for (int i = 0; i < mIndexes.length; i++) {
+                if (mIndexes[i] != null) {
+                    List<Pirate> pirates = PirateMatcher.collect(mIndexes[i], mFound[i], mCount[i]);
+                    if (pirates != null) {
+                        found.addAll(pirates);
+                        for (Pirate pirate : pirates) {
+                            keys.add(key(pirate));
+                        }
+                    }
+                }
+            }
+            for (Pirate pirate : mSuspects) {
+                if (keys.add(key(pirate))) {
+                    found.add(pirate);
+                }
+            }
+            return found.isEmpty() ? null : Collections.unmodifiableList(found);
+        }
+    }
+
+    private static boolean addsHits(List<Pirate> before, List<Pirate> after) {
+        if (after == null) {
+            return false;
+        }
+        if (before == null) {
+            return true;
+        }
+        Set<String> keys = new HashSet<>();
+        for (Pirate pirate : before) {
+            keys.add(key(pirate));
+        }
+        for (Pirate pirate : after) {
+            if (!keys.contains(key(pirate))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Key of the entry the pirate comes from, the same across versions of the list.
+     * Entries may share a display name, so the packages are part of it.
+     */
+    private static String key(Pirate pirate) {
+        return pirate.NAME + '\n' + Arrays.toString(pirate.PACKAGES);
+    }
+
+    private static boolean hasPackage(PackageManager manager, String packageName) {
+        if ((manager == null) || (packageName == null)) {
+            return false;
+        }
+        try {
+            ApplicationInfo info = manager.getApplicationInfo(packageName, 0);
+            return info != null;
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+}